@@ -26,4 +26,6 @@ public class Settings {
 	public static final String YOSYS_LOC = "YOSYS_LOC";
 	public static final String ARACHNE_LOC = "ARACHNE_LOC";
 	public static final String EDITOR_FONT_SIZE = "EDITOR_FONT_SIZE";
+	public static final String UNDO_MEMORY_LIMIT = "UNDO_MEMORY_LIMIT";
+	public static final String DIFF_FLASH = "DIFF_FLASH";
 }
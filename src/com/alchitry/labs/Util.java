@@ -13,9 +13,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.RoundingMode;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -50,10 +48,11 @@ import org.eclipse.swt.widgets.MessageBox;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Text;
 
+import com.alchitry.labs.gui.EditorSnapshots;
 import com.alchitry.labs.gui.Theme;
 import com.alchitry.labs.gui.main.MainWindow;
 import com.alchitry.labs.hardware.boards.Board;
-import com.alchitry.labs.parsers.BigFunctions;
+import com.alchitry.labs.parsers.ConstFunctions;
 import com.alchitry.labs.widgets.CustomConsole;
 
 public class Util {
@@ -81,6 +80,13 @@ public class Util {
 
 	private static BufferedWriter consoleLogger;
 
+	public interface PrintFilter {
+		// returns the text to print or null to drop it
+		public String filter(String text, Color color);
+	}
+
+	private static final ThreadLocal<PrintFilter> printFilter = new ThreadLocal<>();
+
 	static {
 		String os = System.getProperty("os.name");
 		isWindows = os.startsWith("Windows");
@@ -156,6 +162,14 @@ public class Util {
 		return console;
 	}
 
+	// everything printed from the current thread goes through filter first, null removes the filter
+	public static void setPrintFilter(PrintFilter filter) {
+		if (filter == null)
+			printFilter.remove();
+		else
+			printFilter.set(filter);
+	}
+
 	private static class QuestionRunnable implements Runnable {
 		public boolean result;
 		private String title;
@@ -318,7 +332,14 @@ public class Util {
 		println(ExceptionUtils.getStackTrace(e), true);
 	}
 
-	public static void print(final String text, final Color color) {
+	public static void print(String message, final Color color) {
+		PrintFilter filter = printFilter.get();
+		if (filter != null) {
+			message = filter.filter(message, color);
+			if (message == null)
+				return;
+		}
+		final String text = message;
 		if (consoleLogger != null) {
 			try {
 				consoleLogger.write(text);
@@ -367,16 +388,17 @@ public class Util {
 	}
 
 	public static int minWidthNum(BigInteger i) {
-		if (i.compareTo(BigInteger.ZERO) != 0)
-			return BigFunctions.ln(new BigDecimal(i), 10).divide(BigFunctions.LOG2, RoundingMode.HALF_UP)
-					.setScale(0, RoundingMode.FLOOR).intValue() + 1;
+		if (i.signum() < 0)
+			throw new IllegalArgumentException("x <= 0");
+		if (i.signum() != 0)
+			return i.bitLength();
 		else
 			return 1;
 	}
 
 	public static int minWidthNum(long i) {
-		if (i != 0)
-			return (int) Math.floor(Math.log(i) / Math.log(2)) + 1;
+		if (i > 0)
+			return ConstFunctions.bitLength(i);
 		else
 			return 1;
 	}
@@ -582,9 +604,13 @@ public class Util {
 		return new String(encoded, encoding);
 	}
 
+	// returns the text of the file from its editor if it is open, this is safe to call from any thread
 	public static String getFileText(File file) {
-		String t = MainWindow.mainWindow.getEditorText(file);
-		if (t == null)
+		CharSequence snapshot = EditorSnapshots.get(file);
+		String t = null;
+		if (snapshot != null)
+			t = snapshot.toString();
+		else
 			try {
 				t = readFile(file);
 			} catch (IOException e) {
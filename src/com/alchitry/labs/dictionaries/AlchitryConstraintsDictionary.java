@@ -27,11 +27,11 @@ public class AlchitryConstraintsDictionary extends Dictionary {
 				Module top = p.getTopModule();
 				clear();
 				for (Sig s : top.getInputs()) 
-					dict.add(s.getName());
+					add(s.getName());
 				for (Sig s : top.getOutputs())
-					dict.add(s.getName());
+					add(s.getName());
 				for (Sig s : top.getInouts())
-					dict.add(s.getName());
+					add(s.getName());
 			} catch (IOException e) {
 				return;
 			}
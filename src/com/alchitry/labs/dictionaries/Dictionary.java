@@ -4,39 +4,65 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.commons.lang3.StringUtils;
 
 public class Dictionary {
-	protected Set<String> dict;
+	private static final int MAX_MATCHES = 5;
+
+	/*
+	 * The same words are cleared and added again every time a file is checked so words are only
+	 * removed from the trie if they weren't added again before the next clear().
+	 */
+	private WordTrie trie = new WordTrie();
+	private HashMap<String, Integer> generations = new HashMap<>();
+	private int generation;
+	private int version; // changes whenever the words that can be matched change
+
+	private String lastKey;
+	private int lastVersion;
+	private List<String> lastCandidates;
 
 	public Dictionary() {
-		dict = new HashSet<String>();
 	}
 
 	public Dictionary(List<String> list) {
-		dict = new HashSet<String>(list);
+		addAll(list);
 	}
 
-	public void add(String word) {
-		dict.add(word);
+	public synchronized void add(String word) {
+		Integer gen = generations.put(word, generation);
+		if (gen == null)
+			trie.add(word);
+		if (gen == null || gen != generation)
+			version++;
 	}
 
-	public void clear() {
-		dict.clear();
+	public synchronized void clear() {
+		for (Iterator<Map.Entry<String, Integer>> it = generations.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Integer> e = it.next();
+			if (e.getValue() != generation) {
+				trie.remove(e.getKey());
+				it.remove();
+			}
+		}
+		generation++;
+		version++;
 	}
 
 	public void addAll(Collection<String> list) {
-		dict.addAll(list);
+		for (String s : list)
+			add(s);
 	}
 
 	public void addAll(String[] list) {
-		dict.addAll(Arrays.asList(list));
+		addAll(Arrays.asList(list));
 	}
 
 	protected static int calculateMatch(String str, String key) {
@@ -89,30 +115,54 @@ public class Dictionary {
 
 	};
 
-	public List<String> findMatches(String partial) {
-		return findMatches(partial, dict);
-	}
-
-	public static List<String> findMatches(String partial, Set<String> dict) {
-		if (partial.isEmpty())
-			return new ArrayList<String>(dict);
-
+	private static List<String> getBest(String partial, List<String> candidates) {
 		TreeSet<StringValuePair> list = new TreeSet<StringValuePair>(comp);
-		for (String s : dict) {
+		for (String s : candidates) {
 			int match = calculateMatch(s, partial);
 			if (match != -1) {
 				list.add(new StringValuePair(s, match));
+				if (list.size() > MAX_MATCHES)
+					list.pollLast();
 			}
 		}
-		ArrayList<String> best = new ArrayList<>();
-
-		Iterator<StringValuePair> itr = list.iterator();
 
-		while (itr.hasNext() && best.size() < 5) {
-			StringValuePair pair = itr.next();
+		ArrayList<String> best = new ArrayList<>();
+		for (StringValuePair pair : list)
 			best.add(pair.string);
+		return best;
+	}
+
+	public synchronized List<String> findMatches(String partial) {
+		List<String> candidates = new ArrayList<>();
+		if (partial.isEmpty()) {
+			trie.findPrefix("", candidates);
+		} else if (lastKey != null && !lastKey.isEmpty() && lastVersion == version && partial.toLowerCase().startsWith(lastKey.toLowerCase())) {
+			// typing another letter can only remove candidates
+			for (String s : lastCandidates)
+				if (calculateMatch(s, partial) != -1)
+					candidates.add(s);
+		} else {
+			trie.findSubsequence(partial, candidates);
 		}
 
-		return best;
+		// drop words that weren't added again since the last clear()
+		for (Iterator<String> it = candidates.iterator(); it.hasNext();)
+			if (generations.get(it.next()) != generation)
+				it.remove();
+
+		lastKey = partial;
+		lastVersion = version;
+		lastCandidates = candidates;
+
+		if (partial.isEmpty())
+			return new ArrayList<>(candidates);
+		return getBest(partial, candidates);
+	}
+
+	public static List<String> findMatches(String partial, Set<String> dict) {
+		if (partial.isEmpty())
+			return new ArrayList<String>(dict);
+
+		return getBest(partial, new ArrayList<>(dict));
 	}
 }
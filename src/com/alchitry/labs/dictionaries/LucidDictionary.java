@@ -63,7 +63,7 @@ public class LucidDictionary extends Dictionary {
 	}
 
 	// Finds the next word starting from a "."
-	private String getNextWord(String text) {
+	private String getNextWord(CharSequence text) {
 		int start, end;
 		end = Math.min(position, text.length());
 		start = Math.max(end - 1, 0);
@@ -87,7 +87,7 @@ public class LucidDictionary extends Dictionary {
 			if (start > end)
 				start = end;
 			position = start;
-			return text.substring(start, end);
+			return text.subSequence(start, end).toString();
 		}
 		return null;
 	}
@@ -96,7 +96,7 @@ public class LucidDictionary extends Dictionary {
 	private List<String> getWordsBefore() {
 		ArrayList<String> list = new ArrayList<>();
 
-		String text = editor.getText();
+		CharSequence text = editor.getSnapshot();
 		position = editor.getCaretOffset();
 
 		String word;
@@ -0,0 +1,172 @@
+package com.alchitry.labs.dictionaries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Case insensitive trie of words. Every node knows which characters appear below it so a search
+ * for words containing the key as a subsequence only walks the branches that can still match.
+ */
+public class WordTrie {
+	private Node root = new Node('\0');
+	private int size;
+
+	private static class Node {
+		public final char c;
+		public char[] keys = new char[0];
+		public Node[] children = new Node[0];
+		public List<String> words; // words ending at this node, they only differ in case
+		public long mask; // characters in the nodes below this one
+		public int count; // words in this node and below
+
+		public Node(char c) {
+			this.c = c;
+		}
+
+		public Node getChild(char c) {
+			for (int i = 0; i < keys.length; i++)
+				if (keys[i] == c)
+					return children[i];
+			return null;
+		}
+
+		public Node addChild(char c) {
+			Node n = new Node(c);
+			keys = Arrays.copyOf(keys, keys.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			keys[keys.length - 1] = c;
+			children[children.length - 1] = n;
+			return n;
+		}
+
+		public void removeChild(Node n) {
+			for (int i = 0; i < children.length; i++) {
+				if (children[i] == n) {
+					int last = children.length - 1;
+					keys[i] = keys[last];
+					children[i] = children[last];
+					keys = Arrays.copyOf(keys, last);
+					children = Arrays.copyOf(children, last);
+					return;
+				}
+			}
+		}
+
+		public void updateMask() {
+			mask = 0;
+			for (Node n : children)
+				mask |= bit(n.c) | n.mask;
+		}
+	}
+
+	private static long bit(char c) {
+		if (c >= 'a' && c <= 'z')
+			return 1L << (c - 'a');
+		if (c >= '0' && c <= '9')
+			return 1L << (26 + c - '0');
+		if (c == '_')
+			return 1L << 36;
+		return 1L << 37;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean add(String word) {
+		String lower = word.toLowerCase();
+		Node[] path = new Node[lower.length() + 1];
+		Node node = root;
+		path[0] = node;
+		for (int i = 0; i < lower.length(); i++) {
+			Node next = node.getChild(lower.charAt(i));
+			if (next == null)
+				next = node.addChild(lower.charAt(i));
+			node = next;
+			path[i + 1] = node;
+		}
+
+		if (node.words == null)
+			node.words = new ArrayList<>(1);
+		else if (node.words.contains(word))
+			return false;
+		node.words.add(word);
+		size++;
+
+		for (int i = path.length - 1; i >= 0; i--) {
+			path[i].count++;
+			path[i].updateMask();
+		}
+		return true;
+	}
+
+	public boolean remove(String word) {
+		String lower = word.toLowerCase();
+		Node[] path = new Node[lower.length() + 1];
+		Node node = root;
+		path[0] = node;
+		for (int i = 0; i < lower.length() && node != null; i++) {
+			node = node.getChild(lower.charAt(i));
+			path[i + 1] = node;
+		}
+
+		if (node == null || node.words == null || !node.words.remove(word))
+			return false;
+		if (node.words.isEmpty())
+			node.words = null;
+		size--;
+
+		for (int i = path.length - 1; i >= 0; i--) {
+			path[i].count--;
+			if (i > 0 && path[i].count == 0)
+				path[i - 1].removeChild(path[i]);
+			path[i].updateMask();
+		}
+		return true;
+	}
+
+	public void clear() {
+		root = new Node('\0');
+		size = 0;
+	}
+
+	private static void collect(Node node, List<String> results) {
+		if (node.words != null)
+			results.addAll(node.words);
+		for (Node n : node.children)
+			collect(n, results);
+	}
+
+	// adds every word that starts with prefix (ignoring case) to results
+	public void findPrefix(String prefix, List<String> results) {
+		String lower = prefix.toLowerCase();
+		Node node = root;
+		for (int i = 0; i < lower.length() && node != null; i++)
+			node = node.getChild(lower.charAt(i));
+		if (node != null)
+			collect(node, results);
+	}
+
+	// adds every word that contains the letters of key in order (ignoring case) to results
+	public void findSubsequence(String key, List<String> results) {
+		char[] letters = key.toLowerCase().toCharArray();
+		long[] needed = new long[letters.length + 1]; // characters still needed after matching i letters
+		for (int i = letters.length - 1; i >= 0; i--)
+			needed[i] = needed[i + 1] | bit(letters[i]);
+		findSubsequence(root, letters, 0, needed, results);
+	}
+
+	private static void findSubsequence(Node node, char[] letters, int matched, long[] needed, List<String> results) {
+		if (matched == letters.length) {
+			collect(node, results);
+			return;
+		}
+
+		for (Node n : node.children) {
+			if (((bit(n.c) | n.mask) & needed[matched]) != needed[matched])
+				continue;
+			findSubsequence(n, letters, n.c == letters[matched] ? matched + 1 : matched, needed, results);
+		}
+	}
+}
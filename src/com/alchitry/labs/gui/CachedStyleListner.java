@@ -1,48 +1,70 @@
 package com.alchitry.labs.gui;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Semaphore;
 
 import org.eclipse.swt.custom.LineStyleEvent;
 import org.eclipse.swt.custom.LineStyleListener;
 import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledText;
 
 import com.alchitry.labs.style.StyleUtil;
 import com.alchitry.labs.style.StyleUtil.StyleMerger;
 
+/*
+ * Styles are only generated for the visible lines plus a margin. They are generated lazily the
+ * first time a line outside of the cached range is drawn (after scrolling) or after being invalidated.
+ */
 public abstract class CachedStyleListner implements LineStyleListener {
+	protected static final int LINE_MARGIN = 50;
+
+	protected StyledText editor;
 	protected ArrayList<StyleRange> styles;
 	private StyleRange[] cachedStyles;
-	private boolean newStyles = false;
-	protected Semaphore lock = new Semaphore(1);
+	private int firstLine, lastLine;
+	private boolean newStyles = true;
 	private StyleMerger merger;
 
-	public CachedStyleListner() {
+	public CachedStyleListner(StyledText editor) {
+		this.editor = editor;
 		styles = new ArrayList<>();
 		merger = getStyleMerger();
 	}
 
-	@Override 
+	@Override
 	public void lineGetStyle(LineStyleEvent event) {
-		lock.acquireUninterruptibly();
-		if (newStyles || ((event.data instanceof Boolean) && (Boolean) event.data)) {
+		int line = editor.getLineAtOffset(event.lineOffset);
+		if (newStyles || line < firstLine || line > lastLine) {
+			int top = editor.getTopIndex();
+			int bottom = editor.getLineIndex(editor.getClientArea().height);
+			if (line < top || line > bottom)
+				top = bottom = line; // drawing something off screen
+			firstLine = Math.max(0, top - LINE_MARGIN);
+			lastLine = Math.min(editor.getLineCount() - 1, bottom + LINE_MARGIN);
+
+			styles.clear();
+			generateStyles(firstLine, lastLine);
+			StyleUtil.sort(styles);
+			cachedStyles = styles.toArray(new StyleRange[styles.size()]);
 			newStyles = false;
-			List<StyleRange> styleCopy = StyleUtil.mergeStyles(styles, event.styles, merger);
-			lock.release();
-
-			cachedStyles = styleCopy.toArray(new StyleRange[styleCopy.size()]);
-			event.data = Boolean.TRUE;
-		} else {
-			lock.release();
-			event.data = Boolean.FALSE;
 		}
 
-		event.styles = cachedStyles;
+		StyleRange[] lineStyles = StyleUtil.getStylesInRange(cachedStyles, event.lineOffset, event.lineText.length());
+		if (lineStyles.length == 0)
+			return;
+
+		StyleRange[] baseStyles = StyleUtil.getStylesInRange(event.styles, event.lineOffset, event.lineText.length());
+		List<StyleRange> merged = StyleUtil.mergeStyles(Arrays.asList(lineStyles), baseStyles, merger);
+		event.styles = merged.toArray(new StyleRange[merged.size()]);
+		event.data = Boolean.TRUE;
 	}
 
 	abstract protected StyleMerger getStyleMerger();
-	
+
+	// fill styles for the given lines (inclusive)
+	abstract protected void generateStyles(int firstLine, int lastLine);
+
 	protected void invalidateStyles() {
 		newStyles = true;
 	}
@@ -7,6 +7,8 @@ import org.antlr.v4.runtime.Token;
 import org.eclipse.swt.custom.LineStyleListener;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.widgets.Event;
@@ -14,58 +16,35 @@ import org.eclipse.swt.widgets.Listener;
 
 import com.alchitry.labs.parsers.lucid.parser.LucidLexer;
 import com.alchitry.labs.parsers.verilog.Verilog2001Lexer;
+import com.alchitry.labs.style.OccurrenceIndex;
 import com.alchitry.labs.style.StyleUtil;
 import com.alchitry.labs.style.StyleUtil.StyleMerger;
 
-public class DoubleClickHighlighter extends CachedStyleListner implements Listener, LineStyleListener{
-	StyledText editor;
+public class DoubleClickHighlighter extends CachedStyleListner implements Listener, LineStyleListener, ModifyListener {
 	String highlightWord;
 	private boolean isLucid, isVerilog;
+	private OccurrenceIndex occurrences;
 	
-	public DoubleClickHighlighter(StyledText e, boolean lucid, boolean verilog) {
-		editor = e;
+	public DoubleClickHighlighter(StyledText e, OccurrenceIndex occurrences, boolean lucid, boolean verilog) {
+		super(e);
+		this.occurrences = occurrences;
 		this.isLucid = lucid;
 		this.isVerilog = verilog;
 	}
 	
-	private void update(final String text) {
-		lock.acquireUninterruptibly();
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				
-				invalidateStyles();
-				styles.clear();
-
-				if (highlightWord == null || highlightWord.isEmpty()) {
-					lock.release();
-					return;
-				}
-
-				int lineLen = text.length();
-				int length = highlightWord.length();
-				styles.clear();
-				for (int index = text.indexOf(highlightWord); index >= 0; index = text.indexOf(highlightWord, index + length)) {
-					if (index > 0) {
-						char before = text.charAt(index - 1);
-						if (Character.isLetterOrDigit(before) || before == '_')
-							continue;
-					}
-					if (index + length < lineLen) {
-						char after = text.charAt(index + length);
-						if (Character.isLetterOrDigit(after) || after == '_')
-							continue;
-					}
-					StyleRange style = new StyleRange();
-					style.background = Theme.highlightedWordColor;
-					style.start = index;
-					style.length = length;
-					styles.add(style);
-				}
+	@Override
+	protected void generateStyles(int firstLine, int lastLine) {
+		if (highlightWord == null || highlightWord.isEmpty())
+			return;
 
-				lock.release();
-			}
-		}).start();
+		int length = highlightWord.length();
+		for (int index : occurrences.findWord(highlightWord, firstLine, lastLine)) {
+			StyleRange style = new StyleRange();
+			style.background = Theme.highlightedWordColor;
+			style.start = index;
+			style.length = length;
+			styles.add(style);
+		}
 	}
 	
 	public String getWord() {
@@ -74,7 +53,7 @@ public class DoubleClickHighlighter extends CachedStyleListner implements Listen
 	
 	public void clearWord() {
 		highlightWord = null;
-		update(editor.getText());
+		invalidateStyles();
 	}
 
 	@Override
@@ -116,7 +95,7 @@ public class DoubleClickHighlighter extends CachedStyleListner implements Listen
 		} else {
 			highlightWord = null;
 		}
-		update(editor.getText());
+		invalidateStyles();
 		editor.redraw();
 	}
 
@@ -131,4 +110,9 @@ public class DoubleClickHighlighter extends CachedStyleListner implements Listen
 			}
 		};
 	}
+
+	@Override
+	public void modifyText(ModifyEvent e) {
+		invalidateStyles();
+	}
 }
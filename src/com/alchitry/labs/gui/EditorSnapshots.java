@@ -0,0 +1,33 @@
+package com.alchitry.labs.gui;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alchitry.labs.gui.PieceTableContent.Snapshot;
+
+/*
+ * Open editors register their content here so any thread can get the latest text of a file without
+ * going through the UI thread. Every edit publishes a new immutable Snapshot so reads never lock.
+ */
+public class EditorSnapshots {
+	private static final ConcurrentHashMap<File, PieceTableContent> contents = new ConcurrentHashMap<>();
+
+	private EditorSnapshots() {
+	}
+
+	public static void register(File file, PieceTableContent content) {
+		contents.put(file, content);
+	}
+
+	public static void unregister(File file, PieceTableContent content) {
+		contents.remove(file, content);
+	}
+
+	// returns the text of the file in its editor or null if it isn't open
+	public static Snapshot get(File file) {
+		PieceTableContent content = contents.get(file);
+		if (content == null)
+			return null;
+		return content.getSnapshot();
+	}
+}
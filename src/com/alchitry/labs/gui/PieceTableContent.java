@@ -0,0 +1,512 @@
+package com.alchitry.labs.gui;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
+
+/*
+ * StyledTextContent backed by a piece table. The text is never copied on an edit, instead new text
+ * is appended to an add buffer and the document is described as a list of pieces of the original
+ * and add buffers. Both buffers are only ever appended to so every edit produces a new immutable
+ * Snapshot that other threads can read without locking or copying the text.
+ */
+public class PieceTableContent implements StyledTextContent {
+	private static final int MAX_PIECES = 4096; // the text is compacted into a new original buffer after this
+
+	private List<TextChangeListener> listeners = new ArrayList<>();
+	private char[] addBuffer;
+	private int addLength;
+	private int[] addBreaks;
+	private int addBreakCount;
+	private volatile Snapshot snapshot;
+	private int version; // incremented for every new snapshot
+
+	private static class Piece {
+		public final char[] chars;
+		public final int[] breaks; // offsets in chars just after each line delimiter
+		public final int start;
+		public final int length;
+		public final int firstBreak;
+		public final int breakCount;
+		public final boolean added;
+
+		public Piece(char[] chars, int[] breaks, int totalBreaks, int start, int length, boolean added) {
+			this.chars = chars;
+			this.breaks = breaks;
+			this.start = start;
+			this.length = length;
+			this.added = added;
+			firstBreak = upperBound(breaks, 0, totalBreaks, start);
+			breakCount = upperBound(breaks, firstBreak, totalBreaks, start + length) - firstBreak;
+		}
+
+		private Piece(Piece p, int start, int length, int firstBreak, int breakCount) {
+			chars = p.chars;
+			breaks = p.breaks;
+			added = p.added;
+			this.start = start;
+			this.length = length;
+			this.firstBreak = firstBreak;
+			this.breakCount = breakCount;
+		}
+
+		// number of line breaks in the first count characters
+		public int breaksBefore(int count) {
+			return upperBound(breaks, firstBreak, firstBreak + breakCount, start + count) - firstBreak;
+		}
+
+		public Piece left(int count) {
+			return new Piece(this, start, count, firstBreak, breaksBefore(count));
+		}
+
+		public Piece right(int count) {
+			int b = breaksBefore(count);
+			return new Piece(this, start + count, length - count, firstBreak + b, breakCount - b);
+		}
+	}
+
+	// first index in [from, to) with a value greater than key
+	private static int upperBound(int[] a, int from, int to, int key) {
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (a[mid] <= key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static int countLineBreaks(CharSequence text) {
+		int count = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '\n' || (c == '\r' && (i + 1 == length || text.charAt(i + 1) != '\n')))
+				count++;
+		}
+		return count;
+	}
+
+	// appends the line breaks in chars[start, start+length) to breaks and returns the new break count
+	private static int findLineBreaks(char[] chars, int start, int length, int[][] breaks, int count) {
+		int end = start + length;
+		for (int i = start; i < end; i++) {
+			char c = chars[i];
+			if (c == '\n' || (c == '\r' && (i + 1 == end || chars[i + 1] != '\n'))) {
+				if (count == breaks[0].length)
+					breaks[0] = Arrays.copyOf(breaks[0], count * 2);
+				breaks[0][count++] = i + 1;
+			}
+		}
+		return count;
+	}
+
+	public static final class Snapshot implements CharSequence {
+		private final Piece[] pieces;
+		private final int[] charStarts; // offset of the first character of each piece
+		private final int[] lineStarts; // number of line breaks before each piece
+		private final int charCount;
+		private final int lineCount;
+		private final int version;
+		private volatile Piece lastPiece; // speeds up sequential access
+		private volatile int lastPieceIndex;
+
+		private Snapshot(Piece[] pieces, int version) {
+			this.pieces = pieces;
+			this.version = version;
+			charStarts = new int[pieces.length + 1];
+			lineStarts = new int[pieces.length + 1];
+			for (int i = 0; i < pieces.length; i++) {
+				charStarts[i + 1] = charStarts[i] + pieces[i].length;
+				lineStarts[i + 1] = lineStarts[i] + pieces[i].breakCount;
+			}
+			charCount = charStarts[pieces.length];
+			lineCount = lineStarts[pieces.length] + 1;
+		}
+
+		// index of the piece containing offset (the last piece for the end of the text)
+		private int findPiece(int offset) {
+			int idx = upperBound(charStarts, 0, pieces.length, offset) - 1;
+			return Math.max(0, idx);
+		}
+
+		// increases with every edit to the content the snapshot came from
+		public int getVersion() {
+			return version;
+		}
+
+		public int getCharCount() {
+			return charCount;
+		}
+
+		public int getLineCount() {
+			return lineCount;
+		}
+
+		public int getLineAtOffset(int offset) {
+			if (pieces.length == 0)
+				return 0;
+			int idx = findPiece(offset);
+			return lineStarts[idx] + pieces[idx].breaksBefore(offset - charStarts[idx]);
+		}
+
+		public int getOffsetAtLine(int line) {
+			if (line == 0)
+				return 0;
+			// first piece that has the line's starting line break
+			int low = 0;
+			int high = pieces.length - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (lineStarts[mid + 1] < line)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			Piece p = pieces[low];
+			int b = p.breaks[p.firstBreak + line - lineStarts[low] - 1];
+			return charStarts[low] + b - p.start;
+		}
+
+		public String getLine(int line) {
+			int start = getOffsetAtLine(line);
+			if (line + 1 >= lineCount)
+				return getTextRange(start, charCount - start);
+			int end = getOffsetAtLine(line + 1);
+			if (end > start && charAt(end - 1) == '\n' && end - 1 > start && charAt(end - 2) == '\r')
+				end -= 2;
+			else if (end > start)
+				end--;
+			return getTextRange(start, end - start);
+		}
+
+		public void getChars(int start, int end, char[] dest, int destBegin) {
+			if (start >= end)
+				return;
+			int idx = findPiece(start);
+			int offset = start - charStarts[idx];
+			while (start < end) {
+				Piece p = pieces[idx];
+				int count = Math.min(p.length - offset, end - start);
+				System.arraycopy(p.chars, p.start + offset, dest, destBegin, count);
+				destBegin += count;
+				start += count;
+				offset = 0;
+				idx++;
+			}
+		}
+
+		public String getTextRange(int start, int length) {
+			char[] chars = new char[length];
+			getChars(start, start + length, chars, 0);
+			return new String(chars);
+		}
+
+		public void writeTo(Writer writer) throws IOException {
+			for (Piece p : pieces)
+				writer.write(p.chars, p.start, p.length);
+		}
+
+		@Override
+		public int length() {
+			return charCount;
+		}
+
+		@Override
+		public char charAt(int index) {
+			Piece p = lastPiece;
+			int idx = lastPieceIndex;
+			if (p == null || pieces[idx] != p || index < charStarts[idx] || index >= charStarts[idx] + p.length) {
+				if (index < 0 || index >= charCount)
+					throw new IndexOutOfBoundsException(Integer.toString(index));
+				idx = findPiece(index);
+				p = pieces[idx];
+				lastPieceIndex = idx;
+				lastPiece = p;
+			}
+			return p.chars[p.start + index - charStarts[idx]];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return getTextRange(start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return getTextRange(0, charCount);
+		}
+
+		public CharStream getCharStream(String sourceName) {
+			return new SnapshotCharStream(this, sourceName);
+		}
+	}
+
+	// lets the lexers read a snapshot directly instead of a copy of the text
+	private static class SnapshotCharStream implements CharStream {
+		private final Snapshot snapshot;
+		private final String name;
+		private int index;
+
+		public SnapshotCharStream(Snapshot snapshot, String name) {
+			this.snapshot = snapshot;
+			this.name = name == null ? IntStream.UNKNOWN_SOURCE_NAME : name;
+		}
+
+		@Override
+		public void consume() {
+			if (index >= snapshot.charCount)
+				throw new IllegalStateException("cannot consume EOF");
+			index++;
+		}
+
+		@Override
+		public int LA(int i) {
+			if (i == 0)
+				return 0;
+			int pos = i < 0 ? index + i : index + i - 1;
+			if (pos < 0 || pos >= snapshot.charCount)
+				return IntStream.EOF;
+			return snapshot.charAt(pos);
+		}
+
+		@Override
+		public int mark() {
+			return -1;
+		}
+
+		@Override
+		public void release(int marker) {
+		}
+
+		@Override
+		public int index() {
+			return index;
+		}
+
+		@Override
+		public void seek(int index) {
+			this.index = Math.min(index, snapshot.charCount);
+		}
+
+		@Override
+		public int size() {
+			return snapshot.charCount;
+		}
+
+		@Override
+		public String getSourceName() {
+			return name;
+		}
+
+		@Override
+		public String getText(Interval interval) {
+			int start = interval.a;
+			int stop = Math.min(interval.b, snapshot.charCount - 1);
+			if (start >= snapshot.charCount || stop < start)
+				return "";
+			return snapshot.getTextRange(start, stop - start + 1);
+		}
+	}
+
+	public PieceTableContent() {
+		setOriginal("");
+	}
+
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	private void setOriginal(String text) {
+		char[] chars = text.toCharArray();
+		int[][] breaks = new int[][] { new int[16] };
+		int count = findLineBreaks(chars, 0, chars.length, breaks, 0);
+
+		// never reuse the old buffers as older snapshots may still be reading them
+		addBuffer = new char[1024];
+		addLength = 0;
+		addBreaks = new int[64];
+		addBreakCount = 0;
+
+		Piece[] pieces = chars.length == 0 ? new Piece[0] : new Piece[] { new Piece(chars, breaks[0], count, 0, chars.length, false) };
+		snapshot = new Snapshot(pieces, ++version);
+	}
+
+	private Piece append(String text) {
+		int length = text.length();
+		boolean pad = addLength > 0 && addBuffer[addLength - 1] == '\r' && text.charAt(0) == '\n';
+		int needed = addLength + length + 1;
+		if (needed > addBuffer.length)
+			addBuffer = Arrays.copyOf(addBuffer, Math.max(needed, addBuffer.length * 2));
+
+		// keep \r and \n from separate edits from looking like a single line delimiter
+		if (pad)
+			addBuffer[addLength++] = '\0';
+
+		int start = addLength;
+		text.getChars(0, length, addBuffer, start);
+		addLength += length;
+
+		int[][] breaks = new int[][] { addBreaks };
+		addBreakCount = findLineBreaks(addBuffer, start, length, breaks, addBreakCount);
+		addBreaks = breaks[0];
+
+		return new Piece(addBuffer, addBreaks, addBreakCount, start, length, true);
+	}
+
+	private void addPiece(List<Piece> pieces, Piece piece) {
+		int last = pieces.size() - 1;
+		if (last >= 0) {
+			Piece p = pieces.get(last);
+			// typing usually appends to the end of the last inserted text
+			if (p.added && p.start + p.length == piece.start) {
+				pieces.set(last, new Piece(addBuffer, addBreaks, addBreakCount, p.start, p.length + piece.length, true));
+				return;
+			}
+		}
+		pieces.add(piece);
+	}
+
+	private boolean isValidReplace(Snapshot s, int start, int replaceLength) {
+		if (start < 0 || replaceLength < 0 || start + replaceLength > s.charCount)
+			return false;
+		// don't split a \r\n line delimiter
+		if (replaceLength == 0) {
+			if (start == 0 || start == s.charCount)
+				return true;
+			return !(s.charAt(start - 1) == '\r' && s.charAt(start) == '\n');
+		}
+		if (s.charAt(start) == '\n' && start != 0 && s.charAt(start - 1) == '\r')
+			return false;
+		int end = start + replaceLength;
+		if (s.charAt(end - 1) == '\r' && end != s.charCount && s.charAt(end) == '\n')
+			return false;
+		return true;
+	}
+
+	@Override
+	public void replaceTextRange(int start, int replaceLength, String text) {
+		Snapshot s = snapshot;
+		if (!isValidReplace(s, start, replaceLength))
+			SWT.error(SWT.ERROR_INVALID_ARGUMENT);
+
+		TextChangingEvent event = new TextChangingEvent(this);
+		event.start = start;
+		event.replaceLineCount = s.getLineAtOffset(start + replaceLength) - s.getLineAtOffset(start);
+		event.newText = text;
+		event.newLineCount = countLineBreaks(text);
+		event.replaceCharCount = replaceLength;
+		event.newCharCount = text.length();
+		for (TextChangeListener l : listeners.toArray(new TextChangeListener[listeners.size()]))
+			l.textChanging(event);
+
+		Piece inserted = text.isEmpty() ? null : append(text);
+		int end = start + replaceLength;
+		boolean placed = false;
+		List<Piece> pieces = new ArrayList<>(s.pieces.length + 2);
+		for (int i = 0; i < s.pieces.length; i++) {
+			Piece p = s.pieces[i];
+			int pStart = s.charStarts[i];
+			int pEnd = pStart + p.length;
+			if (pEnd <= start) {
+				pieces.add(p);
+				continue;
+			}
+			if (!placed) {
+				if (pStart < start)
+					pieces.add(p.left(start - pStart));
+				if (inserted != null)
+					addPiece(pieces, inserted);
+				placed = true;
+			}
+			if (pEnd <= end)
+				continue;
+			if (pStart < end)
+				pieces.add(p.right(end - pStart));
+			else
+				pieces.add(p);
+		}
+		if (!placed && inserted != null)
+			addPiece(pieces, inserted);
+
+		snapshot = new Snapshot(pieces.toArray(new Piece[pieces.size()]), ++version);
+
+		if (pieces.size() > MAX_PIECES)
+			setOriginal(snapshot.toString());
+
+		TextChangedEvent changed = new TextChangedEvent(this);
+		for (TextChangeListener l : listeners.toArray(new TextChangeListener[listeners.size()]))
+			l.textChanged(changed);
+	}
+
+	@Override
+	public void setText(String text) {
+		setOriginal(text);
+		TextChangedEvent event = new TextChangedEvent(this);
+		for (TextChangeListener l : listeners.toArray(new TextChangeListener[listeners.size()]))
+			l.textSet(event);
+	}
+
+	@Override
+	public void addTextChangeListener(TextChangeListener listener) {
+		if (listener == null)
+			SWT.error(SWT.ERROR_NULL_ARGUMENT);
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeTextChangeListener(TextChangeListener listener) {
+		if (listener == null)
+			SWT.error(SWT.ERROR_NULL_ARGUMENT);
+		listeners.remove(listener);
+	}
+
+	@Override
+	public int getCharCount() {
+		return snapshot.getCharCount();
+	}
+
+	@Override
+	public String getLine(int lineIndex) {
+		return snapshot.getLine(lineIndex);
+	}
+
+	@Override
+	public int getLineAtOffset(int offset) {
+		return snapshot.getLineAtOffset(offset);
+	}
+
+	@Override
+	public int getLineCount() {
+		return snapshot.getLineCount();
+	}
+
+	@Override
+	public String getLineDelimiter() {
+		return System.lineSeparator();
+	}
+
+	@Override
+	public int getOffsetAtLine(int lineIndex) {
+		return snapshot.getOffsetAtLine(lineIndex);
+	}
+
+	@Override
+	public String getTextRange(int start, int length) {
+		return snapshot.getTextRange(start, length);
+	}
+}
@@ -1,10 +1,11 @@
 package com.alchitry.labs.gui;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
@@ -56,9 +57,12 @@ import com.alchitry.labs.parsers.errors.VerilogErrorProvider;
 import com.alchitry.labs.parsers.styles.AlchitryConstraintStyleProvider;
 import com.alchitry.labs.parsers.styles.LucidNewLineIndenter;
 import com.alchitry.labs.parsers.styles.LucidStyleProvider;
+import com.alchitry.labs.parsers.styles.StyleProvider;
 import com.alchitry.labs.parsers.styles.VerilogIndentProvider;
 import com.alchitry.labs.parsers.styles.VerilogNewLineIndenter;
 import com.alchitry.labs.parsers.styles.VerilogStyleProvider;
+import com.alchitry.labs.parsers.tools.lucid.LucidSymbolIndex;
+import com.alchitry.labs.parsers.tools.lucid.LucidSymbolIndex.Symbol;
 import com.alchitry.labs.project.Project;
 import com.alchitry.labs.style.AutoComplete;
 import com.alchitry.labs.style.AutoFormatter;
@@ -66,8 +70,11 @@ import com.alchitry.labs.style.BracketUnderliner;
 import com.alchitry.labs.style.IndentProvider;
 import com.alchitry.labs.style.LineHighlighter;
 import com.alchitry.labs.style.LineStyler;
+import com.alchitry.labs.style.OccurrenceIndex;
 import com.alchitry.labs.style.ToolTipListener;
 import com.alchitry.labs.tools.ParserCache;
+import com.alchitry.labs.tools.ProjectSearch;
+import com.alchitry.labs.tools.ProjectSearch.Result;
 import com.alchitry.labs.widgets.CustomSearch;
 import com.alchitry.labs.widgets.CustomTabs;
 import com.alchitry.labs.widgets.TabChild;
@@ -76,6 +83,7 @@ import com.alchitry.labs.widgets.TabHotKeys;
 public class StyledCodeEditor extends StyledText implements ModifyListener, TabChild {
 
 	private File file;
+	private PieceTableContent content;
 	private boolean edited;
 	private boolean skipEdit;
 	private CustomTabs tabFolder;
@@ -109,6 +117,9 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 		this.write = write;
 		this.file = file;
 
+		content = new PieceTableContent();
+		setContent(content);
+
 		search = new CustomSearch(parent, SWT.NONE);
 
 		if (Util.isLinux) // Windows has a bug where hidden scroll bars flash
@@ -123,6 +134,7 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 		setSelectionBackground(Theme.editorTextSelectedColor);
 		setSelectionForeground(null);
 
+		StyleProvider styleProvider = null;
 		IndentProvider indentProvider = null;
 		VerifyListener newLineIndenter = null;
 		ExtendedModifyListener unindentProvider = null;
@@ -133,7 +145,6 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 
 		undoRedo = new UndoRedo(this);
 		addExtendedModifyListener(undoRedo);
-		addVerifyListener(undoRedo);
 
 		if (file == null) {
 			undoRedo.skipNext();
@@ -144,8 +155,9 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			addModifyListener(lErrorChecker);
 			errorChecker = lErrorChecker;
 			LucidStyleProvider lsp = new LucidStyleProvider(this);
-			addModifyListener(lsp);
+			addExtendedModifyListener(lsp);
 			lineStyleListeners.add(lsp);
+			styleProvider = lsp;
 			// indentProvider = new LucidIndentProvider();
 			LucidNewLineIndenter nli = new LucidNewLineIndenter(this, undoRedo);
 			newLineIndenter = nli;
@@ -160,7 +172,8 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			errorChecker = vErrorChecker;
 			VerilogStyleProvider vsp = new VerilogStyleProvider(this);
 			lineStyleListeners.add(vsp);
-			addModifyListener(vsp);
+			addExtendedModifyListener(vsp);
+			styleProvider = vsp;
 			indentProvider = new VerilogIndentProvider();
 			newLineIndenter = new VerilogNewLineIndenter(this, undoRedo);
 			isVerilog = true;
@@ -171,7 +184,8 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			errorChecker = aErrorChecker;
 			AlchitryConstraintStyleProvider asp = new AlchitryConstraintStyleProvider(this);
 			lineStyleListeners.add(asp);
-			addModifyListener(asp);
+			addExtendedModifyListener(asp);
+			styleProvider = asp;
 
 			AlchitryConstraintsDictionary dict = new AlchitryConstraintsDictionary();
 
@@ -228,7 +242,9 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 		addVerifyKeyListener(new HotKeys(this));
 		addKeyListener(new TabHotKeys(this));
 
-		highlighter = new TextHighligher(this);
+		OccurrenceIndex occurrences = new OccurrenceIndex(this, styleProvider);
+
+		highlighter = new TextHighligher(this, occurrences);
 		lineStyleListeners.add(highlighter);
 		addModifyListener(highlighter);
 
@@ -237,6 +253,10 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			public void keyPressed(KeyEvent event) {
 				if (event.keyCode == 'p' && event.stateMask == SWT.CTRL) {
 					print();
+				} else if (event.keyCode == SWT.F3 && event.stateMask == 0) {
+					goToDefinition();
+				} else if (event.keyCode == SWT.F3 && event.stateMask == SWT.SHIFT) {
+					findUsages();
 				}
 			}
 		});
@@ -253,12 +273,13 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			}
 		});
 
-		doubleClick = new DoubleClickHighlighter(this, isLucid, isVerilog);
+		doubleClick = new DoubleClickHighlighter(this, occurrences, isLucid, isVerilog);
 
 		addListener(SWT.MouseDown, doubleClick);
+		addModifyListener(doubleClick);
 		lineStyleListeners.add(doubleClick);
 
-		BracketUnderliner bracketUnderliner = new BracketUnderliner(this);
+		BracketUnderliner bracketUnderliner = new BracketUnderliner(this, occurrences);
 		addCaretListener(bracketUnderliner);
 		lineStyleListeners.add(bracketUnderliner);
 
@@ -320,6 +341,8 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			@Override
 			public void widgetDisposed(DisposeEvent e) {
 				search.dispose();
+				if (file != null)
+					EditorSnapshots.unregister(file, content);
 			}
 		});
 
@@ -352,6 +375,9 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			@Override
 			public void modifyText(ModifyEvent e) {
 				ParserCache.invalidate(file);
+				Project project = MainWindow.getOpenProject();
+				if (isLucid && project != null && project.isOpen())
+					project.updateSymbolIndex();
 			}
 		});
 	}
@@ -465,6 +491,14 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 		return file;
 	}
 
+	private void setFile(File newFile) {
+		if (file != null)
+			EditorSnapshots.unregister(file, content);
+		file = newFile;
+		if (file != null)
+			EditorSnapshots.register(file, content);
+	}
+
 	public void grabFocus() {
 		tabFolder.setSelection(this);
 		setFocus();
@@ -483,10 +517,10 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			fileContents = "";
 		}
 
-		file = path;
 		edited = false;
 		undoRedo.skipNext();
 		setText(fileContents);
+		setFile(path);
 		tabFolder.setSelection(this);
 
 		return true;
@@ -506,15 +540,15 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 				return false;
 			}
 
-			file = new File(path);
+			setFile(new File(path));
 			tabFolder.setText(this, fileName);
 			edited = false;
 		}
 		try {
 			PrintWriter out = new PrintWriter(file);
-			out.print(getText());
+			content.getSnapshot().writeTo(out);
 			out.close();
-		} catch (FileNotFoundException e1) {
+		} catch (IOException e1) {
 			return false;
 		}
 
@@ -539,7 +573,7 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			edited = true;
 
 			// work around for selectAll -> delete bug
-			if (getText().isEmpty())
+			if (getCharCount() == 0)
 				redraw();
 		} else { // modify from search
 			String text = ((StyledText) e.widget).getText();
@@ -552,13 +586,13 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			return;
 
 		int start = getCaretOffset();
-		String text = getText();
+		PieceTableContent.Snapshot text = content.getSnapshot();
 		int idx;
 		if (dir)
 			idx = StringUtils.indexOfIgnoreCase(text, word, start);
 		else {
 			idx = StringUtils
-					.lastIndexOfIgnoreCase(text.substring(0, start > text.length() ? text.length() - 1 : start), word);
+					.lastIndexOfIgnoreCase(text.subSequence(0, start > text.length() ? text.length() - 1 : start), word);
 		}
 
 		if (idx < 0) {
@@ -576,6 +610,69 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 		}
 	}
 
+	private void goToDefinition() {
+		Project project = MainWindow.getOpenProject();
+		if (!isLucid || project == null || file == null)
+			return;
+
+		LucidSymbolIndex index = project.getSymbolIndex();
+		int offset = getCaretOffset();
+		List<Symbol> defs = index.findDefinitions(file, offset);
+		if (defs.isEmpty() && offset > 0) // caret at the end of the name
+			defs = index.findDefinitions(file, offset - 1);
+		if (defs.isEmpty())
+			return;
+
+		Symbol s = defs.get(0);
+		MainWindow.mainWindow.showInEditor(s.file, s.start, s.stop, !project.isLibFile(s.file));
+	}
+
+	private void findUsages() {
+		Project project = MainWindow.getOpenProject();
+		if (!isLucid || project == null || file == null)
+			return;
+
+		LucidSymbolIndex index = project.getSymbolIndex();
+		int offset = getCaretOffset();
+		List<Symbol> refs = index.findReferences(file, offset);
+		if (refs.isEmpty() && offset > 0) // caret at the end of the name
+			refs = index.findReferences(file, offset - 1);
+		if (refs.isEmpty())
+			return;
+
+		List<Result> results = new ArrayList<>();
+		for (Symbol s : refs) {
+			CharSequence text = EditorSnapshots.get(s.file);
+			if (text == null) {
+				try {
+					text = Util.readFile(s.file);
+				} catch (IOException e) {
+					Util.logException(e);
+					continue;
+				}
+			}
+			results.add(ProjectSearch.getResult(s.file, text, s.start, s.stop - s.start + 1));
+		}
+		Collections.sort(results, new Comparator<Result>() {
+			@Override
+			public int compare(Result a, Result b) {
+				int c = a.file.getPath().compareTo(b.file.getPath());
+				if (c == 0)
+					c = Integer.compare(a.line, b.line);
+				if (c == 0)
+					c = Integer.compare(a.column, b.column);
+				return c;
+			}
+		});
+
+		MainWindow.mainWindow.showSearchResults(results.size() + " usages of " + refs.get(0).name, results);
+	}
+
+	// immutable copy of the current text that is safe to read from any thread
+	public PieceTableContent.Snapshot getSnapshot() {
+		return content.getSnapshot();
+	}
+
 	public void close() {
 		tabFolder.close(this);
 		Project p = MainWindow.getOpenProject();
@@ -716,6 +813,24 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 			}
 		});
 
+		final MenuItem definition = new MenuItem(rightClickMenu, SWT.NONE);
+		definition.setText("Go to &Definition\tF3");
+		definition.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				goToDefinition();
+			}
+		});
+
+		final MenuItem usages = new MenuItem(rightClickMenu, SWT.NONE);
+		usages.setText("Find &Usages\tShift+F3");
+		usages.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				findUsages();
+			}
+		});
+
 		final MenuItem format = new MenuItem(rightClickMenu, SWT.NONE);
 		format.setText("&Auto-format Code\tCtrl+Shift+F");
 		format.addSelectionListener(new SelectionAdapter() {
@@ -731,6 +846,8 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 				redo.setEnabled(undoRedo.canRedo());
 				undo.setEnabled(undoRedo.canUndo());
 				format.setEnabled(formatter != null);
+				definition.setEnabled(isLucid && MainWindow.getOpenProject() != null);
+				usages.setEnabled(isLucid && MainWindow.getOpenProject() != null);
 			}
 		});
 	}
@@ -754,7 +871,6 @@ public class StyledCodeEditor extends StyledText implements ModifyListener, TabC
 		final Runnable printJob = print(printer, printOptions);
 		
 		skipEdit = true;
-		undoRedo.skipNext();
 		if (autoComplete != null)
 			autoComplete.skipNext();
 		// for some reason this is needed as color data is disposed after printing
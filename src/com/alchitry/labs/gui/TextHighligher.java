@@ -1,56 +1,43 @@
 package com.alchitry.labs.gui;
 
-import org.apache.commons.lang3.StringUtils;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.graphics.Color;
 
+import com.alchitry.labs.style.OccurrenceIndex;
 import com.alchitry.labs.style.StyleUtil;
 import com.alchitry.labs.style.StyleUtil.StyleMerger;
 
 public class TextHighligher extends CachedStyleListner implements ModifyListener {
-	private StyledText editor;
+	private OccurrenceIndex occurrences;
 	private String highlightWord;
 
-	public TextHighligher(StyledText e) {
-		super();
-		editor = e;
+	public TextHighligher(StyledText e, OccurrenceIndex occurrences) {
+		super(e);
+		this.occurrences = occurrences;
 	}
 
 	public void setText(String text) {
 		highlightWord = text;
-		update();
+		invalidateStyles();
 		editor.redraw();
 	}
 
-	protected void update() {
-		final String text = editor.getText();
-		lock.acquireUninterruptibly();
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				invalidateStyles();
-				styles.clear();
-
-				if (highlightWord == null || highlightWord.isEmpty()) {
-					lock.release();
-					return;
-				}
-
-				int length = highlightWord.length();
-				for (int index = StringUtils.indexOfIgnoreCase(text, highlightWord); index >= 0; index = StringUtils.indexOfIgnoreCase(text, highlightWord, index + length)) {
-					StyleRange style = new StyleRange();
-					style.background = Theme.highlightedWordColor;
-					style.start = index;
-					style.length = length;
-					styles.add(style);
-				}
-
-				lock.release();
-			}
-		}).start();
+	@Override
+	protected void generateStyles(int firstLine, int lastLine) {
+		if (highlightWord == null || highlightWord.isEmpty())
+			return;
+
+		int length = highlightWord.length();
+		for (int index : occurrences.findText(highlightWord, firstLine, lastLine)) {
+			StyleRange style = new StyleRange();
+			style.background = Theme.highlightedWordColor;
+			style.start = index;
+			style.length = length;
+			styles.add(style);
+		}
 	}
 
 	@Override
@@ -67,6 +54,6 @@ public class TextHighligher extends CachedStyleListner implements ModifyListener
 	
 	@Override
 	public void modifyText(ModifyEvent e) {
-		update();
+		invalidateStyles();
 	}
 }
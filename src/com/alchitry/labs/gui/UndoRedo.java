@@ -1,41 +1,43 @@
 package com.alchitry.labs.gui;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
 
 import org.eclipse.swt.custom.ExtendedModifyEvent;
 import org.eclipse.swt.custom.ExtendedModifyListener;
-import org.eclipse.swt.events.VerifyEvent;
-import org.eclipse.swt.events.VerifyListener;
 
+import com.alchitry.labs.Settings;
 import com.alchitry.labs.Util;
 
-public class UndoRedo implements ExtendedModifyListener, VerifyListener {
+public class UndoRedo implements ExtendedModifyListener {
+	private static final int DEFAULT_MEMORY_LIMIT = 8 * 1024 * 1024; // bytes
+	private static final int EDIT_OVERHEAD = 48; // rough size of an Edit without its text
+	private static final int COALESCE_TIME = 1000; // ms between key strokes to still be part of the same edit
 
 	private StyledCodeEditor editor;
-	private Stack<Edit> undoStack;
-	private Stack<Edit> redoStack;
+	private ArrayDeque<Edit> undoStack;
+	private ArrayDeque<Edit> redoStack;
 	private boolean editing;
 	private boolean skip;
-	private int lastHash;
+	private int version; // incremented for every change to the editor's text
+	private long memoryUsed;
+	private long memoryLimit;
+	private long lastEditTime;
 
-	private class Edit {
+	private static class Edit {
 		public int start;
 		public int length;
 		public String text;
-		public int editorHash;
+		public int version; // version of the text this edit can be applied to
 
-		public Edit(int start, int length, String text, int editorHash) {
+		public Edit(int start, int length, String text, int version) {
 			this.start = start;
 			this.length = length;
 			this.text = text;
-			this.editorHash = editorHash;
+			this.version = version;
 		}
 
-		public Edit(ExtendedModifyEvent event) {
-			editorHash = editor.getText().hashCode();
-			start = event.start;
-			length = event.length;
-			text = event.replacedText;
+		public long getSize() {
+			return EDIT_OVERHEAD + text.length() * 2;
 		}
 
 		@Override
@@ -50,75 +52,147 @@ public class UndoRedo implements ExtendedModifyListener, VerifyListener {
 
 	public UndoRedo(StyledCodeEditor editor) {
 		this.editor = editor;
-		undoStack = new Stack<Edit>();
-		redoStack = new Stack<Edit>();
+		undoStack = new ArrayDeque<Edit>();
+		redoStack = new ArrayDeque<Edit>();
 		editing = false;
 		skip = false;
+		memoryLimit = Settings.pref.getInt(Settings.UNDO_MEMORY_LIMIT, DEFAULT_MEMORY_LIMIT);
+	}
+
+	public void setMemoryLimit(long bytes) {
+		memoryLimit = bytes;
+		trim();
 	}
 
 	public void skipNext() {
 		skip = true;
 	}
-	
-	@Override
-	public void verifyText(VerifyEvent event) {
-		lastHash = editor.getText().hashCode();
+
+	private static boolean hasLineBreak(String text) {
+		return text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0;
+	}
+
+	// tries to add a single key stroke to the last edit
+	private boolean coalesce(ExtendedModifyEvent event, long time) {
+		Edit last = undoStack.peek();
+		if (last == null || last.version != version - 1 || time - lastEditTime > COALESCE_TIME)
+			return false;
+
+		if (event.length == 1 && event.replacedText.isEmpty()) { // typed a character
+			if (last.length == 0 || last.start + last.length != event.start)
+				return false;
+			if (hasLineBreak(editor.getText(event.start, event.start)))
+				return false;
+			last.length++;
+		} else if (event.length == 0 && event.replacedText.length() == 1 && !hasLineBreak(event.replacedText)) {
+			if (last.length != 0)
+				return false;
+			memoryUsed -= last.getSize();
+			if (event.start + 1 == last.start) { // backspace
+				last.text = event.replacedText + last.text;
+				last.start = event.start;
+			} else if (event.start == last.start) { // delete
+				last.text = last.text + event.replacedText;
+			} else {
+				memoryUsed += last.getSize();
+				return false;
+			}
+			memoryUsed += last.getSize();
+		} else {
+			return false;
+		}
+
+		last.version = version;
+		return true;
+	}
+
+	private void push(ArrayDeque<Edit> stack, Edit edit) {
+		stack.push(edit);
+		memoryUsed += edit.getSize();
+		trim();
+	}
+
+	private void clear(ArrayDeque<Edit> stack) {
+		for (Edit e : stack)
+			memoryUsed -= e.getSize();
+		stack.clear();
+	}
+
+	// drops the oldest edits until the stacks fit in the memory limit
+	private void trim() {
+		while (memoryUsed > memoryLimit && undoStack.size() > 1)
+			memoryUsed -= undoStack.removeLast().getSize();
+		while (memoryUsed > memoryLimit && redoStack.size() > 1)
+			memoryUsed -= redoStack.removeLast().getSize();
 	}
 
 	@Override
 	public void modifyText(ExtendedModifyEvent event) {
-		if (!skip && !editing) {
-			Edit e = new Edit(event);
-			e.editorHash = lastHash;
-			undoStack.push(e);
-			redoStack.clear();
+		version++;
+		if (editing)
+			return;
+
+		if (skip) {
+			// the stacks don't know about this change so they can't be applied anymore
+			clear(undoStack);
+			clear(redoStack);
+			skip = false;
+			return;
 		}
-		editing = skip = false;
+
+		long time = System.currentTimeMillis();
+		if (!coalesce(event, time))
+			push(undoStack, new Edit(event.start, event.length, event.replacedText, version));
+		lastEditTime = time;
+		clear(redoStack);
 	}
 
-	private void replace(Stack<Edit> popStack, Stack<Edit> pushStack, boolean undo) {
+	private void replace(ArrayDeque<Edit> popStack, ArrayDeque<Edit> pushStack) {
 		if (!editing && popStack.size() > 0) {
-			Edit edit = popStack.pop();
-			
+			Edit edit = popStack.peek();
+
+			if (edit.version != version) {
+				Util.showError("Undo/Redo Error", "An error occured with the undo/redo stack. It is out of sync with the editor.");
+				return;
+			}
+
+			popStack.pop();
+			memoryUsed -= edit.getSize();
+
 			String replacedText = "";
 			if (edit.length > 0)
 				replacedText = editor.getText(edit.start, edit.start + edit.length - 1);
-			
-			pushStack.push(new Edit(edit.start, edit.text.length(), replacedText, editor.getText().hashCode()));
-			
+
 			// System.out.println("Replacing from: " + edit.start+" for: "+edit.length+" with "+edit.text);
 			editing = true;
 			if (editor.getCharCount() > 0)
 				editor.replaceTextRange(edit.start, edit.length, edit.text);
 			else
 				editor.insert(edit.text);
+			editing = false;
+
+			push(pushStack, new Edit(edit.start, edit.text.length(), replacedText, version));
+			lastEditTime = 0; // don't merge new typing into an undone edit
+
 			editor.setCaretOffset(edit.start + edit.text.length());
 			editor.update();
-			
-			if (editor.getText().hashCode() != edit.editorHash) {
-				Util.showError("Undo/Redo Error", "An error occured with the undo/redo stack. It is out of sync with the editor.");
-				return;
-			}
-			//while (Util.getDisplay().readAndDispatch());
-			
 		}
 	}
 
 	public void undo() {
-		replace(undoStack, redoStack, true);
+		replace(undoStack, redoStack);
 	}
 
 	public void redo() {
-		replace(redoStack, undoStack, false);
+		replace(redoStack, undoStack);
 	}
 
 	public boolean canUndo() {
-		return !undoStack.empty();
+		return !undoStack.isEmpty();
 	}
 
 	public boolean canRedo() {
-		return !redoStack.empty();
+		return !redoStack.isEmpty();
 	}
 
-
 }
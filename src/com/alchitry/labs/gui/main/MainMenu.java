@@ -19,10 +19,13 @@ import com.alchitry.labs.gui.NewProjectDialog;
 import com.alchitry.labs.gui.StyledCodeEditor;
 import com.alchitry.labs.gui.ThemeSelectorDialog;
 import com.alchitry.labs.gui.WelcomeDialog;
+import com.alchitry.labs.gui.tools.BatchProgrammer;
 import com.alchitry.labs.gui.tools.ImageCapture;
+import com.alchitry.labs.gui.tools.ProjectSearchWindow;
 import com.alchitry.labs.gui.tools.RegInterface;
 import com.alchitry.labs.gui.tools.SerialMonitor;
 import com.alchitry.labs.hardware.boards.Board;
+import com.alchitry.labs.hardware.usb.DeviceSessions;
 import com.alchitry.labs.project.Project;
 
 public class MainMenu {
@@ -205,6 +208,20 @@ public class MainMenu {
 			}
 		});
 
+		createItem(subMenu, "Search Project", new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				if (MainWindow.project == null || !MainWindow.project.isOpen()) {
+					Util.showError("You need to open or create a project first!");
+					return;
+				}
+				if (parent.searchWindow == null || parent.searchWindow.isDisposed())
+					parent.searchWindow = new ProjectSearchWindow(parent.display);
+				else
+					parent.searchWindow.setFocus();
+			}
+		});
+
 		if (Board.isType(board, Board.MOJO))
 			createItem(subMenu, "Launch CoreGen", new SelectionAdapter() {
 				@Override
@@ -293,6 +310,14 @@ public class MainMenu {
 			}
 		});
 
+		createItem(subMenu, "Release Boards", new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				DeviceSessions.closeAll(); // lets other programs open the boards without waiting for the idle timeout
+				Util.println("Idle boards released.");
+			}
+		});
+
 		if (Board.isType(board, Board.MOJO | Board.AU))
 			createItem(subMenu, "Wave Capture", new SelectionAdapter() {
 				@Override
@@ -300,6 +325,21 @@ public class MainMenu {
 					parent.openWave();
 				}
 			});
+
+		if (Board.isType(board, Board.AU | Board.CU))
+			createItem(subMenu, "Batch Programmer", new SelectionAdapter() {
+				@Override
+				public void widgetSelected(SelectionEvent e) {
+					if (MainWindow.project == null || !MainWindow.project.isOpen()) {
+						Util.showError("You need to open or create a project first!");
+						return;
+					}
+					if (parent.batchProgrammer == null || parent.batchProgrammer.isDisposed())
+						parent.batchProgrammer = new BatchProgrammer(parent.display);
+					else
+						parent.batchProgrammer.setFocus();
+				}
+			});
 	}
 
 	private void buildSettingsMenu() {
@@ -362,6 +402,14 @@ public class MainMenu {
 
 		updateCuToolchainSelection();
 
+		MenuItem diffFlash = createCheckItem(subMenu, "Only Reflash Changed Cu Sectors", new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				Settings.pref.putBoolean(Settings.DIFF_FLASH, ((MenuItem) e.widget).getSelection());
+			}
+		});
+		diffFlash.setSelection(Settings.pref.getBoolean(Settings.DIFF_FLASH, false));
+
 		createItem(subMenu, "Choose Theme", new SelectionAdapter() {
 			@Override
 			public void widgetSelected(SelectionEvent e) {
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
@@ -44,15 +45,20 @@ import com.alchitry.labs.gui.StyledCodeEditor;
 import com.alchitry.labs.gui.Theme;
 import com.alchitry.labs.gui.WaveForm;
 import com.alchitry.labs.gui.WelcomeDialog;
+import com.alchitry.labs.gui.tools.BatchProgrammer;
 import com.alchitry.labs.gui.tools.ImageCapture;
+import com.alchitry.labs.gui.tools.ProjectSearchWindow;
 import com.alchitry.labs.gui.tools.RegInterface;
 import com.alchitry.labs.gui.tools.SerialMonitor;
+import com.alchitry.labs.hardware.loaders.BatchLoader;
+import com.alchitry.labs.hardware.usb.DeviceSessions;
 import com.alchitry.labs.parsers.types.Constant;
 import com.alchitry.labs.project.CoreGen;
 import com.alchitry.labs.project.Project;
 import com.alchitry.labs.project.SourceFile;
 import com.alchitry.labs.project.VivadoIP;
 import com.alchitry.labs.style.ParseException;
+import com.alchitry.labs.tools.ProjectSearch.Result;
 import com.alchitry.labs.widgets.CustomConsole;
 import com.alchitry.labs.widgets.CustomTabs;
 import com.alchitry.labs.widgets.CustomTree;
@@ -77,6 +83,8 @@ public class MainWindow {
 	protected SerialMonitor monitor;
 	protected ImageCapture imgCapture;
 	protected RegInterface regInterface;
+	protected ProjectSearchWindow searchWindow;
+	protected BatchProgrammer batchProgrammer;
 	protected MainMenu mainMenu;
 	protected MainToolbar mainToolbar;
 
@@ -185,6 +193,10 @@ public class MainWindow {
 				System.exit(2);
 			}
 		}
+
+		// <env> batch <board> <bin file> [options] programs every attached board without opening the GUI
+		if (args.length > 1 && args[1].equals("batch"))
+			System.exit(BatchLoader.runCommand(Arrays.copyOfRange(args, 2, args.length)));
 	}
 
 	public void setBuilding(final boolean building) {
@@ -233,6 +245,8 @@ public class MainWindow {
 				display.sleep();
 			}
 		}
+
+		DeviceSessions.closeAll(); // give the serial ports back to the OS
 	}
 
 	private boolean filesModified() {
@@ -772,6 +786,7 @@ public class MainWindow {
 		project.setTree(tree);
 		project.updateTree();
 		project.openTree();
+		project.startWatching();
 		mainMenu.build();
 		mainToolbar.build();
 	}
@@ -852,6 +867,63 @@ public class MainWindow {
 		return false;
 	}
 
+	// opens the file and selects the text from start to stop (inclusive)
+	public void showInEditor(File file, int start, int stop, boolean write) {
+		if (!openFile(file, write))
+			return;
+		for (TabChild tab : tabs) {
+			if (tab instanceof StyledCodeEditor) {
+				StyledCodeEditor editor = (StyledCodeEditor) tab;
+				if (file.equals(editor.getFile())) {
+					int end = Math.min(stop + 1, editor.getCharCount());
+					editor.setSelection(Math.min(start, end), end);
+					editor.grabFocus();
+					return;
+				}
+			}
+		}
+	}
+
+	public void showLineInEditor(File file, int line, int column, int length, boolean write) {
+		if (!openFile(file, write))
+			return;
+		for (TabChild tab : tabs) {
+			if (tab instanceof StyledCodeEditor) {
+				StyledCodeEditor editor = (StyledCodeEditor) tab;
+				if (file.equals(editor.getFile())) {
+					if (line >= editor.getLineCount())
+						return;
+					int start = Math.min(editor.getOffsetAtLine(line) + column, editor.getCharCount());
+					editor.setSelection(start, Math.min(start + length, editor.getCharCount()));
+					editor.grabFocus();
+					return;
+				}
+			}
+		}
+	}
+
+	// opens the project search window and lists the results in it
+	public void showSearchResults(String description, List<Result> results) {
+		if (searchWindow == null || searchWindow.isDisposed())
+			searchWindow = new ProjectSearchWindow(display);
+		else
+			searchWindow.setFocus();
+		searchWindow.showResults(description, results);
+	}
+
+	// must be called from the UI thread
+	public HashMap<File, CharSequence> getModifiedEditorSnapshots() {
+		HashMap<File, CharSequence> snapshots = new HashMap<>();
+		for (TabChild tc : tabs) {
+			if (tc instanceof StyledCodeEditor) {
+				StyledCodeEditor editor = (StyledCodeEditor) tc;
+				if (editor.getFile() != null && editor.isModified())
+					snapshots.put(editor.getFile(), editor.getSnapshot());
+			}
+		}
+		return snapshots;
+	}
+
 	public void openSVG() {
 		ConstraintsEditor svg = new ConstraintsEditor(tabFolder);
 		tabs.add(svg);
@@ -901,24 +973,4 @@ public class MainWindow {
 			if (e instanceof StyledCodeEditor)
 				((StyledCodeEditor) e).updateErrors();
 	}
-
-	public String getEditorText(File file) {
-		if (Util.isGUI)
-			for (TabChild tc : tabs) {
-				if (tc instanceof StyledCodeEditor) {
-					final StyledCodeEditor editor = (StyledCodeEditor) tc;
-					if (file.equals(editor.getFile())) {
-						final StringBuilder sb = new StringBuilder();
-						Util.syncExec(new Runnable() {
-							@Override
-							public void run() {
-								sb.append(editor.getText());
-							}
-						});
-						return sb.toString();
-					}
-				}
-			}
-		return null;
-	}
 }
@@ -0,0 +1,259 @@
+package com.alchitry.labs.gui.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+import org.usb4java.LibUsbException;
+
+import com.alchitry.labs.Util;
+import com.alchitry.labs.gui.Theme;
+import com.alchitry.labs.gui.main.MainWindow;
+import com.alchitry.labs.hardware.boards.Board;
+import com.alchitry.labs.hardware.loaders.BatchLoader;
+import com.alchitry.labs.hardware.loaders.BatchLoader.State;
+import com.alchitry.labs.hardware.loaders.BatchLoader.Target;
+import com.alchitry.labs.project.Project;
+
+public class BatchProgrammer {
+	protected Shell shell;
+	private Text serialFilter;
+	private Button flashButton, verifyButton, findButton, programButton;
+	private Table table;
+	private Label status;
+	private List<Target> targets = new ArrayList<>();
+	private boolean running;
+
+	public BatchProgrammer(Display display) {
+		createContents(display);
+		shell.open();
+		shell.layout();
+		findBoards();
+	}
+
+	protected void createContents(Display display) {
+		shell = new Shell(display, SWT.CLOSE | SWT.RESIZE | SWT.MIN | SWT.TITLE | SWT.MAX);
+		shell.setText("Batch Programmer");
+		shell.setLayout(new GridLayout(6, false));
+
+		Label filterLabel = new Label(shell, SWT.NONE);
+		filterLabel.setText("Serial starts with:");
+
+		serialFilter = new Text(shell, SWT.BORDER);
+		GridData gd_filter = new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1);
+		gd_filter.widthHint = 150;
+		serialFilter.setLayoutData(gd_filter);
+		serialFilter.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+				findBoards();
+			}
+		});
+
+		flashButton = new Button(shell, SWT.CHECK);
+		flashButton.setText("Flash");
+		flashButton.setSelection(true);
+
+		verifyButton = new Button(shell, SWT.CHECK);
+		verifyButton.setText("Verify");
+
+		findButton = new Button(shell, SWT.NONE);
+		findButton.setText("Find Boards");
+		findButton.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				findBoards();
+			}
+		});
+
+		programButton = new Button(shell, SWT.NONE);
+		GridData gd_program = new GridData(SWT.RIGHT, SWT.CENTER, false, false, 1, 1);
+		gd_program.minimumWidth = 100;
+		programButton.setLayoutData(gd_program);
+		programButton.setText("Program All");
+		programButton.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				program();
+			}
+		});
+
+		table = new Table(shell, SWT.BORDER | SWT.FULL_SELECTION);
+		GridData gd_table = new GridData(SWT.FILL, SWT.FILL, true, true, 6, 1);
+		gd_table.heightHint = 300;
+		table.setLayoutData(gd_table);
+		table.setHeaderVisible(true);
+		TableColumn serialColumn = new TableColumn(table, SWT.NONE);
+		serialColumn.setText("Serial");
+		serialColumn.setWidth(120);
+		TableColumn boardColumn = new TableColumn(table, SWT.NONE);
+		boardColumn.setText("Board");
+		boardColumn.setWidth(100);
+		TableColumn resultColumn = new TableColumn(table, SWT.NONE);
+		resultColumn.setText("Result");
+		resultColumn.setWidth(80);
+		TableColumn statusColumn = new TableColumn(table, SWT.NONE);
+		statusColumn.setText("Status");
+		statusColumn.setWidth(350);
+
+		status = new Label(shell, SWT.NONE);
+		status.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 6, 1));
+
+		shell.pack();
+		shell.setMinimumSize(shell.getSize());
+
+		shell.addDisposeListener(new DisposeListener() {
+			@Override
+			public void widgetDisposed(DisposeEvent arg0) {
+				BatchLoader.release(targets);
+			}
+		});
+	}
+
+	// the board of the open project if it can be batch programmed
+	private Board getBoard() {
+		Project project = MainWindow.getOpenProject();
+		if (project == null || !project.isOpen()) {
+			Util.showError("You need to open or create a project first!", shell);
+			return null;
+		}
+		Board board = project.getBoard();
+		if (!board.isType(Board.AU | Board.CU)) {
+			Util.showError("Batch programming is only supported on the Au and Cu!", shell);
+			return null;
+		}
+		return board;
+	}
+
+	private void findBoards() {
+		if (running)
+			return;
+		Board board = getBoard();
+		if (board == null)
+			return;
+
+		BatchLoader.release(targets);
+		table.removeAll();
+		String filter = serialFilter.getText().trim();
+		try {
+			targets = new BatchLoader(board).find(filter.isEmpty() ? null : filter);
+		} catch (LibUsbException e) {
+			Util.logException(e);
+			targets = new ArrayList<>();
+		}
+		for (Target t : targets) {
+			TableItem item = new TableItem(table, SWT.NONE);
+			item.setText(new String[] { t.serial, t.name, "", "" });
+			item.setData(t);
+		}
+		status.setText("Found " + targets.size() + " boards");
+	}
+
+	private void program() {
+		if (running)
+			return;
+		Board board = getBoard();
+		if (board == null)
+			return;
+		Project project = MainWindow.getOpenProject();
+		if (project.isBusy()) {
+			Util.showError("Operation already in progress!", shell);
+			return;
+		}
+		String binFile = project.getBinFile();
+		if (binFile == null) {
+			Util.showError("Could not find the bin file! Make sure the project is built.", shell);
+			return;
+		}
+		if (targets.isEmpty()) {
+			findBoards();
+			if (targets.isEmpty())
+				return;
+		}
+
+		final List<Target> batch = targets;
+		targets = new ArrayList<>(); // the batch owns the devices now
+		running = true;
+		programButton.setEnabled(false);
+		findButton.setEnabled(false);
+		status.setText("Programming " + batch.size() + " boards...");
+
+		new BatchLoader(board).start(batch, binFile, flashButton.getSelection(), verifyButton.getSelection(), new BatchLoader.BatchListener() {
+			@Override
+			public void updated(final Target target) {
+				Util.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (table.isDisposed())
+							return;
+						for (TableItem item : table.getItems()) {
+							if (item.getData() == target) {
+								updateItem(item, target);
+								break;
+							}
+						}
+					}
+				});
+			}
+
+			@Override
+			public void done(final int passed, final int failed) {
+				Util.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (shell.isDisposed())
+							return;
+						running = false;
+						programButton.setEnabled(true);
+						findButton.setEnabled(true);
+						status.setText(passed + " passed, " + failed + " failed");
+					}
+				});
+			}
+		});
+	}
+
+	private static void updateItem(TableItem item, Target t) {
+		State state = t.getState();
+		String result;
+		switch (state) {
+		case PASSED:
+			result = "Passed";
+			item.setForeground(2, Theme.successTextColor);
+			break;
+		case FAILED:
+			result = "Failed";
+			item.setForeground(2, Theme.errorTextColor);
+			break;
+		case RUNNING:
+			result = "Running";
+			break;
+		default:
+			result = "";
+		}
+		item.setText(2, result);
+		item.setText(3, t.getStatus());
+	}
+
+	public void setFocus() {
+		shell.setFocus();
+	}
+
+	public boolean isDisposed() {
+		return shell.isDisposed();
+	}
+}
@@ -0,0 +1,218 @@
+package com.alchitry.labs.gui.tools;
+
+import java.io.File;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+
+import com.alchitry.labs.Util;
+import com.alchitry.labs.gui.main.MainWindow;
+import com.alchitry.labs.project.Project;
+import com.alchitry.labs.tools.ProjectSearch;
+import com.alchitry.labs.tools.ProjectSearch.Result;
+
+public class ProjectSearchWindow {
+	protected Shell shell;
+	private Text query;
+	private Button matchCase, wholeWord, searchButton;
+	private Table table;
+	private Label status;
+	private ProjectSearch search;
+	private int searchId; // results of older searches are ignored
+
+	public ProjectSearchWindow(Display display) {
+		createContents(display);
+		shell.open();
+		shell.layout();
+		query.setFocus();
+	}
+
+	protected void createContents(Display display) {
+		shell = new Shell(display, SWT.CLOSE | SWT.RESIZE | SWT.MIN | SWT.TITLE | SWT.MAX);
+		shell.setText("Search Project");
+		shell.setLayout(new GridLayout(4, false));
+
+		query = new Text(shell, SWT.BORDER | SWT.SEARCH);
+		GridData gd_query = new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1);
+		gd_query.widthHint = 250;
+		query.setLayoutData(gd_query);
+		query.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+				startSearch();
+			}
+		});
+
+		matchCase = new Button(shell, SWT.CHECK);
+		matchCase.setText("Match case");
+
+		wholeWord = new Button(shell, SWT.CHECK);
+		wholeWord.setText("Whole word");
+
+		searchButton = new Button(shell, SWT.NONE);
+		GridData gd_search = new GridData(SWT.RIGHT, SWT.CENTER, false, false, 1, 1);
+		gd_search.minimumWidth = 100;
+		searchButton.setLayoutData(gd_search);
+		searchButton.setText("Search");
+		searchButton.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				if (search != null && !search.isCancelled())
+					search.cancel();
+				else
+					startSearch();
+			}
+		});
+
+		table = new Table(shell, SWT.BORDER | SWT.FULL_SELECTION);
+		GridData gd_table = new GridData(SWT.FILL, SWT.FILL, true, true, 4, 1);
+		gd_table.heightHint = 300;
+		table.setLayoutData(gd_table);
+		table.setHeaderVisible(true);
+		TableColumn fileColumn = new TableColumn(table, SWT.NONE);
+		fileColumn.setText("File");
+		fileColumn.setWidth(180);
+		TableColumn lineColumn = new TableColumn(table, SWT.RIGHT);
+		lineColumn.setText("Line");
+		lineColumn.setWidth(60);
+		TableColumn textColumn = new TableColumn(table, SWT.NONE);
+		textColumn.setText("Text");
+		textColumn.setWidth(400);
+		table.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+				TableItem item = (TableItem) e.item;
+				if (item == null)
+					return;
+				Result r = (Result) item.getData();
+				Project project = MainWindow.getOpenProject();
+				boolean write = project == null || !project.isLibFile(r.file);
+				MainWindow.mainWindow.showLineInEditor(r.file, r.line, r.column, r.length, write);
+			}
+		});
+
+		status = new Label(shell, SWT.NONE);
+		status.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 4, 1));
+
+		shell.pack();
+		shell.setMinimumSize(shell.getSize());
+
+		shell.addDisposeListener(new DisposeListener() {
+			@Override
+			public void widgetDisposed(DisposeEvent arg0) {
+				if (search != null)
+					search.cancel();
+				search = null;
+			}
+		});
+	}
+
+	private void startSearch() {
+		Project project = MainWindow.getOpenProject();
+		if (project == null || !project.isOpen()) {
+			Util.showError("You need to open or create a project first!", shell);
+			return;
+		}
+		if (search != null)
+			search.cancel();
+		search = null;
+		searchId++;
+		table.removeAll();
+		searchButton.setText("Search");
+		status.setText("");
+
+		String text = query.getText();
+		if (text.isEmpty())
+			return;
+
+		final File folder = project.getFolder();
+		final int id = searchId;
+		final ProjectSearch s = new ProjectSearch(text, matchCase.getSelection(), wholeWord.getSelection(), new ProjectSearch.ResultListener() {
+			@Override
+			public void found(final List<Result> results) {
+				Util.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (table.isDisposed() || id != searchId)
+							return;
+						for (Result r : results)
+							addItem(folder, r);
+						status.setText("Searching... " + table.getItemCount() + " results");
+					}
+				});
+			}
+
+			@Override
+			public void done(final int results, final boolean cancelled) {
+				Util.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (shell.isDisposed() || id != searchId)
+							return;
+						if (results >= ProjectSearch.MAX_RESULTS)
+							status.setText("Found " + results + " results. Stopped at the limit.");
+						else
+							status.setText((cancelled ? "Stopped. Found " : "Found ") + results + " results");
+						searchButton.setText("Search");
+						search = null;
+					}
+				});
+			}
+		});
+		search = s;
+		searchButton.setText("Stop");
+		status.setText("Searching...");
+		s.start(ProjectSearch.getProjectFiles(project), MainWindow.mainWindow.getModifiedEditorSnapshots());
+	}
+
+	private void addItem(File folder, Result r) {
+		TableItem item = new TableItem(table, SWT.NONE);
+		item.setText(new String[] { getName(folder, r.file), Integer.toString(r.line + 1), r.lineText.trim() });
+		item.setData(r);
+	}
+
+	// replaces the results with ones found some other way, like the usages of a symbol
+	public void showResults(String description, List<Result> results) {
+		if (search != null)
+			search.cancel();
+		search = null;
+		searchId++;
+		table.removeAll();
+		searchButton.setText("Search");
+
+		Project project = MainWindow.getOpenProject();
+		File folder = project == null ? null : project.getFolder();
+		for (Result r : results)
+			addItem(folder, r);
+		status.setText(description);
+	}
+
+	private static String getName(File folder, File file) {
+		String path = file.getPath();
+		if (folder != null && path.startsWith(folder.getPath() + File.separator))
+			return path.substring(folder.getPath().length() + 1);
+		return file.getName();
+	}
+
+	public void setFocus() {
+		shell.setFocus();
+	}
+
+	public boolean isDisposed() {
+		return shell.isDisposed();
+	}
+}
@@ -18,6 +18,8 @@ import com.alchitry.labs.gui.BaudDialog;
 import com.alchitry.labs.gui.Theme;
 import com.alchitry.labs.gui.main.MainWindow;
 import com.alchitry.labs.hardware.boards.Board;
+import com.alchitry.labs.hardware.usb.DeviceSessions;
+import com.alchitry.labs.hardware.usb.DeviceSessions.Lease;
 import com.alchitry.labs.hardware.usb.UsbSerial;
 import com.alchitry.labs.hardware.usb.UsbUtil;
 
@@ -29,7 +31,9 @@ public class SerialMonitor {
 	// protected CustomCombo combo;
 	private int cursorPos;
 
+	private Lease lease;
 	private UsbSerial port;
+	private volatile boolean portFailed;
 	private boolean ignoreText;
 
 	/**
@@ -95,14 +99,16 @@ public class SerialMonitor {
 	}
 
 	private void connect() {
-		port = UsbUtil.openSerial();
-		if (port == null) {
+		lease = DeviceSessions.leaseSerial(UsbUtil.ALL_DEVICES);
+		if (lease == null) {
 			shell.dispose();
 			return;
 		}
+		port = lease.getSerial();
 
 		if (MainWindow.getOpenProject() == null) {
 			Util.showError("Please open a project before opening the serial port monitor!");
+			disconnect();
 			shell.dispose();
 			return;
 		}
@@ -114,6 +120,7 @@ public class SerialMonitor {
 				BaudDialog bd = new BaudDialog(Util.getShell(), SWT.DIALOG_TRIM | SWT.APPLICATION_MODAL);
 				baud = bd.open(baud);
 				if (baud < 0) {
+					disconnect();
 					shell.dispose();
 					return;
 				}
@@ -153,6 +160,7 @@ public class SerialMonitor {
 						}
 					} catch (LibUsbException e) {
 						if (!e.getMessage().contains("timed out")) {
+							portFailed = true;
 							shell.getDisplay().syncExec(new Runnable() {
 								@Override
 								public void run() {
@@ -178,9 +186,13 @@ public class SerialMonitor {
 	}
 
 	private void disconnect() {
-		if (port != null) {
-			port.usbClose();
+		if (lease != null) {
+			if (portFailed)
+				lease.discard();
+			else
+				lease.release();
 		}
+		lease = null;
 		port = null;
 	}
 
@@ -4,11 +4,14 @@ import java.util.List;
 
 import org.usb4java.LibUsbException;
 
+import com.alchitry.labs.hardware.usb.DeviceSessions;
+import com.alchitry.labs.hardware.usb.DeviceSessions.Lease;
 import com.alchitry.labs.hardware.usb.UsbSerial;
 import com.alchitry.labs.hardware.usb.UsbUtil;
 import com.alchitry.labs.hardware.usb.UsbUtil.UsbDescriptor;
 
 public class RegisterInterface {
+	private Lease lease;
 	private UsbSerial serialPort;
 
 	public RegisterInterface() {
@@ -26,18 +29,28 @@ public class RegisterInterface {
 	}
 
 	public boolean connect(List<UsbDescriptor> devices) {
-		serialPort = UsbUtil.openSerial(devices);
-		if (serialPort == null)
+		lease = DeviceSessions.leaseSerial(devices);
+		if (lease == null)
 			return false;
-		serialPort.setBaudrate(1000000);
+		serialPort = lease.getSerial();
+		try {
+			serialPort.setBaudrate(1000000);
+		} catch (LibUsbException e) {
+			lease.discard();
+			lease = null;
+			serialPort = null;
+			throw e;
+		}
 		serialPort.setTimeouts(1000, 1000);
 		return true;
 	}
 
 	public boolean disconnect() {
-		if (serialPort == null)
-			return true;
-		return serialPort.usbClose();
+		if (lease != null)
+			lease.release();
+		lease = null;
+		serialPort = null;
+		return true;
 	}
 
 	public boolean write(int address, int data) {
@@ -55,17 +68,18 @@ public class RegisterInterface {
 	}
 
 	public boolean write(int address, boolean increment, int[] data) {
+		// the packets are streamed without waiting on each one
 		for (int i = 0; i < data.length; i += 64) {
 			int length = Math.min(data.length - i, 64);
-			if (!write64(address, increment, data, i, length))
-				return false;
+			write64(address, increment, data, i, length);
 			if (increment)
 				address += length;
 		}
+		serialPort.writeDataWait();
 		return true;
 	}
 
-	private boolean write64(int address, boolean increment, int[] data, int start, int length) {
+	private void write64(int address, boolean increment, int[] data, int start, int length) {
 		byte[] buff = new byte[5 + length * 4];
 		buff[0] = (byte) ((1 << 7) | (length - 1));
 		if (increment)
@@ -81,7 +95,7 @@ public class RegisterInterface {
 			buff[i * 4 + 8] = (byte) ((data[i + start] >> 24) & 0xff);
 		}
 
-		return serialPort.writeData(buff) == buff.length;
+		serialPort.writeDataAsync(buff, 0, buff.length);
 	}
 
 	public int read(int address) {
@@ -4,8 +4,9 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.alchitry.labs.Util;
+import com.alchitry.labs.hardware.usb.DeviceSessions;
+import com.alchitry.labs.hardware.usb.DeviceSessions.Lease;
 import com.alchitry.labs.hardware.usb.UsbUtil;
-import com.alchitry.labs.hardware.usb.ftdi.Ftdi;
 import com.alchitry.labs.hardware.usb.ftdi.Jtag;
 import com.alchitry.labs.hardware.usb.ftdi.JtagState;
 import com.alchitry.labs.hardware.usb.ftdi.XilinxJtag.Instruction;
@@ -19,7 +20,7 @@ public class AuDebugger extends Debugger {
 	private static final byte DATA_SCAN = Instruction.USER3.getCode();
 	private static final byte CAPTURE_SCAN = Instruction.USER4.getCode();
 
-	private Ftdi ftdi;
+	private Lease lease;
 	private Jtag jtag;
 
 	public AuDebugger() {
@@ -27,17 +28,24 @@ public class AuDebugger extends Debugger {
 	}
 
 	public void init() {
-		ftdi = UsbUtil.openFtdiDevice(PortInterfaceType.INTERFACE_A, UsbUtil.AU_DEVICES);
-		if (ftdi == null)
+		lease = DeviceSessions.lease(PortInterfaceType.INTERFACE_A, UsbUtil.AU_DEVICES);
+		if (lease == null)
 			throw new RuntimeException("Failed to connect to device!");
-		jtag = new Jtag(ftdi);
-		jtag.init();
-		jtag.setFreq(30000000);
-		jtag.resetState();
+		try {
+			jtag = lease.getJtag();
+			jtag.setFreq(30000000);
+			jtag.resetState();
+		} catch (RuntimeException e) {
+			lease.discard();
+			lease = null;
+			throw e;
+		}
 	}
 
 	public void close() {
-		ftdi.usbClose();
+		if (lease != null)
+			lease.release();
+		lease = null;
 	}
 
 	private void setIR(byte inst) {
@@ -176,5 +184,6 @@ public class AuDebugger extends Debugger {
 
 		setIR(CONFIG_SCAN);
 		jtag.shiftDR(4 * captureWidth, triggerData);
+		jtag.flush();
 	}
 }
@@ -5,9 +5,10 @@ import java.io.IOException;
 import org.usb4java.LibUsbException;
 
 import com.alchitry.labs.Util;
-import com.alchitry.labs.gui.Theme;
+import com.alchitry.labs.hardware.usb.DeviceSessions;
+import com.alchitry.labs.hardware.usb.DeviceSessions.Lease;
 import com.alchitry.labs.hardware.usb.UsbUtil;
-import com.alchitry.labs.hardware.usb.ftdi.Ftdi;
+import com.alchitry.labs.hardware.usb.UsbUtil.DeviceEntry;
 import com.alchitry.labs.hardware.usb.ftdi.Mpsse.MpsseException;
 import com.alchitry.labs.hardware.usb.ftdi.XilinxJtag;
 import com.alchitry.labs.hardware.usb.ftdi.enums.PortInterfaceType;
@@ -16,13 +17,12 @@ public class AuLoader extends ProjectLoader {
 
 	@Override
 	protected void eraseFlash() {
-		Ftdi ftdi = null;
+		Lease lease = DeviceSessions.lease(PortInterfaceType.INTERFACE_A, UsbUtil.AU_DEVICES);
+		if (lease == null)
+			return;
+		boolean failed = false;
 		try {
-			ftdi = UsbUtil.openFtdiDevice(PortInterfaceType.INTERFACE_A, UsbUtil.AU_DEVICES);
-			if (ftdi == null) 
-				return;
-			
-			XilinxJtag xil = new XilinxJtag(ftdi);
+			XilinxJtag xil = new XilinxJtag(lease.getFtdi(), lease.getJtag());
 			xil.checkIDCODE();
 			try {
 				xil.eraseFlash();
@@ -32,39 +32,50 @@ public class AuLoader extends ProjectLoader {
 			}
 		} catch (LibUsbException | MpsseException e) {
 			Util.logException(e);
+			failed = true;
 		} finally {
-			if (ftdi != null) {
-				ftdi.usbClose();
-			}
+			if (failed)
+				lease.discard();
+			else
+				lease.release();
 		}
 	}
 
 	@Override
 	protected void program(String binFile, boolean flash, boolean verify) {
-		if (verify) {
-			Util.println("Verify isn't currently supported on the Au!", Theme.infoTextColor);
-		}
+		Lease lease = DeviceSessions.lease(PortInterfaceType.INTERFACE_A, UsbUtil.AU_DEVICES);
+		if (lease != null)
+			program(lease, binFile, flash, verify);
+	}
 
-		Ftdi ftdi = null;
+	@Override
+	public boolean programDevice(DeviceEntry dev, String binFile, boolean flash, boolean verify) {
+		Lease lease = DeviceSessions.lease(PortInterfaceType.INTERFACE_A, dev);
+		if (lease == null)
+			return false;
+		return program(lease, binFile, flash, verify);
+	}
+
+	private boolean program(Lease lease, String binFile, boolean flash, boolean verify) {
+		boolean failed = false;
 		try {
-			ftdi = UsbUtil.openFtdiDevice(PortInterfaceType.INTERFACE_A, UsbUtil.AU_DEVICES);
-			if (ftdi == null) 
-				return;
-			
-			XilinxJtag xil = new XilinxJtag(ftdi);
+			XilinxJtag xil = new XilinxJtag(lease.getFtdi(), lease.getJtag());
 			xil.checkIDCODE();
 			try {
-				xil.writeBin(binFile, flash);
+				return xil.writeBin(binFile, flash, verify);
 			} catch (IOException e) {
 				Util.logException(e);
 				Util.println("Failed to write bin file!", true);
 			}
 		} catch (LibUsbException | MpsseException e) {
 			Util.logException(e);
+			failed = true;
 		} finally {
-			if (ftdi != null) {
-				ftdi.usbClose();
-			}
+			if (failed)
+				lease.discard();
+			else
+				lease.release();
 		}
+		return false;
 	}
 }
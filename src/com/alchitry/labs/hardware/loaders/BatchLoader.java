@@ -0,0 +1,276 @@
+package com.alchitry.labs.hardware.loaders;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.swt.graphics.Color;
+import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
+
+import com.alchitry.labs.Util;
+import com.alchitry.labs.gui.Theme;
+import com.alchitry.labs.hardware.boards.Board;
+import com.alchitry.labs.hardware.usb.DeviceSessions;
+import com.alchitry.labs.hardware.usb.UsbDevice;
+import com.alchitry.labs.hardware.usb.UsbDevice.DeviceStrings;
+import com.alchitry.labs.hardware.usb.UsbUtil;
+import com.alchitry.labs.hardware.usb.UsbUtil.DeviceEntry;
+import com.alchitry.labs.hardware.usb.UsbUtil.UsbDescriptor;
+import com.alchitry.labs.hardware.usb.ftdi.Ftdi;
+
+/*
+ * Programs every attached board of one type at the same time with one thread per board. Boards can be
+ * limited to the ones with a serial number starting with a filter. Everything a board's thread prints
+ * goes to the console prefixed with the board's serial number and the first line of each message is
+ * kept as the board's status.
+ */
+public class BatchLoader {
+	public enum State {
+		WAITING, RUNNING, PASSED, FAILED
+	}
+
+	public static class Target {
+		public final String serial;
+		public final String name;
+		private final DeviceEntry entry;
+		private volatile State state = State.WAITING;
+		private volatile String status = "";
+		private boolean claimed; // the device reference belongs to a thread or was released
+
+		private Target(DeviceEntry entry, String serial) {
+			this.entry = entry;
+			this.serial = serial;
+			name = entry.description.name;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public String getStatus() {
+			return status;
+		}
+	}
+
+	public interface BatchListener {
+		// called from the board's thread every time its state or status changes
+		public void updated(Target target);
+
+		// called once from the last thread to finish
+		public void done(int passed, int failed);
+	}
+
+	private final Board board;
+	private final List<Thread> threads = new ArrayList<>();
+
+	public BatchLoader(Board board) {
+		this.board = board;
+	}
+
+	/*
+	 * Finds every attached board that matches. The targets hold a reference to their device until they
+	 * are programmed or passed to release().
+	 */
+	public List<Target> find(String serialFilter) {
+		List<Target> targets = new ArrayList<>();
+		List<UsbDescriptor> desc = new ArrayList<>();
+		desc.add(board.getUsbDesciptor());
+		List<DeviceEntry> devs = UsbUtil.getDevices(desc);
+		UsbDevice strings = new Ftdi();
+		try {
+			for (DeviceEntry dev : devs) {
+				String serial;
+				try {
+					DeviceStrings ds = strings.usbGetStrings(dev.device);
+					serial = ds.serial;
+				} catch (LibUsbException e) {
+					Util.log.severe("Failed to read the serial number of a " + dev.description.name + ": " + e.getMessage());
+					continue;
+				}
+				if (serial == null)
+					serial = "";
+				if (serialFilter != null && !serial.startsWith(serialFilter))
+					continue;
+				targets.add(new Target(new DeviceEntry(dev.description, LibUsb.refDevice(dev.device)), serial));
+			}
+		} finally {
+			UsbDevice.entryListFree(devs);
+		}
+		return targets;
+	}
+
+	// frees targets that weren't programmed
+	public static void release(List<Target> targets) {
+		for (Target t : targets) {
+			if (!t.claimed) {
+				t.claimed = true;
+				LibUsb.unrefDevice(t.entry.device);
+			}
+		}
+	}
+
+	/*
+	 * Starts programming every target and returns right away. Each target can only be programmed once,
+	 * call find() again for another round.
+	 */
+	public void start(final List<Target> targets, final String binFile, final boolean flash, final boolean verify, final BatchListener listener) {
+		final AtomicInteger running = new AtomicInteger(targets.size());
+		final AtomicInteger passed = new AtomicInteger();
+		threads.clear();
+
+		Util.clearConsole();
+		Util.println("Programming " + targets.size() + " boards...");
+		if (targets.isEmpty()) {
+			listener.done(0, 0);
+			return;
+		}
+
+		for (final Target t : targets) {
+			if (t.claimed)
+				throw new IllegalStateException("Board " + t.serial + " was already programmed or released");
+			t.claimed = true;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (program(t, binFile, flash, verify, listener))
+							passed.incrementAndGet();
+					} finally {
+						if (running.decrementAndGet() == 0) {
+							int p = passed.get();
+							int f = targets.size() - p;
+							Util.println(p + " passed, " + f + " failed", f == 0 ? Theme.successTextColor : Theme.errorTextColor);
+							listener.done(p, f);
+						}
+					}
+				}
+			}, "Batch Loader " + t.serial);
+			thread.setDaemon(true);
+			threads.add(thread);
+		}
+		for (Thread thread : threads)
+			thread.start();
+	}
+
+	// waits for every thread from start() to finish
+	public void join() throws InterruptedException {
+		for (Thread thread : threads)
+			thread.join();
+	}
+
+	private boolean program(final Target t, String binFile, boolean flash, boolean verify, final BatchListener listener) {
+		Util.setPrintFilter(new Util.PrintFilter() {
+			@Override
+			public String filter(String text, Color color) {
+				String line = firstLine(text);
+				if (line != null) {
+					t.status = line;
+					listener.updated(t);
+				}
+				return "[" + t.serial + "] " + text;
+			}
+		});
+
+		t.state = State.RUNNING;
+		listener.updated(t);
+		boolean result = false;
+		try {
+			result = board.getLoader().programDevice(t.entry, binFile, flash, verify);
+		} catch (RuntimeException e) {
+			Util.logException(e);
+		} finally {
+			LibUsb.unrefDevice(t.entry.device);
+			t.state = result ? State.PASSED : State.FAILED;
+			Util.println(result ? "Passed" : "Failed", result ? Theme.successTextColor : Theme.errorTextColor);
+			Util.setPrintFilter(null);
+		}
+		return result;
+	}
+
+	private static String firstLine(String text) {
+		if (text == null)
+			return null;
+		for (String line : text.split("\\r?\\n")) {
+			line = line.trim();
+			if (!line.isEmpty())
+				return line;
+		}
+		return null;
+	}
+
+	/*
+	 * Command line version, args are <board> <bin file> [-flash] [-verify] [-serial <prefix>] where board is
+	 * alchitry-au or alchitry-cu. Returns the exit code, 0 if every board that was found passed.
+	 */
+	public static int runCommand(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: batch <alchitry-au|alchitry-cu> <bin file> [-flash] [-verify] [-serial <prefix>]");
+			return 2;
+		}
+
+		Board board = Board.getFromProjectName(args[0]);
+		if (board == null || !board.isType(Board.AU | Board.CU)) {
+			System.err.println("Unsupported board " + args[0] + "! Only alchitry-au and alchitry-cu can be batch programmed.");
+			return 2;
+		}
+
+		String binFile = args[1];
+		if (!new File(binFile).isFile()) {
+			System.err.println("Could not find the bin file " + binFile);
+			return 2;
+		}
+
+		boolean flash = false;
+		boolean verify = false;
+		String serial = null;
+		for (int i = 2; i < args.length; i++) {
+			switch (args[i]) {
+			case "-flash":
+				flash = true;
+				break;
+			case "-verify":
+				verify = true;
+				break;
+			case "-serial":
+				if (++i == args.length) {
+					System.err.println("Serial prefix missing after -serial!");
+					return 2;
+				}
+				serial = args[i];
+				break;
+			default:
+				System.err.println("Unknown argument " + args[i]);
+				return 2;
+			}
+		}
+
+		BatchLoader loader = new BatchLoader(board);
+		List<Target> targets = loader.find(serial);
+		if (targets.isEmpty()) {
+			System.err.println("Couldn't find any boards!");
+			return 1;
+		}
+
+		final AtomicInteger failed = new AtomicInteger();
+		loader.start(targets, binFile, flash, verify, new BatchListener() {
+			@Override
+			public void updated(Target target) {
+			}
+
+			@Override
+			public void done(int passed, int f) {
+				failed.set(f);
+			}
+		});
+		try {
+			loader.join();
+		} catch (InterruptedException e) {
+			return 1;
+		} finally {
+			DeviceSessions.closeAll();
+		}
+		return failed.get() == 0 ? 0 : 1;
+	}
+}
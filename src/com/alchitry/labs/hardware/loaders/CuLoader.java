@@ -4,61 +4,70 @@ import java.io.IOException;
 
 import org.usb4java.LibUsbException;
 
+import com.alchitry.labs.Settings;
 import com.alchitry.labs.Util;
 import com.alchitry.labs.gui.Theme;
+import com.alchitry.labs.hardware.usb.DeviceSessions;
+import com.alchitry.labs.hardware.usb.DeviceSessions.Lease;
 import com.alchitry.labs.hardware.usb.UsbUtil;
-import com.alchitry.labs.hardware.usb.ftdi.Ftdi;
-import com.alchitry.labs.hardware.usb.ftdi.LatticeSpi;
+import com.alchitry.labs.hardware.usb.UsbUtil.DeviceEntry;
 import com.alchitry.labs.hardware.usb.ftdi.Mpsse.MpsseException;
 import com.alchitry.labs.hardware.usb.ftdi.enums.PortInterfaceType;
 
 public class CuLoader extends ProjectLoader {
 	@Override
 	protected void eraseFlash() {
-		Ftdi ftdi = null;
+		Lease lease = DeviceSessions.lease(PortInterfaceType.INTERFACE_A, UsbUtil.CU_DEVICES);
+		if (lease == null)
+			return;
+		boolean failed = false;
 		try {
-			ftdi = UsbUtil.openFtdiDevice(PortInterfaceType.INTERFACE_A, UsbUtil.CU_DEVICES);
-			if (ftdi == null)
-				return;
-
-			LatticeSpi spi = new LatticeSpi(ftdi);
-			spi.eraseFlash();
+			lease.getSpi().eraseFlash();
 		} catch (LibUsbException | MpsseException e) {
 			Util.logException(e);
+			failed = true;
 		} finally {
-			if (ftdi != null) {
-				ftdi.usbClose();
-			}
+			if (failed)
+				lease.discard();
+			else
+				lease.release();
 		}
 	}
 
 	@Override
 	protected void program(String binFile, boolean flash, boolean verify) {
-		if (verify)
-			Util.println("Verify isn't currently supported on the Cu!", Theme.infoTextColor);
-
 		if (!flash)
 			Util.println("FPGA programming isn't supported on the Cu!", Theme.infoTextColor);
 
-		Ftdi ftdi = null;
-		try {
-			ftdi = UsbUtil.openFtdiDevice(PortInterfaceType.INTERFACE_A, UsbUtil.CU_DEVICES);
-			if (ftdi == null)
-				return;
+		Lease lease = DeviceSessions.lease(PortInterfaceType.INTERFACE_A, UsbUtil.CU_DEVICES);
+		if (lease != null)
+			program(lease, binFile, verify);
+	}
 
-			LatticeSpi spi = new LatticeSpi(ftdi);
-			try {
-				spi.writeBin(binFile);
-			} catch (IOException e) {
-				Util.logException(e);
-				Util.println("Failed to write bin file!", true);
-			}
+	@Override
+	public boolean programDevice(DeviceEntry dev, String binFile, boolean flash, boolean verify) {
+		Lease lease = DeviceSessions.lease(PortInterfaceType.INTERFACE_A, dev);
+		if (lease == null)
+			return false;
+		return program(lease, binFile, verify);
+	}
+
+	private boolean program(Lease lease, String binFile, boolean verify) {
+		boolean failed = false;
+		try {
+			return lease.getSpi().writeBin(binFile, Settings.pref.getBoolean(Settings.DIFF_FLASH, false), verify);
+		} catch (IOException e) {
+			Util.logException(e);
+			Util.println("Failed to write bin file!", true);
 		} catch (LibUsbException | MpsseException e) {
 			Util.logException(e);
+			failed = true;
 		} finally {
-			if (ftdi != null) {
-				ftdi.usbClose();
-			}
+			if (failed)
+				lease.discard();
+			else
+				lease.release();
 		}
+		return false;
 	}
 }
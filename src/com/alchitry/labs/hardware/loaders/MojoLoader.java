@@ -1,11 +1,10 @@
 package com.alchitry.labs.hardware.loaders;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 
 import org.usb4java.LibUsbException;
 
@@ -15,7 +14,10 @@ import com.alchitry.labs.hardware.usb.MojoSerial;
 import com.alchitry.labs.hardware.usb.UsbUtil;
 
 public class MojoLoader extends ProjectLoader {
+	private static final int CHUNK_SIZE = 64 * 1024; // bytes of the bin file handled at a time
+
 	private MojoSerial mojo;
+	private final byte[] bbuf = new byte[1];
 
 	public MojoLoader() {
 
@@ -59,15 +61,24 @@ public class MojoLoader extends ProjectLoader {
 	}
 
 	private boolean writeByte(byte b) {
-		return mojo.writeData(new byte[] { b }) == 1;
+		bbuf[0] = b;
+		return mojo.writeData(bbuf) == 1;
 	}
 
 	private byte readByte() {
-		byte[] bbuf = new byte[1];
 		mojo.readDataWithTimeout(bbuf);
 		return bbuf[0];
 	}
 
+	// fills data from the stream and returns how many bytes were read, less than data.length only at the end
+	private static int readChunk(InputStream in, byte[] data) throws IOException {
+		int count = 0;
+		int read;
+		while (count < data.length && (read = in.read(data, count, data.length - count)) != -1)
+			count += read;
+		return count;
+	}
+
 	@Override
 	protected void eraseFlash() {
 		try {
@@ -106,7 +117,7 @@ public class MojoLoader extends ProjectLoader {
 		File file = new File(binFile);
 		InputStream bin = null;
 		try {
-			bin = new BufferedInputStream(new FileInputStream(file));
+			bin = new FileInputStream(file);
 		} catch (FileNotFoundException e) {
 			onError("The bin file could not be opened!");
 			return;
@@ -160,29 +171,25 @@ public class MojoLoader extends ProjectLoader {
 			if (flash)
 				Util.println("Loading to flash...");
 
-			int num;
+			int read;
 			int count = 0;
-			int oldCount = 0;
-			int percent = length / 100;
-			byte[] data = new byte[percent];
-			while (true) {
-				int avail = bin.available();
-				avail = avail > percent ? percent : avail;
-				if (avail == 0)
-					break;
-				int read = bin.read(data, 0, avail);
-				mojo.writeData(Arrays.copyOf(data, read));
+			int oldPercent = 0;
+			byte[] data = new byte[CHUNK_SIZE];
+			while ((read = readChunk(bin, data)) > 0) {
+				mojo.writeDataAsync(data, 0, read);
 				count += read;
 
-				if (count - oldCount > percent) {
-					oldCount = count;
-					float prog = (float) count / length;
-					updateProgress(Math.round(prog * 100.0f));
+				int percent = (int) (count * 100L / length);
+				if (percent != oldPercent) {
+					oldPercent = percent;
+					updateProgress(percent);
 				}
 			}
 
+			mojo.writeDataWait();
 			updateProgress(100);
 			Util.println("");
+			Util.println(String.format("Sent %d KB at %.2f MB/s", length / 1024, mojo.getWriteRate()));
 
 			if (readByte() != 'D') {
 				onError("Mojo did not acknowledge the transfer!");
@@ -194,21 +201,22 @@ public class MojoLoader extends ProjectLoader {
 
 			if (flash && verify) {
 				Util.println("Verifying...");
-				bin = new BufferedInputStream(new FileInputStream(file));
+				bin = new FileInputStream(file);
 				writeByte((byte) 'S');
 
 				int size = (int) (file.length() + 5);
 
-				int tmp;
-				if (((tmp = readByte()) & 0xff) != 0xAA) {
-					onError("Flash does not contain valid start byte! Got: " + tmp);
+				byte[] header = new byte[5];
+				mojo.readDataWithTimeout(header);
+				if ((header[0] & 0xff) != 0xAA) {
+					onError("Flash does not contain valid start byte! Got: " + (header[0] & 0xff));
 					bin.close();
 					return;
 				}
 
 				int flashSize = 0;
 				for (int i = 0; i < 4; i++) {
-					flashSize |= (((int) readByte()) & 0xff) << (i * 8);
+					flashSize |= (header[i + 1] & 0xff) << (i * 8);
 				}
 
 				if (flashSize != size) {
@@ -217,24 +225,32 @@ public class MojoLoader extends ProjectLoader {
 					return;
 				}
 
+				long start = System.nanoTime();
+				byte[] flashData = new byte[CHUNK_SIZE];
 				count = 0;
-				oldCount = 0;
-				while ((num = bin.read()) != -1) {
-					int d = (((int) readByte()) & 0xff);
-					if (d != num) {
-						onError("Verification failed at byte " + count + " out of " + length + "\nExpected " + num + " got " + d);
-						bin.close();
-						return;
+				oldPercent = 0;
+				while ((read = readChunk(bin, data)) > 0) {
+					mojo.readDataWithTimeout(flashData, 0, read);
+					for (int i = 0; i < read; i++) {
+						if (data[i] != flashData[i]) {
+							onError("Verification failed at byte " + (count + i) + " out of " + length + "\nExpected " + (data[i] & 0xff) + " got "
+									+ (flashData[i] & 0xff));
+							bin.close();
+							return;
+						}
 					}
-					count++;
-					if (count - oldCount > percent) {
-						oldCount = count;
-						float prog = (float) count / length;
-						updateProgress(Math.round(prog * 100.0f));
+					count += read;
+
+					int percent = (int) (count * 100L / length);
+					if (percent != oldPercent) {
+						oldPercent = percent;
+						updateProgress(percent);
 					}
 				}
 				updateProgress(100);
 				Util.println("");
+				double time = (System.nanoTime() - start) / 1e9;
+				Util.println(String.format("Verified %d KB at %.2f MB/s", length / 1024, length / 1048576.0 / time));
 			}
 
 			if (flash) {
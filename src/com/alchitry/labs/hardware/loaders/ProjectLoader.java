@@ -3,6 +3,7 @@ package com.alchitry.labs.hardware.loaders;
 import org.eclipse.swt.custom.StyledText;
 
 import com.alchitry.labs.Util;
+import com.alchitry.labs.hardware.usb.UsbUtil.DeviceEntry;
 
 public abstract class ProjectLoader {
 	protected abstract void eraseFlash();
@@ -12,6 +13,15 @@ public abstract class ProjectLoader {
 	public ProjectLoader() {
 	}
 
+	/*
+	 * Programs a device that was already found and returns true if it was programmed (and verified). This
+	 * is used by BatchLoader from many threads at once so it must not ask the user anything.
+	 */
+	public boolean programDevice(DeviceEntry device, String binFile, boolean flash, boolean verify) {
+		Util.println("Batch programming isn't supported on this board!", true);
+		return false;
+	}
+
 	protected static void updateProgress(final int percent) {
 		Util.asyncExec(new Runnable() {
 			@Override
@@ -0,0 +1,335 @@
+package com.alchitry.labs.hardware.usb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.usb4java.Device;
+import org.usb4java.DeviceDescriptor;
+import org.usb4java.DeviceList;
+import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
+
+import com.alchitry.labs.Util;
+import com.alchitry.labs.hardware.usb.UsbUtil.DeviceEntry;
+import com.alchitry.labs.hardware.usb.UsbUtil.UsbDescriptor;
+import com.alchitry.labs.hardware.usb.ftdi.Ftdi;
+import com.alchitry.labs.hardware.usb.ftdi.Jtag;
+import com.alchitry.labs.hardware.usb.ftdi.LatticeSpi;
+import com.alchitry.labs.hardware.usb.ftdi.Mpsse;
+import com.alchitry.labs.hardware.usb.ftdi.enums.PortInterfaceType;
+
+/*
+ * Keeps boards open between operations so loading, capturing, and loading again doesn't enumerate,
+ * claim, and set up the MPSSE every time. Each open interface of a board is a session and only one
+ * lease on a session can be out at a time. The MPSSE is only set up again when a lease asks for a
+ * different mode than the last one (JTAG vs SPI). Sessions are closed when their board is unplugged,
+ * when a lease is discarded after an error, or after being idle for IDLE_TIMEOUT so the serial ports
+ * are given back to the OS. While a session is open its interface stays claimed so other programs
+ * (Vivado's hw_server, openFPGALoader, another copy of Labs) can't open the board. Tools > Release
+ * Boards calls closeAll() to give them back right away. The Mojo is closed as soon as its lease is
+ * released since the loader resets it through its own connection.
+ */
+public class DeviceSessions {
+	private static final long IDLE_TIMEOUT = 60000; // ms
+	private static final long IDLE_CHECK = 5000; // ms
+
+	private static final HashMap<String, Session> sessions = new HashMap<>();
+	private static Thread reaper;
+
+	private static class Session {
+		final String key;
+		final int bus;
+		final int address;
+		final UsbDescriptor description;
+		final UsbSerial device;
+		Mpsse mpsse; // the mode the interface was last set up for, null for serial
+		Lease lease;
+		int leases; // number of times the session was leased
+		long lastUsed;
+
+		Session(String key, int bus, int address, UsbDescriptor description, UsbSerial device) {
+			this.key = key;
+			this.bus = bus;
+			this.address = address;
+			this.description = description;
+			this.device = device;
+		}
+	}
+
+	public static class Lease {
+		private Session session;
+
+		private Lease(Session session) {
+			this.session = session;
+		}
+
+		public UsbDescriptor getDescription() {
+			return session.description;
+		}
+
+		public UsbSerial getSerial() {
+			return session.device;
+		}
+
+		public Ftdi getFtdi() {
+			return (Ftdi) session.device;
+		}
+
+		// the interface set up for JTAG, only initialized if it wasn't already in JTAG mode
+		public Jtag getJtag() {
+			if (!(session.mpsse instanceof Jtag)) {
+				session.mpsse = null;
+				Jtag jtag = new Jtag(getFtdi());
+				jtag.init();
+				session.mpsse = jtag;
+			}
+			return (Jtag) session.mpsse;
+		}
+
+		// the interface set up for SPI, only initialized if it wasn't already in SPI mode
+		public LatticeSpi getSpi() {
+			if (!(session.mpsse instanceof LatticeSpi)) {
+				session.mpsse = null;
+				session.mpsse = new LatticeSpi(getFtdi());
+			}
+			return (LatticeSpi) session.mpsse;
+		}
+
+		// gives the board back so the next lease can reuse it
+		public void release() {
+			DeviceSessions.release(this, false);
+		}
+
+		// gives the board back and closes it, use this after an error so the next lease starts fresh
+		public void discard() {
+			DeviceSessions.release(this, true);
+		}
+	}
+
+	/*
+	 * Leases an interface of one of the boards. If the only attached board of these types already has a
+	 * session it is reused without enumerating. Otherwise the user may be asked to pick a board. The iface
+	 * is ignored for the Mojo. Returns null if no board could be opened.
+	 */
+	public static Lease lease(PortInterfaceType iface, List<UsbDescriptor> boards) {
+		try {
+			Session session = findOnlySession(iface, boards);
+			if (session != null) {
+				Lease lease = take(session);
+				if (lease != null)
+					return lease;
+			}
+
+			// this may ask the user which board to use so it can't hold the lock
+			DeviceEntry dev = UsbUtil.getDevice(boards);
+			if (dev == null)
+				return null;
+			try {
+				return lease(iface, dev);
+			} finally {
+				LibUsb.unrefDevice(dev.device);
+			}
+		} catch (LibUsbException e) {
+			Util.logException(e);
+			return null;
+		}
+	}
+
+	// leases the serial port of one of the boards
+	public static Lease leaseSerial(List<UsbDescriptor> boards) {
+		return lease(PortInterfaceType.INTERFACE_B, boards);
+	}
+
+	// leases an interface of a board that was already found, the caller keeps its reference to dev.device
+	public static Lease lease(PortInterfaceType iface, DeviceEntry dev) {
+		Session session;
+		synchronized (DeviceSessions.class) {
+			int bus = LibUsb.getBusNumber(dev.device);
+			int address = LibUsb.getDeviceAddress(dev.device);
+			String key = getKey(bus, address, dev.description, iface);
+			session = sessions.get(key);
+			if (session == null) {
+				UsbSerial device;
+				try {
+					device = open(iface, dev);
+				} catch (LibUsbException e) {
+					Util.logException(e);
+					return null;
+				}
+				session = new Session(key, bus, address, dev.description, device);
+				session.lastUsed = System.currentTimeMillis();
+				sessions.put(key, session);
+				startReaper();
+			}
+		}
+		Lease lease = take(session);
+		if (lease == null)
+			Util.println("The " + dev.description.name + " is already in use!", true);
+		return lease;
+	}
+
+	// closes every session that isn't leased, call this before exiting
+	public static synchronized void closeAll() {
+		for (Session s : new ArrayList<>(sessions.values()))
+			if (s.lease == null)
+				close(s);
+	}
+
+	private static String getKey(int bus, int address, UsbDescriptor description, PortInterfaceType iface) {
+		if (description == UsbUtil.MOJO_DESC)
+			return bus + "-" + address;
+		return bus + "-" + address + "-" + iface.name();
+	}
+
+	private static UsbSerial open(PortInterfaceType iface, DeviceEntry dev) {
+		UsbSerial device;
+		if (dev.description == UsbUtil.MOJO_DESC) {
+			device = new MojoSerial();
+		} else {
+			Ftdi ftdi = new Ftdi();
+			ftdi.setInterface(iface);
+			device = ftdi;
+		}
+		device.usbOpenDev(dev.device);
+		return device;
+	}
+
+	private static Lease take(Session session) {
+		Lease lease;
+		synchronized (DeviceSessions.class) {
+			if (session.lease != null || sessions.get(session.key) != session)
+				return null;
+			lease = new Lease(session);
+			session.lease = lease;
+			session.leases++;
+		}
+		// a fresh open resets the chip so make reused serial ports look the same
+		if (session.mpsse == null && session.device instanceof Ftdi && session.leases > 1) {
+			try {
+				((Ftdi) session.device).usbPurgeBuffers();
+			} catch (LibUsbException e) {
+				Util.log.severe("Failed to purge " + session.description.name + ": " + e.getMessage());
+				release(lease, true);
+				return null;
+			}
+		}
+		return lease;
+	}
+
+	private static synchronized void release(Lease lease, boolean discard) {
+		Session session = lease.session;
+		if (session == null || session.lease != lease)
+			return;
+		lease.session = null;
+		session.lease = null;
+		session.lastUsed = System.currentTimeMillis();
+		// unplugged sessions are only removed while leased so they are closed here
+		if (discard || session.description == UsbUtil.MOJO_DESC || sessions.get(session.key) != session)
+			close(session);
+	}
+
+	private static void close(Session session) {
+		if (sessions.get(session.key) == session)
+			sessions.remove(session.key);
+		session.mpsse = null;
+		try {
+			session.device.usbClose();
+		} catch (LibUsbException e) {
+			Util.log.severe("Failed to close " + session.description.name + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Closes the sessions of boards that are no longer attached and returns the session for iface of the
+	 * only attached board that matches boards, if it has one. This only lists the devices, nothing is opened.
+	 */
+	private static synchronized Session findOnlySession(PortInterfaceType iface, List<UsbDescriptor> boards) {
+		if (sessions.isEmpty())
+			return null;
+
+		DeviceList list = new DeviceList();
+		int result = LibUsb.getDeviceList(null, list);
+		if (result < 0)
+			throw new LibUsbException("Unable to get device list", result);
+
+		HashSet<String> attached = new HashSet<>();
+		int matches = 0;
+		int bus = 0;
+		int address = 0;
+		try {
+			for (Device dev : list) {
+				int b = LibUsb.getBusNumber(dev);
+				int a = LibUsb.getDeviceAddress(dev);
+				attached.add(b + "-" + a);
+				DeviceDescriptor desc = new DeviceDescriptor();
+				if (LibUsb.getDeviceDescriptor(dev, desc) != LibUsb.SUCCESS)
+					continue;
+				for (UsbDescriptor udes : boards) {
+					if (udes.vid == desc.idVendor() && udes.pid == desc.idProduct()) {
+						matches++;
+						bus = b;
+						address = a;
+						break;
+					}
+				}
+			}
+		} finally {
+			LibUsb.freeDeviceList(list, true);
+		}
+
+		for (Session s : new ArrayList<>(sessions.values())) {
+			if (!attached.contains(s.bus + "-" + s.address)) {
+				Util.log.info(s.description.name + " was unplugged");
+				// a leased device is still in use by another thread, it is closed when released
+				if (s.lease == null)
+					close(s);
+				else
+					sessions.remove(s.key);
+			}
+		}
+
+		if (matches != 1)
+			return null;
+		for (UsbDescriptor udes : boards) {
+			Session s = sessions.get(getKey(bus, address, udes, iface));
+			if (s != null && s.description == udes)
+				return s;
+		}
+		return null;
+	}
+
+	private static synchronized void closeIdle() {
+		long now = System.currentTimeMillis();
+		for (Session s : new ArrayList<>(sessions.values()))
+			if (s.lease == null && now - s.lastUsed > IDLE_TIMEOUT)
+				close(s);
+	}
+
+	private static void startReaper() {
+		if (reaper != null && reaper.isAlive())
+			return;
+		reaper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(IDLE_CHECK);
+					} catch (InterruptedException e) {
+						return;
+					}
+					closeIdle();
+					synchronized (DeviceSessions.class) {
+						if (sessions.isEmpty()) {
+							reaper = null;
+							return;
+						}
+					}
+				}
+			}
+		}, "Device Sessions");
+		reaper.setDaemon(true);
+		reaper.start();
+	}
+}
@@ -19,6 +19,7 @@ import org.usb4java.InterfaceDescriptor;
 import org.usb4java.LibUsb;
 import org.usb4java.LibUsbException;
 import org.usb4java.Transfer;
+import org.usb4java.TransferCallback;
 
 import com.alchitry.labs.Util;
 import com.alchitry.labs.hardware.usb.UsbUtil.DeviceEntry;
@@ -29,6 +30,7 @@ public class UsbDevice {
 	public class TransferControl {
 		public IntBuffer completed = BufferUtils.allocateIntBuffer();
 		public byte[] buf;
+		public ByteBuffer data;
 		public int offset;
 		public UsbDevice usbDev;
 		public Transfer transfer;
@@ -42,6 +44,8 @@ public class UsbDevice {
 	protected int readBufferChunksize;
 	protected int writeBufferChunksize;
 	protected int maxPacketSize;
+	protected final IntBuffer transferred = BufferUtils.allocateIntBuffer(); // reused by every bulk read
+	private byte[] scratch;
 
 	protected int iface;
 	protected byte inEndPoint;
@@ -49,6 +53,20 @@ public class UsbDevice {
 
 	protected DetachMode detachMode;
 
+	protected static final int WRITE_TRANSFERS = 4; // writes in flight for writeDataAsync()
+	private TransferControl[] writeTransfers;
+	private int nextWriteTransfer;
+	private long writeStart, writeBytes; // for getWriteRate()
+	private double writeRate;
+
+	private static final TransferCallback writeCallback = new TransferCallback() {
+		@Override
+		public void processTransfer(Transfer transfer) {
+			TransferControl tc = (TransferControl) transfer.userData();
+			tc.completed.put(0, 1);
+		}
+	};
+
 	public static final ByteBuffer EMPTY_BUF = ByteBuffer.allocateDirect(0);
 
 	public class SizeAndTime {
@@ -276,8 +294,10 @@ public class UsbDevice {
 		strings.manufacture = LibUsb.getStringDescriptor(device, desc.iManufacturer());
 		strings.serial = LibUsb.getStringDescriptor(device, desc.iSerialNumber());
 
-		if (needOpen)
+		if (needOpen) {
 			UsbCloseInternal();
+			device = null;
+		}
 
 		return strings;
 	}
@@ -532,6 +552,7 @@ public class UsbDevice {
 
 	public boolean usbClose() {
 		boolean rtn = true;
+		freeWriteTransfers();
 		if (device != null)
 			if (LibUsb.releaseInterface(device, iface) < 0)
 				rtn = false;
@@ -541,29 +562,165 @@ public class UsbDevice {
 	}
 
 	public int writeData(byte[] data) {
-		int offset = 0;
-		ByteBuffer buf = ByteBuffer.allocateDirect(data.length);
-		buf.put(data);
-		IntBuffer transferred = IntBuffer.allocate(1);
+		return writeData(data, 0, data.length);
+	}
+
+	public int writeData(byte[] data, int offset, int length) {
+		writeDataAsync(data, offset, length);
+		writeDataWait();
+		return length;
+	}
+
+	// writes the remaining bytes of data
+	public int writeData(ByteBuffer data) {
+		int length = data.remaining();
+		writeDataAsync(data);
+		writeDataWait();
+		return length;
+	}
+
+	/*
+	 * Splits data into writeBufferChunksize transfers and submits them without waiting for them to finish.
+	 * The data is copied into the transfers' direct buffers, which are reused, so the array can be reused
+	 * right away and nothing is allocated once the buffers exist. Up to WRITE_TRANSFERS are kept in flight
+	 * and this only blocks when they are all busy. Call writeDataWait() to make sure everything was sent.
+	 */
+	public void writeDataAsync(byte[] data, int offset, int length) {
+		while (length > 0) {
+			int size = Math.min(length, writeBufferChunksize);
+			TransferControl tc = nextWriteTransfer(size);
+			tc.data.put(data, offset, size);
+			submitWrite(tc, size);
+			offset += size;
+			length -= size;
+		}
+	}
 
+	// same as above for the remaining bytes of data, the position is moved to the limit
+	public void writeDataAsync(ByteBuffer data) {
+		int limit = data.limit();
+		try {
+			while (data.hasRemaining()) {
+				int size = Math.min(data.remaining(), writeBufferChunksize);
+				TransferControl tc = nextWriteTransfer(size);
+				data.limit(data.position() + size);
+				tc.data.put(data);
+				data.limit(limit);
+				submitWrite(tc, size);
+			}
+		} finally {
+			data.limit(limit);
+		}
+	}
+
+	// returns a free transfer with an empty buffer that can hold size bytes
+	private TransferControl nextWriteTransfer(int size) {
 		if (device == null)
 			throw new LibUsbException("USB device unavailable", -666);
 
-		while (offset < data.length) {
-			int writeSize = writeBufferChunksize;
+		if (writeTransfers == null) {
+			writeTransfers = new TransferControl[WRITE_TRANSFERS];
+			for (int i = 0; i < writeTransfers.length; i++) {
+				TransferControl tc = new TransferControl();
+				tc.usbDev = this;
+				tc.transfer = LibUsb.allocTransfer();
+				tc.completed.put(0, 1);
+				writeTransfers[i] = tc;
+			}
+			nextWriteTransfer = 0;
+		}
+
+		TransferControl tc = writeTransfers[nextWriteTransfer];
+		waitWriteTransfer(tc);
+		if (tc.data == null || tc.data.capacity() < size)
+			tc.data = ByteBuffer.allocateDirect(Math.max(size, writeBufferChunksize));
+		tc.data.clear();
+		return tc;
+	}
+
+	private void submitWrite(TransferControl tc, int size) {
+		if (writeBytes == 0)
+			writeStart = System.nanoTime();
+
+		tc.offset = size;
+		tc.completed.put(0, 0);
+		LibUsb.fillBulkTransfer(tc.transfer, device, inEndPoint, tc.data, writeCallback, tc, writeTimeout);
+		tc.transfer.setLength(size);
+		int code = LibUsb.submitTransfer(tc.transfer);
+		if (code < 0) {
+			tc.completed.put(0, 1);
+			tc.offset = 0;
+			writeDataCancel();
+			throw new LibUsbException("usb bulk write failed", code);
+		}
+
+		nextWriteTransfer = (nextWriteTransfer + 1) % writeTransfers.length;
+		writeBytes += size;
+	}
+
+	// waits for every write from writeDataAsync() to finish
+	public void writeDataWait() {
+		if (writeTransfers == null)
+			return;
+		for (int i = 0; i < writeTransfers.length; i++)
+			waitWriteTransfer(writeTransfers[(nextWriteTransfer + i) % writeTransfers.length]);
+		if (writeBytes > 0) {
+			double time = (System.nanoTime() - writeStart) / 1e9;
+			if (time > 0)
+				writeRate = writeBytes / time / (1024 * 1024);
+			writeBytes = 0;
+		}
+	}
 
-			if (offset + writeSize > data.length)
-				writeSize = data.length - offset;
+	// MB/s of the last run of async writes
+	public double getWriteRate() {
+		return writeRate;
+	}
 
-			buf.position(offset);
-			int code;
-			if ((code = LibUsb.bulkTransfer(device, inEndPoint, buf, transferred, writeTimeout)) < 0)
-				throw new LibUsbException("usb bulk write failed", code);
+	private void waitWriteTransfer(TransferControl tc) {
+		while (tc.completed.get(0) == 0) {
+			int ret = LibUsb.handleEventsTimeoutCompleted(context, 100000, tc.completed);
+			if (ret < 0 && ret != LibUsb.ERROR_INTERRUPTED) {
+				writeDataCancel();
+				throw new LibUsbException("usb bulk write failed", ret);
+			}
+		}
+		if (tc.offset > 0) {
+			int status = tc.transfer.status();
+			int written = tc.transfer.actualLength();
+			int size = tc.offset;
+			tc.offset = 0;
+			if (status != LibUsb.TRANSFER_COMPLETED || written != size) {
+				writeDataCancel();
+				throw new LibUsbException("usb bulk write failed (status " + status + ", wrote " + written + " of " + size + " bytes)", LibUsb.ERROR_IO);
+			}
+		}
+	}
 
-			offset += transferred.get();
+	// cancels any writes still in flight
+	public void writeDataCancel() {
+		if (writeTransfers == null)
+			return;
+		for (TransferControl tc : writeTransfers)
+			if (tc.completed.get(0) == 0)
+				LibUsb.cancelTransfer(tc.transfer);
+		for (TransferControl tc : writeTransfers) {
+			while (tc.completed.get(0) == 0)
+				if (LibUsb.handleEventsTimeoutCompleted(context, 100000, tc.completed) < 0)
+					break;
+			tc.offset = 0;
 		}
+		writeBytes = 0;
+	}
 
-		return offset;
+	private void freeWriteTransfers() {
+		if (writeTransfers == null)
+			return;
+		writeDataCancel();
+		for (TransferControl tc : writeTransfers)
+			if (tc.completed.get(0) != 0) // a stuck transfer is leaked rather than freed while libusb owns it
+				LibUsb.freeTransfer(tc.transfer);
+		writeTransfers = null;
 	}
 
 	public int transferDataDone(TransferControl tc) {
@@ -613,28 +770,67 @@ public class UsbDevice {
 	}
 
 	public void readDataWithTimeout(byte[] data) {
-		byte[] buffer = new byte[data.length];
-		int reqBytes = data.length;
-		int offset = 0;
+		readDataWithTimeout(data, 0, data.length);
+	}
+
+	public void readDataWithTimeout(byte[] data, int offset, int length) {
+		int end = offset + length;
 		long startTime = System.currentTimeMillis();
-		while (reqBytes > 0) {
-			if (buffer.length != reqBytes)
-				buffer = new byte[reqBytes];
-			int ct = readData(buffer);
-			if (ct > 0) {
-				System.arraycopy(buffer, 0, data, offset, ct);
+		while (offset < end) {
+			int ct = readData(data, offset, end - offset);
+			if (ct > 0)
 				offset += ct;
-				reqBytes -= ct;
-			}
 			if (System.currentTimeMillis() - startTime > readTimeout)
-				throw new LibUsbException("Reading " + data.length + " bytes took longer than 2 seconds!", -1);
+				throw new LibUsbException("Reading " + length + " bytes took longer than 2 seconds!", -1);
+		}
+	}
+
+	// fills the remaining bytes of data
+	public void readDataWithTimeout(ByteBuffer data) {
+		if (data.hasArray()) {
+			readDataWithTimeout(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			data.position(data.limit());
+			return;
+		}
+		byte[] scratch = getScratch();
+		while (data.hasRemaining()) {
+			int ct = Math.min(data.remaining(), scratch.length);
+			readDataWithTimeout(scratch, 0, ct);
+			data.put(scratch, 0, ct);
 		}
 	}
 
 	public int readData(byte[] buf) {
+		return readData(buf, 0, buf.length);
+	}
+
+	// reads up to the remaining bytes of buf and returns how many were read
+	public int readData(ByteBuffer buf) {
+		int ct;
+		if (buf.hasArray()) {
+			ct = readData(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+		} else {
+			byte[] scratch = getScratch();
+			ct = readData(scratch, 0, Math.min(buf.remaining(), scratch.length));
+			if (ct > 0)
+				buf.put(scratch, 0, ct);
+			return ct;
+		}
+		if (ct > 0)
+			buf.position(buf.position() + ct);
+		return ct;
+	}
+
+	// for copying reads into direct buffers
+	private byte[] getScratch() {
+		if (scratch == null || scratch.length < readBufferChunksize)
+			scratch = new byte[readBufferChunksize];
+		return scratch;
+	}
+
+	public int readData(byte[] buf, int bufOffset, int size) {
 		int offset = 0, ret;
 		int packet_size;
-		IntBuffer actual_length_buf = IntBuffer.allocate(1);
 		int actual_length = 1;
 
 		if (device == null)
@@ -646,22 +842,22 @@ public class UsbDevice {
 			throw new LibUsbException("max_packet_size is bogus (zero)", -1);
 
 		// everything we want is still in the readbuffer?
-		if (buf.length <= readBuffer.remaining()) {
-			readBuffer.get(buf);
-			return buf.length;
+		if (size <= readBuffer.remaining()) {
+			readBuffer.get(buf, bufOffset, size);
+			return size;
 		}
 		// something still in the readbuffer, but not enough to satisfy 'size'?
 		if (readBuffer.remaining() != 0) {
 			offset += readBuffer.remaining();
-			readBuffer.get(buf, 0, readBuffer.remaining());
+			readBuffer.get(buf, bufOffset, readBuffer.remaining());
 		}
 		// do the actual USB read
-		while (offset < buf.length && actual_length > 0) {
+		while (offset < size && actual_length > 0) {
 			readBuffer.clear();
 			/* returns how much received */
-			actual_length_buf.clear();
-			ret = LibUsb.bulkTransfer(device, outEndPoint, readBuffer, actual_length_buf, readTimeout);
-			actual_length = actual_length_buf.get();
+			transferred.clear();
+			ret = LibUsb.bulkTransfer(device, outEndPoint, readBuffer, transferred, readTimeout);
+			actual_length = transferred.get();
 			readBuffer.limit(actual_length);
 			if (ret < 0)
 				throw new LibUsbException("usb bulk read failed", ret);
@@ -674,17 +870,17 @@ public class UsbDevice {
 			}
 			if (readBuffer.remaining() > 0) {
 				// data still fits in buf?
-				if (offset + actual_length <= buf.length) {
-					readBuffer.get(buf, offset, actual_length);
+				if (offset + actual_length <= size) {
+					readBuffer.get(buf, bufOffset + offset, actual_length);
 					offset += actual_length;
 
 					/* Did we read exactly the right amount of bytes? */
-					if (offset == buf.length)
+					if (offset == size)
 						return offset;
 				} else {
 					// only copy part of the data or size <= readbuffer_chunksize
-					int part_size = buf.length - offset;
-					readBuffer.get(buf, offset, part_size);
+					int part_size = size - offset;
+					readBuffer.get(buf, bufOffset + offset, part_size);
 					offset += part_size;
 					return offset;
 				}
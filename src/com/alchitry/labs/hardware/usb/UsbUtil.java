@@ -80,21 +80,34 @@ public class UsbUtil {
 		}
 	}
 
+	// every attached device that matches, the list must be freed with UsbDevice.entryListFree()
 	public static List<DeviceEntry> getDevices(List<UsbDescriptor> devices) {
-		return null;
+		return UsbDevice.usbFindAll(devices);
 	}
 
 	public static Ftdi openFtdiDevice(PortInterfaceType iface, List<UsbDescriptor> board) {
+		DeviceEntry dev;
+		try {
+			dev = getDevice(board);
+		} catch (LibUsbException e) {
+			Util.logException(e);
+			return null;
+		}
+		if (dev == null)
+			return null;
+		try {
+			return openFtdiDevice(iface, dev);
+		} finally {
+			LibUsb.unrefDevice(dev.device);
+		}
+	}
+
+	// opens a specific device, the caller still owns the reference to dev.device
+	public static Ftdi openFtdiDevice(PortInterfaceType iface, DeviceEntry dev) {
 		try {
 			Ftdi ftdi = new Ftdi();
 			ftdi.setInterface(iface);
-			DeviceEntry dev = getDevice(board);
-			if (dev == null) {
-				return null;
-			}
 			ftdi.usbOpenDev(dev.device);
-			LibUsb.unrefDevice(dev.device);
-
 			return ftdi;
 		} catch (LibUsbException e) {
 			Util.logException(e);
@@ -1,7 +1,6 @@
 package com.alchitry.labs.hardware.usb.ftdi;
 
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 
 import org.usb4java.Device;
 import org.usb4java.DeviceDescriptor;
@@ -126,6 +125,7 @@ public class Ftdi extends UsbSerial {
 	private boolean bitbangEnabled;
 	private PortInterfaceType interfaceType;
 	private FtdiEeprom eeprom;
+	private byte[] packetBuffer; // for removing the status bytes of multi-packet reads
 
 	/** Invert TXD# */
 	public static final int INVERT_TXD = 0x01;
@@ -319,10 +319,10 @@ public class Ftdi extends UsbSerial {
 		usbPurgeTxBuffer();
 	}
 
-	public int readData(byte[] buf) {
+	@Override
+	public int readData(byte[] buf, int bufOffset, int size) {
 		int offset = 0, ret, i, num_of_chunks, chunk_remains;
 		int packet_size;
-		IntBuffer actual_length_buf = IntBuffer.allocate(1);
 		int actual_length = 1;
 
 		if (device == null)
@@ -334,22 +334,22 @@ public class Ftdi extends UsbSerial {
 			throw new LibUsbException("max_packet_size is bogus (zero)", -1);
 
 		// everything we want is still in the readbuffer?
-		if (buf.length <= readBuffer.remaining()) {
-			readBuffer.get(buf);
-			return buf.length;
+		if (size <= readBuffer.remaining()) {
+			readBuffer.get(buf, bufOffset, size);
+			return size;
 		}
 		// something still in the readbuffer, but not enough to satisfy 'size'?
 		if (readBuffer.remaining() != 0) {
 			offset += readBuffer.remaining();
-			readBuffer.get(buf, 0, readBuffer.remaining());
+			readBuffer.get(buf, bufOffset, readBuffer.remaining());
 		}
 		// do the actual USB read
-		while (offset < buf.length && actual_length > 0) {
+		while (offset < size && actual_length > 0) {
 			readBuffer.clear();
 			/* returns how much received */
-			actual_length_buf.clear();
-			ret = LibUsb.bulkTransfer(device, outEndPoint, readBuffer, actual_length_buf, readTimeout);
-			actual_length = actual_length_buf.get();
+			transferred.clear();
+			ret = LibUsb.bulkTransfer(device, outEndPoint, readBuffer, transferred, readTimeout);
+			actual_length = transferred.get();
 			readBuffer.limit(actual_length);
 			if (ret < 0)
 				throw new LibUsbException("usb bulk read failed", ret);
@@ -364,8 +364,10 @@ public class Ftdi extends UsbSerial {
 				actual_length -= 2;
 
 				if (actual_length > packet_size - 2) {
-					byte[] buffer = new byte[readBuffer.remaining()];
-					readBuffer.get(buffer);
+					if (packetBuffer == null || packetBuffer.length < readBuffer.remaining())
+						packetBuffer = new byte[readBuffer.capacity()];
+					byte[] buffer = packetBuffer;
+					readBuffer.get(buffer, 0, readBuffer.remaining());
 					for (i = 1; i < num_of_chunks; i++)
 						System.arraycopy(buffer, packet_size * i, buffer, (packet_size - 2) * i, packet_size - 2);
 					if (chunk_remains > 2) {
@@ -387,17 +389,17 @@ public class Ftdi extends UsbSerial {
 			}
 			if (readBuffer.remaining() > 0) {
 				// data still fits in buf?
-				if (offset + actual_length <= buf.length) {
-					readBuffer.get(buf, offset, actual_length);
+				if (offset + actual_length <= size) {
+					readBuffer.get(buf, bufOffset + offset, actual_length);
 					offset += actual_length;
 
 					/* Did we read exactly the right amount of bytes? */
-					if (offset == buf.length)
+					if (offset == size)
 						return offset;
 				} else {
 					// only copy part of the data or size <= readbuffer_chunksize
-					int part_size = buf.length - offset;
-					readBuffer.get(buf, offset, part_size);
+					int part_size = size - offset;
+					readBuffer.get(buf, bufOffset + offset, part_size);
 					offset += part_size;
 					return offset;
 				}
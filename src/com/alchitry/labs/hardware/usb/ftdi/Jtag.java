@@ -15,19 +15,20 @@ public class Jtag extends Mpsse {
 	public void init() {
 		super.init();
 		configJtag();
+		flush();
 	}
 
 	private void configJtag() {
 		// Set up the Hi-Speed specific commands for the FTx232H
-		ftdi.writeData(new byte[] { MpsseCommand.TCK_X5.getCommand(), MpsseCommand.DIS_ADPT_CLK.getCommand(), MpsseCommand.DIS_3PH_CLK.getCommand() });
+		queue(MpsseCommand.TCK_X5.getCommand(), MpsseCommand.DIS_ADPT_CLK.getCommand(), MpsseCommand.DIS_3PH_CLK.getCommand());
 		// Set initial states of the MPSSE interface - low byte, both pin directions and output values
-		ftdi.writeData(new byte[] { MpsseCommand.SETB_LOW.getCommand(), (byte) 0x08, (byte) 0x0B });
+		queue(MpsseCommand.SETB_LOW.getCommand(), (byte) 0x08, (byte) 0x0B);
 		// Set initial states of the MPSSE interface - high byte, both pin directions and output values
-		ftdi.writeData(new byte[] { MpsseCommand.SETB_HIGH.getCommand(), (byte) 0x00, (byte) 0x00 });
+		queue(MpsseCommand.SETB_HIGH.getCommand(), (byte) 0x00, (byte) 0x00);
 		// Set default frequency
 		setFreq(1000000);
 		// Disable internal loop-back
-		ftdi.writeData(new byte[] { MpsseCommand.LOOPBACK_DIS.getCommand() });
+		queue(MpsseCommand.LOOPBACK_DIS.getCommand());
 	}
 
 	public void resetState() {
@@ -40,10 +41,10 @@ public class Jtag extends Mpsse {
 
 		if (transistions.moves > 0) {
 			if (transistions.moves < 8) {
-				ftdi.writeData(new byte[] { (byte) 0x4B, (byte) (transistions.moves - 1), (byte) (0x7F & transistions.tms) });
+				queue((byte) 0x4B, (byte) (transistions.moves - 1), (byte) (0x7F & transistions.tms));
 			} else {
-				ftdi.writeData(new byte[] { (byte) 0x4B, (byte) 6, (byte) (0x7F & transistions.tms) });
-				ftdi.writeData(new byte[] { (byte) 0x4B, (byte) (transistions.moves - 8), (byte) (0x7F & (transistions.tms >> 7)) });
+				queue((byte) 0x4B, (byte) 6, (byte) (0x7F & transistions.tms));
+				queue((byte) 0x4B, (byte) (transistions.moves - 8), (byte) (0x7F & (transistions.tms >> 7)));
 			}
 		}
 		currentState = state;
@@ -62,9 +63,6 @@ public class Jtag extends Mpsse {
 
 		int reqBytes = bitCount / 8 + ((bitCount % 8 > 0) ? 1 : 0);
 		boolean read = tdo != null;
-		if (read) {
-			ftdi.readData(tdo);
-		}
 		int tdoBytes = 0;
 
 		if (read && (tdo.length != tdi.length))
@@ -72,13 +70,12 @@ public class Jtag extends Mpsse {
 
 		if (bitCount < 9) {
 			if (bitCount > 1)
-				ftdi.writeData(new byte[] { (byte) (read ? 0x3B : 0x1B), (byte) (bitCount - 2), tdi[0] });
+				queue(new byte[] { (byte) (read ? 0x3B : 0x1B), (byte) (bitCount - 2), tdi[0] }, read ? 1 : 0);
 			byte lastBit = (byte) ((tdi[0] >>> ((bitCount - 1) % 8)) & 0x01);
-			ftdi.writeData(new byte[] { (byte) (read ? 0x6E : 0x4B), 0x00, (byte) (0x03 | (lastBit << 7)) });
+			queue(new byte[] { (byte) (read ? 0x6E : 0x4B), 0x00, (byte) (0x03 | (lastBit << 7)) }, read ? 1 : 0);
 
 			if (read) {
-				byte[] inputBuffer = new byte[bitCount > 1 ? 2 : 1];
-				ftdi.readDataWithTimeout(inputBuffer);
+				byte[] inputBuffer = read();
 				tdo[0] = (byte) (inputBuffer[inputBuffer.length - 1] >>> (8 - bitCount));
 				tdoBytes = 1;
 			}
@@ -96,36 +93,37 @@ public class Jtag extends Mpsse {
 				writeBuffer[1] = (byte) ((bct - 1) & 0xff);
 				writeBuffer[2] = (byte) (((bct - 1) >> 8) & 0xff);
 				System.arraycopy(tdi, offset, writeBuffer, 3, bct);
-				if (ftdi.writeData(writeBuffer) != writeBuffer.length)
-					throw new MpsseException("failed to write entire buffer");
+				queue(writeBuffer, read ? bct : 0);
 				remBytes -= bct;
 				offset += bct;
 
-				if (read) {
-					byte[] readBuffer = new byte[bct];
-					ftdi.readDataWithTimeout(readBuffer);
-					System.arraycopy(readBuffer, 0, tdo, tdoBytes, bct);
-					tdoBytes += bct;
+				// the last chunk is read with the final bits
+				if (read && remBytes > 0) {
+					byte[] readBuffer = read();
+					System.arraycopy(readBuffer, 0, tdo, tdoBytes, readBuffer.length);
+					tdoBytes += readBuffer.length;
 				}
 			}
 
 			int partialBits = bitCount - 1 - (fullBytes * 8);
 
 			if (fullBytes * 8 + 1 != bitCount) {
-				ftdi.writeData(new byte[] { (byte) (read ? 0x3B : 0x1B), (byte) (partialBits - 1), tdi[reqBytes - 1] });
+				queue(new byte[] { (byte) (read ? 0x3B : 0x1B), (byte) (partialBits - 1), tdi[reqBytes - 1] }, read ? 1 : 0);
 			}
 
 			byte lastBit = (byte) ((tdi[reqBytes - 1] >> ((bitCount - 1) % 8)) & 0x01);
-			ftdi.writeData(new byte[] { (byte) (read ? 0x6E : 0x4B), (byte) 0, (byte) (0x03 | (lastBit << 7)) });
+			queue(new byte[] { (byte) (read ? 0x6E : 0x4B), (byte) 0, (byte) (0x03 | (lastBit << 7)) }, read ? 1 : 0);
 
 			if (read) {
 				int bytesToRead = (fullBytes * 8 + 1 != bitCount) ? 2 : 1;
-				byte[] readBuffer = new byte[bytesToRead];
-				ftdi.readDataWithTimeout(readBuffer);
+				byte[] readBuffer = read();
+				int chunkBytes = readBuffer.length - bytesToRead;
+				System.arraycopy(readBuffer, 0, tdo, tdoBytes, chunkBytes);
+				tdoBytes += chunkBytes;
 				if (bytesToRead == 2)
-					tdo[tdoBytes] = (byte) (readBuffer[1] >>> (8 - (partialBits + 1)));
+					tdo[tdoBytes] = (byte) (readBuffer[chunkBytes + 1] >>> (8 - (partialBits + 1)));
 				else
-					tdo[tdoBytes] = (byte) (readBuffer[0] >>> (8 - partialBits));
+					tdo[tdoBytes] = (byte) (readBuffer[chunkBytes] >>> (8 - partialBits));
 			}
 		}
 
@@ -169,7 +167,7 @@ public class Jtag extends Mpsse {
 			cycles = 65536 * 8;
 		}
 		cycles /= 8;
-		ftdi.writeData(new byte[] { MpsseCommand.CLK_N8.getCommand(), (byte) ((cycles - 1) & 0xff), (byte) ((cycles - 1 >> 8) & 0xff) });
+		queue(MpsseCommand.CLK_N8.getCommand(), (byte) ((cycles - 1) & 0xff), (byte) ((cycles - 1 >> 8) & 0xff));
 	}
 
 	public void shiftDRWithCheck(int bits, String write, String read, String mask) {
@@ -3,6 +3,7 @@ package com.alchitry.labs.hardware.usb.ftdi;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.zip.CRC32;
 
 import com.alchitry.labs.Util;
 import com.alchitry.labs.gui.Theme;
@@ -18,6 +19,16 @@ public class LatticeSpi extends Mpsse {
 	private static final byte DATA_BITS = (byte) 0x02; /* When set count bits not bytes */
 	private static final byte DATA_OCN = (byte) 0x01; /* When set update data on negative clock edge */
 
+	private static final int SPI_FREQ = 30000000;
+	private static final int PAGE_SIZE = 256;
+	private static final int PAGE_BATCH = 32; // pages sent before their status is checked
+	private static final int MIN_PROGRAM_DELAY = 700; // us, typical page program time
+	private static final int MAX_PROGRAM_DELAY = 3000; // us, max page program time
+	private static final int POLL_READS = 8; // status reads per round trip in flashWait()
+	private static final int POLL_DELAY = 50; // us between status reads
+	private static final int SECTOR_SIZE = 0x10000;
+	private static final int READ_CHUNK = 4096; // bytes read per round trip, the size of the FTDI's TX buffer
+
 	public LatticeSpi(Ftdi ftdi) {
 		super(ftdi);
 		init();
@@ -27,69 +38,63 @@ public class LatticeSpi extends Mpsse {
 	public void init() {
 		super.init();
 		configSpi();
+		flush();
 	}
 
 	private void configSpi() {
 		// Set up the Hi-Speed specific commands for the FTx232H
-		ftdi.writeData(new byte[] { MpsseCommand.TCK_X5.getCommand(), MpsseCommand.DIS_ADPT_CLK.getCommand(), MpsseCommand.DIS_3PH_CLK.getCommand() });
+		queue(MpsseCommand.TCK_X5.getCommand(), MpsseCommand.DIS_ADPT_CLK.getCommand(), MpsseCommand.DIS_3PH_CLK.getCommand());
 		// Set initial states of the MPSSE interface - low byte, both pin directions and output values
-		ftdi.writeData(new byte[] { MpsseCommand.SETB_LOW.getCommand(), (byte) 0x00, (byte) 0xBB });
+		queue(MpsseCommand.SETB_LOW.getCommand(), (byte) 0x00, (byte) 0xBB);
 		// Set initial states of the MPSSE interface - high byte, both pin directions and output values
-		ftdi.writeData(new byte[] { MpsseCommand.SETB_HIGH.getCommand(), (byte) 0x00, (byte) 0x00 });
+		queue(MpsseCommand.SETB_HIGH.getCommand(), (byte) 0x00, (byte) 0x00);
 		// Set default frequency
-		setFreq(30000000);
+		setFreq(SPI_FREQ);
 		// Disable internal loop-back
-		ftdi.writeData(new byte[] { MpsseCommand.LOOPBACK_DIS.getCommand() });
-	}
-
-	private byte rxByte() {
-		byte[] buf = new byte[1];
-		ftdi.readDataWithTimeout(buf);
-		return buf[0];
-	}
-
-	private void txByte(byte b) {
-		byte[] buf = new byte[1];
-		buf[0] = b;
-		if (ftdi.writeData(buf) != 1)
-			throw new MpsseException("Failed to write single byte");
+		queue(MpsseCommand.LOOPBACK_DIS.getCommand());
 	}
 
 	private void sendSpi(byte[] data) {
-		byte[] buf = new byte[3];
-		buf[0] = DATA_OUT | DATA_OCN;
-		buf[1] = (byte) ((data.length - 1) & 0xff);
-		buf[2] = (byte) (((data.length - 1) >>> 8) & 0xff);
-		ftdi.writeData(buf);
+		sendSpi(data, 0, data.length);
+	}
 
-		if (ftdi.writeData(data) != data.length)
-			throw new MpsseException("Failed to write full chunk!");
+	private void sendSpi(byte[] data, int offset, int length) {
+		queue((byte) (DATA_OUT | DATA_OCN), (byte) ((length - 1) & 0xff), (byte) (((length - 1) >>> 8) & 0xff));
+		queue(data, offset, length, 0);
 	}
 
 	private void xferSpi(byte[] data) {
-		byte[] buf = new byte[3];
-		buf[0] = DATA_IN | DATA_OUT | DATA_OCN;
-		buf[1] = (byte) ((data.length - 1) & 0xff);
-		buf[2] = (byte) (((data.length - 1) >>> 8) & 0xff);
-		ftdi.writeData(buf);
+		queue((byte) (DATA_IN | DATA_OUT | DATA_OCN), (byte) ((data.length - 1) & 0xff), (byte) (((data.length - 1) >>> 8) & 0xff));
+		queue(data, data.length);
 
-		if (ftdi.writeData(data) != data.length)
-			throw new MpsseException("Failed to write full chunk!");
-
-		ftdi.readDataWithTimeout(data);
+		byte[] read = read();
+		System.arraycopy(read, 0, data, 0, data.length);
 	}
 
 	private byte xferSpiBits(byte data, int n) {
 		if (n < 1)
 			return 0;
 
-		byte[] buf = new byte[3];
-		buf[0] = DATA_IN | DATA_OUT | DATA_OCN | DATA_BITS;
-		buf[1] = (byte) (n - 1);
-		buf[2] = data;
-		ftdi.writeData(buf);
+		queue(new byte[] { DATA_IN | DATA_OUT | DATA_OCN | DATA_BITS, (byte) (n - 1), data }, 1);
+		return read()[0];
+	}
+
+	// clocks with the flash deselected so the MPSSE waits without a round trip
+	private void queueDelay(int us) {
+		long bytes = ((long) us * (SPI_FREQ / 1000000) + 7) / 8;
+		while (bytes > 0) {
+			int ct = (int) Math.min(bytes, 65536);
+			queue(MpsseCommand.CLK_N8.getCommand(), (byte) ((ct - 1) & 0xff), (byte) (((ct - 1) >>> 8) & 0xff));
+			bytes -= ct;
+		}
+	}
 
-		return rxByte();
+	// queues a status register read, the command byte and the status are returned by read()
+	private void queueReadStatus() {
+		flashChipSelect();
+		queue((byte) (DATA_IN | DATA_OUT | DATA_OCN), (byte) 1, (byte) 0);
+		queue(new byte[] { FlashCommand.RSR1.getCommand(), 0 }, 2);
+		flashChipDeselect();
 	}
 
 	private void setGpio(boolean slaveSel, boolean creset) {
@@ -98,16 +103,12 @@ public class LatticeSpi extends Mpsse {
 			gpio |= 0x10;
 		if (creset)
 			gpio |= 0x80;
-		byte[] buf = new byte[3];
-		buf[0] = MpsseCommand.SETB_LOW.getCommand();
-		buf[1] = gpio;
-		buf[2] = (byte) 0x93;
-		ftdi.writeData(buf);
+		queue(MpsseCommand.SETB_LOW.getCommand(), gpio, (byte) 0x93);
 	}
 
 	public boolean getCdone() {
-		txByte(MpsseCommand.READB_LOW.getCommand());
-		byte data = rxByte();
+		queue(new byte[] { MpsseCommand.READB_LOW.getCommand() }, 1);
+		byte data = read()[0];
 		return (data & 0x40) != 0;
 	}
 
@@ -205,41 +206,104 @@ public class LatticeSpi extends Mpsse {
 		flashChipDeselect();
 	}
 
-	private void flashProg(int addr, byte[] data) {
+	private void flashProg(int addr, byte[] data, int offset, int length) {
 		byte[] cmd = new byte[] { FlashCommand.PP.getCommand(), (byte) (addr >>> 16), (byte) (addr >>> 8), (byte) addr };
 		flashChipSelect();
 		sendSpi(cmd);
-		sendSpi(data);
+		sendSpi(data, offset, length);
 		flashChipDeselect();
 	}
 
-	@SuppressWarnings("unused")
-	private void flashRead(int addr, byte[] data) {
+	/*
+	 * Programs the pages of data in [start, start + length) to the same addresses. Pages that are all 0xFF
+	 * are skipped since the flash is already erased. The page commands are sent in batches so the next
+	 * pages stream over USB while the flash is busy. Each page is followed by a delay and a status read.
+	 * If a status read finds the flash still busy, the pages after it were ignored, so programming waits
+	 * and picks up after that page with a longer delay.
+	 */
+	private void flashProgram(byte[] data, int start, int length) {
+		int end = start + length;
+		int[] pages = new int[(length + PAGE_SIZE - 1) / PAGE_SIZE];
+		int pageCount = 0;
+		for (int offset = start; offset < end; offset += PAGE_SIZE)
+			if (!isBlank(data, offset, Math.min(PAGE_SIZE, end - offset)))
+				pages[pageCount++] = offset;
+
+		int delay = MIN_PROGRAM_DELAY;
+		int page = 0;
+		while (page < pageCount) {
+			int batch = Math.min(PAGE_BATCH, pageCount - page);
+			for (int i = 0; i < batch; i++) {
+				int offset = pages[page + i];
+				flashWriteEnable();
+				flashProg(offset, data, offset, Math.min(PAGE_SIZE, end - offset));
+				queueDelay(delay);
+				queueReadStatus();
+			}
+
+			byte[] status = read();
+			int done = batch;
+			boolean busy = false;
+			for (int i = 0; i < batch; i++) {
+				if ((status[i * 2 + 1] & 0x01) != 0) {
+					done = i + 1;
+					busy = true;
+					break;
+				}
+			}
+			page += done;
+			if (busy) {
+				flashWait();
+				if (done < batch)
+					delay = Math.min(delay * 2, MAX_PROGRAM_DELAY);
+			}
+		}
+	}
+
+	private static boolean isBlank(byte[] data, int offset, int length) {
+		for (int i = offset; i < offset + length; i++)
+			if (data[i] != (byte) 0xFF)
+				return false;
+		return true;
+	}
+
+	// reads length bytes starting at addr into data at offset, in pieces the FTDI can buffer
+	private void flashRead(int addr, byte[] data, int offset, int length) {
 		byte[] cmd = new byte[] { FlashCommand.RD.getCommand(), (byte) (addr >>> 16), (byte) (addr >>> 8), (byte) addr };
 		flashChipSelect();
 		sendSpi(cmd);
-		xferSpi(data);
+		while (length > 0) {
+			int ct = Math.min(length, READ_CHUNK);
+			queue(new byte[] { DATA_IN, (byte) ((ct - 1) & 0xff), (byte) (((ct - 1) >>> 8) & 0xff) }, ct);
+			byte[] read = read();
+			System.arraycopy(read, 0, data, offset, ct);
+			offset += ct;
+			length -= ct;
+		}
 		flashChipDeselect();
 	}
 
+	// waits for three idle status reads in a row, several reads are checked per round trip
 	private void flashWait() {
 		int count = 0;
-		byte[] data = new byte[2];
 		while (true) {
-			data[0] = FlashCommand.RSR1.getCommand();
-			flashChipSelect();
-			xferSpi(data);
-			flashChipDeselect();
-			if ((data[1] & 0x01) == 0) {
-				if (count < 2) {
-					count++;
+			for (int i = 0; i < POLL_READS; i++) {
+				queueDelay(POLL_DELAY);
+				queueReadStatus();
+			}
+			byte[] status = read();
+			boolean idle = false;
+			for (int i = 0; i < POLL_READS; i++) {
+				if ((status[i * 2 + 1] & 0x01) == 0) {
+					idle = true;
+					if (++count > 2)
+						return;
 				} else {
-					break;
+					count = 0;
 				}
-			} else {
-				count = 0;
 			}
-			Util.sleep(1);
+			if (!idle)
+				Util.sleep(1); // long operation like an erase
 		}
 	}
 
@@ -258,6 +322,7 @@ public class LatticeSpi extends Mpsse {
 	public void eraseFlash() {
 		Util.println("Resetting...");
 		flashChipDeselect();
+		flush();
 		Util.sleep(250);
 		Util.println("Erasing...");
 		flashReset();
@@ -268,52 +333,127 @@ public class LatticeSpi extends Mpsse {
 		flashWait();
 		flashPowerDown();
 		flashReleaseReset();
+		flush();
 		Util.sleep(250);
 		Util.println("Done.", Theme.successTextColor);
 	}
 
-	public void writeBin(String binFile) throws IOException {
+	public boolean writeBin(String binFile) throws IOException {
+		return writeBin(binFile, false, false);
+	}
+
+	/*
+	 * When differential is true each 64KB sector is read back first and only sectors that don't already
+	 * match the bin file are erased and programmed. When verify is true the whole image is read back
+	 * after programming and checked against the bin file. Returns false if verify failed.
+	 */
+	public boolean writeBin(String binFile, boolean differential, boolean verify) throws IOException {
 		byte[] binData = Files.readAllBytes(Paths.get(binFile));
 		Util.println("Resetting...");
 		flashChipDeselect();
+		flush();
 		Util.sleep(250);
 		flashReset();
 		flashPowerUp();
 		flashReadId();
 
-		int begin_addr = 0;
-		int end_addr = (binData.length + 0xffff) & ~0xffff;
+		long start = System.nanoTime();
+		int written = binData.length;
+
+		if (differential) {
+			Util.println("Comparing...");
+
+			byte[] sector = new byte[SECTOR_SIZE];
+			int sectors = 0;
+			int changed = 0;
+			written = 0;
+			for (int addr = 0; addr < binData.length; addr += SECTOR_SIZE) {
+				int length = Math.min(SECTOR_SIZE, binData.length - addr);
+				sectors++;
+				flashRead(addr, sector, 0, length);
+				if (matches(binData, addr, sector, length))
+					continue;
+				changed++;
+				written += length;
+				flashWriteEnable();
+				flash64KbSectorErase(addr);
+				flashWait();
+				flashProgram(binData, addr, length);
+			}
 
-		Util.println("Erasing...");
+			Util.println(changed + " of " + sectors + " sectors changed");
+		} else {
+			int begin_addr = 0;
+			int end_addr = (binData.length + 0xffff) & ~0xffff;
 
-		for (int addr = begin_addr; addr < end_addr; addr += 0x10000) {
-			flashWriteEnable();
-			flash64KbSectorErase(addr);
-			flashWait();
+			Util.println("Erasing...");
+
+			for (int addr = begin_addr; addr < end_addr; addr += SECTOR_SIZE) {
+				flashWriteEnable();
+				flash64KbSectorErase(addr);
+				flashWait();
+			}
+
+			Util.println("Programming...");
+			start = System.nanoTime();
+			flashProgram(binData, 0, binData.length);
 		}
 
-		Util.println("Programming...");
-
-		byte[] pageBuf = new byte[256];
-		int offset = 0;
-		while (offset < binData.length) {
-			int ct = Math.min(256, binData.length - offset);
-			if (pageBuf.length != ct)
-				pageBuf = new byte[ct];
-			System.arraycopy(binData, offset, pageBuf, 0, pageBuf.length);
-			flashWriteEnable();
-			flashProg(offset, pageBuf);
-			flashWait();
-			offset += pageBuf.length;
+		double time = (System.nanoTime() - start) / 1e9;
+		Util.println(String.format("Programmed %d KB at %.1f KB/s", written / 1024, written / 1024.0 / time));
+
+		boolean verified = true;
+		if (verify) {
+			Util.println("Verifying...");
+			start = System.nanoTime();
+			int bad = flashVerify(binData);
+			time = (System.nanoTime() - start) / 1e9;
+			if (bad >= 0) {
+				Util.println(String.format("Verify failed! Sector at 0x%06X doesn't match the bin file.", bad), true);
+				verified = false;
+			} else {
+				Util.println(String.format("Verified %d KB at %.1f KB/s", binData.length / 1024, binData.length / 1024.0 / time));
+			}
 		}
 
 		Util.println("Resetting...");
 
 		flashPowerDown();
 		flashReleaseReset();
+		flush();
 		Util.sleep(250);
 
-		Util.println("Done.", Theme.successTextColor);
+		if (verified)
+			Util.println("Done.", Theme.successTextColor);
+		return verified;
+	}
+
+	/*
+	 * Reads the flash back one sector at a time and compares the CRC32 of each sector with the CRC32 of
+	 * the same part of data. Returns the address of the first sector that doesn't match or -1 if they all do.
+	 */
+	private int flashVerify(byte[] data) {
+		byte[] sector = new byte[SECTOR_SIZE];
+		CRC32 expected = new CRC32();
+		CRC32 actual = new CRC32();
+		for (int addr = 0; addr < data.length; addr += SECTOR_SIZE) {
+			int length = Math.min(SECTOR_SIZE, data.length - addr);
+			flashRead(addr, sector, 0, length);
+			expected.reset();
+			expected.update(data, addr, length);
+			actual.reset();
+			actual.update(sector, 0, length);
+			if (expected.getValue() != actual.getValue())
+				return addr;
+		}
+		return -1;
+	}
+
+	private static boolean matches(byte[] data, int offset, byte[] flash, int length) {
+		for (int i = 0; i < length; i++)
+			if (data[offset + i] != flash[i])
+				return false;
+		return true;
 	}
 
 }
@@ -1,11 +1,27 @@
 package com.alchitry.labs.hardware.usb.ftdi;
 
+import java.util.Arrays;
+
 import com.alchitry.labs.hardware.usb.ftdi.enums.BitMode;
 import com.alchitry.labs.hardware.usb.ftdi.enums.MpsseCommand;
 
+/*
+ * Commands are queued and sent to the chip in as few bulk transfers as possible. The queue is sent
+ * when it fills up, when data is needed with read(), or when flush() is called. Writes are asynchronous
+ * so anything that has to reach the chip before a delay or before the device is closed needs a flush().
+ */
 public abstract class Mpsse {
+	private static final int QUEUE_SIZE = 4096; // bigger commands skip the queue
+
 	protected Ftdi ftdi;
 
+	private final byte[] queue = new byte[QUEUE_SIZE + 1]; // room for SEND_IMMEDIATE
+	private int queued; // bytes of commands waiting to be sent
+	private int expected; // bytes the sent and queued commands will send back
+	private byte[] received = new byte[64];
+	private int receivedCount;
+	private boolean stale = true; // the chip may have old data from before init() or an error
+
 	public Mpsse(Ftdi ftdi) {
 		this.ftdi = ftdi;
 	}
@@ -19,6 +35,7 @@ public abstract class Mpsse {
 	}
 
 	public void init() {
+		clearQueue();
 		ftdi.usbReset();
 		ftdi.readDataSetChunkSize(16384);
 		ftdi.writeDataSetChunksize(16384);
@@ -60,7 +77,100 @@ public abstract class Mpsse {
 	public void setFreq(double freq) {
 		int clockDivisor = (int) (30.0 / (freq / 1000000.0) - 1.0);
 		// set TCK = 60MHz /((1 + [(1 +0xValueH*256) OR 0xValueL])*2)
-		ftdi.writeData(new byte[] { MpsseCommand.SET_CLK_DIV.getCommand(), (byte) (clockDivisor & 0xff), (byte) ((clockDivisor >>> 8) & 0xff) });
+		queue(MpsseCommand.SET_CLK_DIV.getCommand(), (byte) (clockDivisor & 0xff), (byte) ((clockDivisor >>> 8) & 0xff));
+	}
+
+	protected void queue(byte... cmd) {
+		queue(cmd, 0, cmd.length, 0);
+	}
+
+	// queues a command that sends back reads bytes, the data is returned by read()
+	protected void queue(byte[] cmd, int reads) {
+		queue(cmd, 0, cmd.length, reads);
+	}
+
+	protected void queue(byte[] cmd, int offset, int length, int reads) {
+		if (reads > 0 && stale && expected == 0) {
+			writeQueue();
+			ftdi.flushReadBuffer();
+			stale = false;
+		}
+		// commands can be split between writes but SEND_IMMEDIATE can't go in the middle of one
+		if (queued + length > QUEUE_SIZE)
+			writeQueue();
+		if (length > QUEUE_SIZE) {
+			expected += reads;
+			write(cmd, offset, length);
+		} else {
+			System.arraycopy(cmd, offset, queue, queued, length);
+			queued += length;
+			expected += reads;
+		}
+	}
+
+	// sends all queued commands, collects the data they send back, and waits for the writes to finish
+	public void flush() {
+		send();
+		try {
+			ftdi.writeDataWait();
+		} catch (RuntimeException e) {
+			clearQueue();
+			throw e;
+		}
+	}
+
+	// sends all queued commands and returns the data read since the last call
+	protected byte[] read() {
+		send();
+		byte[] data = Arrays.copyOf(received, receivedCount);
+		receivedCount = 0;
+		return data;
+	}
+
+	private void send() {
+		if (queued == 0 && expected == 0)
+			return;
+		if (expected > 0)
+			queue[queued++] = MpsseCommand.FLUSH.getCommand(); // SEND_IMMEDIATE so we don't wait on the latency timer
+		writeQueue();
+		try {
+			if (expected > 0) {
+				ftdi.writeDataWait();
+				if (receivedCount + expected > received.length)
+					received = Arrays.copyOf(received, Math.max(received.length * 2, receivedCount + expected));
+				ftdi.readDataWithTimeout(received, receivedCount, expected);
+				receivedCount += expected;
+				expected = 0;
+			}
+		} catch (RuntimeException e) {
+			clearQueue();
+			throw e;
+		}
+	}
+
+	private void writeQueue() {
+		if (queued == 0)
+			return;
+		int length = queued;
+		queued = 0;
+		write(queue, 0, length);
+	}
+
+	// the data is copied by writeDataAsync() so big commands stream while the next one is built
+	private void write(byte[] data, int offset, int length) {
+		try {
+			ftdi.writeDataAsync(data, offset, length);
+		} catch (RuntimeException e) {
+			clearQueue();
+			throw e;
+		}
+	}
+
+	private void clearQueue() {
+		queued = 0;
+		expected = 0;
+		receivedCount = 0;
+		stale = true;
 	}
 
 }
@@ -11,6 +11,15 @@ import com.alchitry.labs.gui.Theme;
 
 public class XilinxJtag {
 	private static final String LOADER_FILE = "/fpga/au_loader.bin";
+	private static final byte IR_DONE = 0x20; // DONE bit of the captured IR
+	private static final int CLEAR_TIMEOUT = 1000; // ms to wait for DONE to drop after JPROGRAM
+	private static final int CONFIG_TIMEOUT = 5000; // ms to wait for the FPGA to configure from flash
+
+	// configuration packets, see UG470
+	private static final int SYNC_WORD = 0xAA995566;
+	private static final int NOOP = 0x20000000;
+	private static final int REG_AXSS = 0x0D; // USR_ACCESS
+	private static final int READ_AXSS = 0x28000001 | (REG_AXSS << 13);
 
 	public enum Instruction {
 		EXTEST((byte) 0x26), EXTEST_PULSE((byte) 0x3C), EXTEST_TRAIN((byte) 0x3D), SAMPLE((byte) 0x01), USER1((byte) 0x02), USER2((byte) 0x03), USER3((byte) 0x22), USER4(
@@ -39,6 +48,13 @@ public class XilinxJtag {
 		jtag.resetState();
 	}
 
+	// uses a Jtag that was already initialized on ftdi
+	public XilinxJtag(Ftdi ftdi, Jtag jtag) {
+		this.ftdi = ftdi;
+		this.jtag = jtag;
+		jtag.resetState();
+	}
+
 	public void setIR(Instruction inst) {
 		jtag.shiftIR(6, new byte[] { inst.getCode() });
 	}
@@ -56,6 +72,10 @@ public class XilinxJtag {
 		return b;
 	}
 
+	private void printRate(int bytes) {
+		Util.println(String.format("Sent %d KB at %.2f MB/s", bytes / 1024, ftdi.getWriteRate()));
+	}
+
 	private void loadBridge() throws IOException {
 		InputStream in = getClass().getResourceAsStream(LOADER_FILE);
 		ByteArrayOutputStream os = new ByteArrayOutputStream();
@@ -86,6 +106,7 @@ public class XilinxJtag {
 		jtag.navitageToState(JtagState.RUN_TEST_IDLE);
 		setIR(Instruction.JPROGRAM);
 		setIR(Instruction.ISC_NOOP);
+		jtag.flush();
 		try {
 			Thread.sleep(100);
 		} catch (InterruptedException e) {
@@ -98,6 +119,8 @@ public class XilinxJtag {
 		// config/slr
 		setIR(Instruction.CFG_IN);
 		jtag.shiftDR(binData.length * 8, binData);
+		jtag.flush();
+		printRate(binData.length);
 
 		// config/start
 		jtag.navitageToState(JtagState.RUN_TEST_IDLE);
@@ -107,6 +130,7 @@ public class XilinxJtag {
 		jtag.sendClocks(100);
 		jtag.shiftIRWithCheck(6, "09", "31", "11");
 		jtag.navitageToState(JtagState.TEST_LOGIC_RESET);
+		jtag.flush();
 	}
 
 	private void erase() throws IOException {
@@ -116,6 +140,7 @@ public class XilinxJtag {
 		jtag.setFreq(1500000);
 		setIR(Instruction.USER1);
 		jtag.shiftDR(1, new byte[] { 0 });
+		jtag.flush();
 		try {
 			Thread.sleep(100);
 		} catch (InterruptedException e) {
@@ -127,29 +152,155 @@ public class XilinxJtag {
 		erase();
 		setIR(Instruction.JPROGRAM); // reset the FPGA
 		jtag.resetState();
+		jtag.flush();
 		Util.println("Done.", Theme.successTextColor);
 	}
 
-	public void writeBin(String binFile, boolean flash) throws IOException {
+	// true once the DONE bit of the captured IR matches done or false if it doesn't within timeout ms
+	private boolean waitForDone(boolean done, int timeout) {
+		byte[] ir = new byte[1];
+		long start = System.currentTimeMillis();
+		while (true) {
+			jtag.shiftIR(6, new byte[] { Instruction.BYPASS.getCode() }, ir);
+			if (((ir[0] & IR_DONE) != 0) == done)
+				return true;
+			if (System.currentTimeMillis() - start > timeout)
+				return false;
+			Util.sleep(10);
+		}
+	}
+
+	// configuration words are sent MSB first
+	private byte[] toConfigBytes(int... words) {
+		byte[] data = new byte[words.length * 4];
+		for (int i = 0; i < words.length; i++)
+			for (int b = 0; b < 4; b++)
+				data[i * 4 + b] = reverse((byte) (words[i] >>> (24 - b * 8)));
+		return data;
+	}
+
+	// reads the USR_ACCESS value the FPGA loaded from its bitstream
+	private int readUsrAccess() {
+		jtag.resetState();
+		jtag.navitageToState(JtagState.RUN_TEST_IDLE);
+		setIR(Instruction.CFG_IN);
+		byte[] packets = toConfigBytes(SYNC_WORD, NOOP, READ_AXSS, NOOP, NOOP);
+		jtag.shiftDR(packets.length * 8, packets);
+		setIR(Instruction.CFG_OUT);
+		byte[] data = new byte[4];
+		jtag.shiftDR(32, new byte[4], data);
+		jtag.resetState();
+		jtag.flush();
+
+		int value = 0;
+		for (int b = 0; b < 4; b++)
+			value = (value << 8) | (reverse(data[b]) & 0xff);
+		return value;
+	}
+
+	// walks the packets of the bitstream and returns the value it writes to USR_ACCESS or null if it doesn't
+	private static Integer getUsrAccess(byte[] binData) {
+		int i = 0;
+		for (; i + 4 <= binData.length; i++)
+			if (getWord(binData, i) == SYNC_WORD)
+				break;
+
+		for (i += 4; i + 4 <= binData.length;) {
+			int header = getWord(binData, i);
+			i += 4;
+			int count;
+			if (header >>> 29 == 1) {
+				count = header & 0x7FF;
+				if (((header >>> 27) & 0x3) == 2 && ((header >>> 13) & 0x1F) == REG_AXSS && count == 1 && i + 4 <= binData.length)
+					return getWord(binData, i);
+			} else if (header >>> 29 == 2) {
+				count = header & 0x7FFFFFF;
+			} else {
+				return null;
+			}
+			if (count > (binData.length - i) / 4)
+				return null;
+			i += count * 4;
+		}
+		return null;
+	}
+
+	private static int getWord(byte[] data, int offset) {
+		return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+	}
+
+	/*
+	 * Has the FPGA configure itself from the flash and checks that it loaded the image that was just
+	 * written. The bridge can't read the flash back so the image is identified by its USR_ACCESS value,
+	 * which Labs sets to the build time. The FPGA only goes DONE if the CRC of the image checks out.
+	 * Returns false if verify failed or the bin has no USR_ACCESS value to check against.
+	 */
+	private boolean verifyFlash(byte[] binData) {
+		Util.println("Verifying...");
+		long start = System.nanoTime();
+		setIR(Instruction.JPROGRAM);
+		jtag.flush();
+		if (!waitForDone(false, CLEAR_TIMEOUT)) {
+			Util.println("Verify failed! The FPGA didn't start configuring after being reset.", true);
+			return false;
+		}
+		if (!waitForDone(true, CONFIG_TIMEOUT)) {
+			Util.println("Verify failed! The FPGA didn't configure from the flash.", true);
+			return false;
+		}
+
+		Integer expected = getUsrAccess(binData);
+		if (expected == null) {
+			Util.println("Verify failed! The bin doesn't set USR_ACCESS so the image in the flash can't be checked. Rebuild the project to add it.", true);
+			return false;
+		}
+		int loaded = readUsrAccess();
+		if (loaded != expected) {
+			Util.println(String.format("Verify failed! The FPGA loaded an image with USR_ACCESS %08X instead of %08X.", loaded, expected), true);
+			return false;
+		}
+		Util.println(String.format("Verified in %.2f s", (System.nanoTime() - start) / 1e9));
+		return true;
+	}
+
+	public boolean writeBin(String binFile, boolean flash) throws IOException {
+		return writeBin(binFile, flash, false);
+	}
+
+	// returns false if verify failed
+	public boolean writeBin(String binFile, boolean flash, boolean verify) throws IOException {
 		if (flash) {
 			erase(); // configure the FPGA with the bridge and erase the flash
 			Util.println("Writing flash...");
 			setIR(Instruction.USER2);
 			byte[] binData = Files.readAllBytes(Paths.get(binFile));
 			jtag.shiftDR(binData.length * 8, binData);
+			jtag.flush();
+			printRate(binData.length);
 			Util.println("Resetting FPGA...");
 			jtag.resetState();
+			jtag.flush();
 			try {
 				Thread.sleep(100);
 			} catch (InterruptedException e) {
 				Util.logException(e, "Sleep interrupted, don't really care.");
 			}
-			setIR(Instruction.JPROGRAM);
+			if (verify) {
+				if (!verifyFlash(binData)) {
+					jtag.resetState();
+					jtag.flush();
+					return false;
+				}
+			} else {
+				setIR(Instruction.JPROGRAM);
+			}
 		} else {
 			Util.println("Loading bin...");
 			loadBin(binFile);
 		}
 		jtag.resetState();
+		jtag.flush();
 		Util.println("Done.", Theme.successTextColor);
+		return true;
 	}
 }
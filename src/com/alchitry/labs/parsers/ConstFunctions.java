@@ -0,0 +1,144 @@
+package com.alchitry.labs.parsers;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Exact integer math for the Lucid constant functions. Everything that fits in a long is done with
+ * longs and only falls back to BigInteger on overflow. The big results of $pow and $cdiv are cached
+ * since the same parameters get evaluated every time a module is checked.
+ */
+public final class ConstFunctions {
+	private static final int CACHE_SIZE = 256;
+
+	@SuppressWarnings("serial")
+	private static final Map<List<Object>, BigInteger> cache = Collections.synchronizedMap(new LinkedHashMap<List<Object>, BigInteger>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, BigInteger> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	});
+
+	private ConstFunctions() {
+	}
+
+	// overflow checks from Math.addExact(), subtractExact(), and multiplyExact() without the exceptions
+	public static boolean addOverflows(long v1, long v2) {
+		long r = v1 + v2;
+		return ((v1 ^ r) & (v2 ^ r)) < 0;
+	}
+
+	public static boolean subtractOverflows(long v1, long v2) {
+		long r = v1 - v2;
+		return ((v1 ^ v2) & (v1 ^ r)) < 0;
+	}
+
+	public static boolean multiplyOverflows(long v1, long v2) {
+		if (((Math.abs(v1) | Math.abs(v2)) >>> 31) == 0)
+			return false;
+		return (v2 != 0 && (v1 * v2) / v2 != v1) || (v1 == Long.MIN_VALUE && v2 == -1);
+	}
+
+	// bits needed to hold v, same as BigInteger.bitLength()
+	public static int bitLength(long v) {
+		return 64 - Long.numberOfLeadingZeros(v < 0 ? ~v : v);
+	}
+
+	// same as new ConstValue(BigInteger.valueOf(v))
+	public static ConstValue number(long v) {
+		int width = Math.max(1, bitLength(v) + (v < 0 ? 1 : 0));
+		ConstValue cv = new ConstValue(v, width);
+		cv.setSigned(v < 0);
+		return cv;
+	}
+
+	// returns the value as an int or throws an ArithmeticException if it doesn't fit
+	public static int intValueExact(ConstValue v) {
+		if (v.fitsLong()) {
+			long l = v.getLong();
+			if ((int) l != l)
+				throw new ArithmeticException("integer overflow");
+			return (int) l;
+		}
+		return v.getBigInt().intValueExact();
+	}
+
+	// ceil(log2(v)), v must be a positive number
+	public static ConstValue clog2(ConstValue v) {
+		if (v.fitsLong())
+			return number(bitLength(v.getLong() - 1));
+		return number(v.getBigInt().subtract(BigInteger.ONE).bitLength());
+	}
+
+	// throws an ArithmeticException if the exponent is negative
+	public static ConstValue pow(ConstValue base, int exponent) {
+		if (exponent < 0)
+			throw new ArithmeticException("Negative exponent");
+
+		if (base.fitsLong()) {
+			long b = base.getLong();
+			long result = 1;
+			int e = exponent;
+			boolean overflow = false;
+			while (e != 0) {
+				if ((e & 1) != 0) {
+					if (multiplyOverflows(result, b)) {
+						overflow = true;
+						break;
+					}
+					result *= b;
+				}
+				e >>>= 1;
+				if (e != 0) {
+					if (multiplyOverflows(b, b)) {
+						overflow = true;
+						break;
+					}
+					b *= b;
+				}
+			}
+			if (!overflow)
+				return number(result);
+		}
+
+		BigInteger b = base.getBigInt();
+		List<Object> key = Arrays.<Object>asList("$pow", b, exponent);
+		BigInteger result = cache.get(key);
+		if (result == null) {
+			result = b.pow(exponent);
+			cache.put(key, result);
+		}
+		return new ConstValue(result);
+	}
+
+	// ceil(v1 / v2), v2 must not be 0
+	public static ConstValue cdiv(ConstValue v1, ConstValue v2) {
+		if (v1.fitsLong() && v2.fitsLong()) {
+			long a = v1.getLong();
+			long b = v2.getLong();
+			if (a != Long.MIN_VALUE || b != -1) {
+				long q = a / b;
+				if (a % b != 0 && (a ^ b) >= 0) // round up positive quotients
+					q++;
+				return number(q);
+			}
+		}
+
+		BigInteger a = v1.getBigInt();
+		BigInteger b = v2.getBigInt();
+		List<Object> key = Arrays.<Object>asList("$cdiv", a, b);
+		BigInteger result = cache.get(key);
+		if (result == null) {
+			BigInteger[] qr = a.divideAndRemainder(b);
+			result = qr[0];
+			if (qr[1].signum() != 0 && qr[1].signum() == b.signum())
+				result = result.add(BigInteger.ONE);
+			cache.put(key, result);
+		}
+		return new ConstValue(result);
+	}
+}
@@ -6,7 +6,6 @@ import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,16 +15,27 @@ import com.alchitry.labs.parsers.lucid.SignalWidth;
 import com.alchitry.labs.parsers.types.Struct;
 import com.alchitry.labs.parsers.types.Struct.Member;
 
+/*
+ * Bits are packed into two planes, value and unknown. Each bit is 00 = B0, 10 = B1, 01 = Bx, 11 = Bz
+ * (value bit then unknown bit) and unknown is null when there are no x or z bits. Arrays are stored
+ * flat with element 0 in the lowest bits, the same order flatten() gives, and dims holds the size of
+ * every dimension starting with the outermost and ending with the width of the elements.
+ */
 public class ConstValue implements Serializable {
 	/**
-	 * 
+	 *
 	 */
-	private static final long serialVersionUID = -4659118146920352487L;
+	private static final long serialVersionUID = 2210862270377158514L;
+	private static final long[] EMPTY = new long[0];
+
 	private boolean isArray;
 	private Struct struct;
 	private HashMap<String, ConstValue> structValues;
-	private ArrayList<BitValue> value;
-	private ArrayList<ConstValue> values;
+	private int width; // total number of bits
+	private long[] value = EMPTY;
+	private long[] unknown;
+	private int[] dims; // only used by arrays
+	private boolean elementsSigned; // signed flag of the values in an array
 	private boolean signed = false;
 
 	public ConstValue() {
@@ -33,9 +43,7 @@ public class ConstValue implements Serializable {
 
 	public ConstValue(boolean isArray) {
 		if (isArray)
-			values = new ArrayList<ConstValue>();
-		else
-			value = new ArrayList<BitValue>();
+			dims = new int[] { 0 };
 		this.isArray = isArray;
 	}
 
@@ -47,20 +55,12 @@ public class ConstValue implements Serializable {
 	public boolean equals(Object o) {
 		if (o instanceof ConstValue) {
 			ConstValue cv = (ConstValue) o;
-			if (cv.signed != signed)
+			if (cv.signed != signed || cv.isArray != isArray || cv.width != width)
 				return false;
-			if (cv.value != null) {
-				if (!cv.value.equals(value))
-					return false;
-			} else if (value != null) {
+			if (isArray && (cv.elementsSigned != elementsSigned || !Arrays.equals(cv.dims, dims)))
 				return false;
-			}
-			if (cv.values != null) {
-				if (!cv.values.equals(values))
-					return false;
-			} else if (values != null) {
+			if (!planeEquals(value, cv.value, width) || !planeEquals(unknown, cv.unknown, width))
 				return false;
-			}
 			if (cv.struct != null) {
 				if (!cv.struct.equals(struct))
 					return false;
@@ -80,8 +80,8 @@ public class ConstValue implements Serializable {
 
 	@Override
 	public int hashCode() {
-		int h1 = value == null ? 0 : value.hashCode();
-		int h2 = values == null ? 0 : values.hashCode();
+		int h1 = planeHash(value, width) * 31 + planeHash(unknown, width);
+		int h2 = dims == null ? 0 : Arrays.hashCode(dims);
 		int h3 = structValues == null ? 0 : structValues.hashCode();
 		int h4 = struct == null ? 0 : struct.hashCode();
 		return (isArray ? 51613846 : 0) ^ h1 ^ h2 ^ h3 ^ h4 ^ (signed ? 135413 : 0);
@@ -93,12 +93,10 @@ public class ConstValue implements Serializable {
 
 	public ConstValue(long val, int w) {
 		this(false);
-		for (int i = 0; i < w; i++) {
-			if ((val & (1 << i)) != 0)
-				value.add(BitValue.B1);
-			else
-				value.add(BitValue.B0);
-		}
+		setWidth(w);
+		for (int i = 0; i < value.length; i++)
+			value[i] = i == 0 ? val : (val < 0 ? -1L : 0);
+		clearAbove(w);
 	}
 
 	public ConstValue(String str) {
@@ -120,28 +118,36 @@ public class ConstValue implements Serializable {
 		isArray = cv.isArray;
 		signed = cv.signed;
 		struct = cv.struct;
-		if (cv.value != null)
-			value = new ArrayList<>(cv.value);
-		if (cv.values != null)
-			values = new ArrayList<>(cv.values);
+		width = cv.width;
+		value = Arrays.copyOf(cv.value, words(width));
+		if (cv.unknown != null)
+			unknown = Arrays.copyOf(cv.unknown, words(width));
+		if (cv.dims != null)
+			dims = cv.dims.clone();
+		elementsSigned = cv.elementsSigned;
 		if (cv.structValues != null)
 			structValues = new HashMap<>(cv.structValues);
 	}
 
 	public ConstValue(List<BitValue> list) {
 		isArray = false;
-		value = new ArrayList<>(list);
+		setWidth(list.size());
+		for (int i = 0; i < width; i++)
+			setBit(i, list.get(i));
 	}
 
 	public ConstValue(BitValue bitValue) {
-		this(false);
-		value.add(bitValue);
+		this(bitValue, 1);
 	}
 
 	public ConstValue(BitValue bitValue, int width) {
 		this(false);
-		for (int i = 0; i < width; i++)
-			value.add(bitValue);
+		setWidth(width);
+		if (bitValue == BitValue.B1 || bitValue == BitValue.Bz)
+			Arrays.fill(value, -1L);
+		if (bitValue == BitValue.Bx || bitValue == BitValue.Bz)
+			Arrays.fill(unknownPlane(), -1L);
+		clearAbove(width);
 	}
 
 	public ConstValue(BigInteger bigInt) {
@@ -152,6 +158,167 @@ public class ConstValue implements Serializable {
 		constructFromBigInt(bigInt, width);
 	}
 
+	private static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	private static long mask(int bits) {
+		return bits >= 64 ? -1L : (1L << bits) - 1;
+	}
+
+	// returns the 64 bits of the plane starting at bit offset, bits past the end are 0
+	private static long read(long[] plane, int offset) {
+		if (plane == null)
+			return 0;
+		int w = offset >>> 6;
+		int s = offset & 63;
+		long bits = w < plane.length ? plane[w] >>> s : 0;
+		if (s != 0 && w + 1 < plane.length)
+			bits |= plane[w + 1] << (64 - s);
+		return bits;
+	}
+
+	// writes the lowest count (up to 64) bits of bits to the plane starting at bit offset
+	private static void write(long[] plane, int offset, long bits, int count) {
+		long m = mask(count);
+		bits &= m;
+		int w = offset >>> 6;
+		int s = offset & 63;
+		plane[w] = (plane[w] & ~(m << s)) | (bits << s);
+		if (s != 0 && s + count > 64)
+			plane[w + 1] = (plane[w + 1] & ~(m >>> (64 - s))) | (bits >>> (64 - s));
+	}
+
+	private static void copy(long[] src, int srcOffset, long[] dst, int dstOffset, int count) {
+		for (int i = 0; i < count; i += 64)
+			write(dst, dstOffset + i, read(src, srcOffset + i), Math.min(64, count - i));
+	}
+
+	private static boolean planeEquals(long[] p1, long[] p2, int bits) {
+		for (int i = 0; i < words(bits); i++) {
+			long w1 = p1 == null || i >= p1.length ? 0 : p1[i];
+			long w2 = p2 == null || i >= p2.length ? 0 : p2[i];
+			if (w1 != w2)
+				return false;
+		}
+		return true;
+	}
+
+	private static int planeHash(long[] plane, int bits) {
+		int h = 1;
+		if (plane != null)
+			for (int i = 0; i < words(bits) && i < plane.length; i++)
+				h = 31 * h + (int) (plane[i] ^ (plane[i] >>> 32));
+		return h;
+	}
+
+	private long[] unknownPlane() {
+		if (unknown == null)
+			unknown = new long[value.length];
+		return unknown;
+	}
+
+	private boolean hasUnknown(int offset, int count) {
+		if (unknown == null)
+			return false;
+		for (int i = 0; i < count; i += 64)
+			if ((read(unknown, offset + i) & mask(count - i)) != 0)
+				return true;
+		return false;
+	}
+
+	// zeros any bits at or above bits so planes of the same value are always equal
+	private void clearAbove(int bits) {
+		int w = bits >>> 6;
+		if (w < value.length) {
+			value[w] &= mask(bits & 63);
+			Arrays.fill(value, w + 1, value.length, 0);
+			if (unknown != null) {
+				unknown[w] &= mask(bits & 63);
+				Arrays.fill(unknown, w + 1, unknown.length, 0);
+			}
+		}
+	}
+
+	private void setWidth(int bits) {
+		if (words(bits) > value.length) {
+			int size = Math.max(words(bits), value.length * 2);
+			value = Arrays.copyOf(value, size);
+			if (unknown != null)
+				unknown = Arrays.copyOf(unknown, size);
+		}
+		if (bits < width)
+			clearAbove(bits);
+		width = bits;
+	}
+
+	// returns a single bit, this doesn't check if the value is an array or struct
+	public BitValue getBit(int i) {
+		if (i >= width || i < 0)
+			throw new IndexOutOfBoundsException();
+		long m = 1L << i;
+		boolean v = (value[i >>> 6] & m) != 0;
+		if (unknown != null && (unknown[i >>> 6] & m) != 0)
+			return v ? BitValue.Bz : BitValue.Bx;
+		return v ? BitValue.B1 : BitValue.B0;
+	}
+
+	private void setBit(int i, BitValue bv) {
+		long m = 1L << i;
+		if (bv == BitValue.B1 || bv == BitValue.Bz)
+			value[i >>> 6] |= m;
+		else
+			value[i >>> 6] &= ~m;
+		if (bv == BitValue.Bx || bv == BitValue.Bz)
+			unknownPlane()[i >>> 6] |= m;
+		else if (unknown != null)
+			unknown[i >>> 6] &= ~m;
+	}
+
+	private void appendBit(BitValue bv) {
+		setWidth(width + 1);
+		setBit(width - 1, bv);
+	}
+
+	// inserts count bits of cv starting at from into this value at offset
+	private void insertBits(int offset, ConstValue cv, int from, int count) {
+		int newWidth = width + count;
+		long[] v = new long[words(newWidth)];
+		long[] u = unknown != null || cv.hasUnknown(from, count) ? new long[v.length] : null;
+		copy(value, 0, v, 0, offset);
+		copy(cv.value, from, v, offset, count);
+		copy(value, offset, v, offset + count, width - offset);
+		if (u != null) {
+			copy(unknown, 0, u, 0, offset);
+			copy(cv.unknown, from, u, offset, count);
+			copy(unknown, offset, u, offset + count, width - offset);
+		}
+		value = v;
+		unknown = u;
+		width = newWidth;
+	}
+
+	private void removeBits(int offset, int count) {
+		copy(value, offset + count, value, offset, width - offset - count);
+		if (unknown != null)
+			copy(unknown, offset + count, unknown, offset, width - offset - count);
+		setWidth(width - count);
+	}
+
+	private ConstValue slice(int offset, int count) {
+		ConstValue cv = new ConstValue(false);
+		cv.insertBits(0, this, offset, count);
+		return cv;
+	}
+
+	// number of bits in each element of the given dimension
+	private int elementBits(int level) {
+		int bits = 1;
+		for (int i = level + 1; i < dims.length; i++)
+			bits *= dims[i];
+		return bits;
+	}
+
 	public void setStruct(Struct struct) {
 		this.struct = struct;
 		structValues = new HashMap<>();
@@ -182,30 +349,31 @@ public class ConstValue implements Serializable {
 	}
 
 	private void constructFromBigInt(BigInteger bigInt, int width) {
-		byte[] bList = bigInt.toByteArray();
-
-		value = new ArrayList<>();
 		isArray = false;
+		dims = null;
+		unknown = null;
+		value = EMPTY;
+		this.width = 0;
+		setWidth(width);
+
+		signed = bigInt.signum() == -1;
+
+		if (width <= 64) {
+			if (width > 0)
+				value[0] = bigInt.longValue() & mask(width); // longValue() is two's complement
+			return;
+		}
 
-		if (bigInt.signum() == -1)
-			signed = true;
-		else
-			signed = false;
-
-		for (int i = 0; i < width; i++) {
-			int idx = i / 8;
-			int offset = i % 8;
-			byte b = 0;
-			if (bList.length > idx)
-				b = bList[bList.length - 1 - idx];
-			else if (signed)
-				b = (byte) ((bList[0] & (1 << 7)) != 0 ? -1 : 0); // sign extend
-			if ((b & (1 << offset)) != 0) {
-				value.add(BitValue.B1);
-			} else {
-				value.add(BitValue.B0);
-			}
+		byte[] bList = bigInt.toByteArray();
+		for (int i = 0; i < value.length * 8; i++) {
+			long b;
+			if (i < bList.length)
+				b = bList[bList.length - 1 - i] & 0xFF;
+			else
+				b = signed ? 0xFF : 0; // sign extend
+			value[i >>> 3] |= b << ((i & 7) * 8);
 		}
+		clearAbove(width);
 	}
 
 	public void set(String str, boolean isSigned) {
@@ -263,16 +431,14 @@ public class ConstValue implements Serializable {
 					c = strl.charAt(0);
 
 				if (c == 'x') {
-					value.add(BitValue.Bx);
+					appendBit(BitValue.Bx);
 				} else if (c == 'z') {
-					value.add(BitValue.Bz);
+					appendBit(BitValue.Bz);
 				} else {
-					int v = Integer.parseInt(Character.toString(c), 16);
-					if ((v & (1 << bitIdx)) != 0) {
-						value.add(BitValue.B1);
-					} else {
-						value.add(BitValue.B0);
-					}
+					int v = Character.digit(c, 16);
+					if (v < 0)
+						throw new NumberFormatException("For input string: \"" + c + "\"");
+					appendBit((v & (1 << bitIdx)) != 0 ? BitValue.B1 : BitValue.B0);
 				}
 			}
 			break;
@@ -286,16 +452,16 @@ public class ConstValue implements Serializable {
 
 				switch (c) {
 				case '0':
-					value.add(BitValue.B0);
+					appendBit(BitValue.B0);
 					break;
 				case '1':
-					value.add(BitValue.B1);
+					appendBit(BitValue.B1);
 					break;
 				case 'x':
-					value.add(BitValue.Bx);
+					appendBit(BitValue.Bx);
 					break;
 				case 'z':
-					value.add(BitValue.Bz);
+					appendBit(BitValue.Bz);
 					break;
 				default:
 					throw (new NumberFormatException());
@@ -309,11 +475,7 @@ public class ConstValue implements Serializable {
 				char c = 0;
 				if (str.length() > charIdx)
 					c = str.charAt(str.length() - 1 - charIdx);
-				if ((c & (1 << bitIdx)) != 0) {
-					value.add(BitValue.B1);
-				} else {
-					value.add(BitValue.B0);
-				}
+				appendBit((c & (1 << bitIdx)) != 0 ? BitValue.B1 : BitValue.B0);
 			}
 			break;
 		default:
@@ -326,33 +488,60 @@ public class ConstValue implements Serializable {
 	}
 
 	public void prependBits(ConstValue cv) {
-		value.addAll(0, cv.value);
+		insertBits(0, cv, 0, cv.width);
 	}
 
 	public void appendBits(ConstValue cv) {
-		value.addAll(cv.value);
+		insertBits(width, cv, 0, cv.width);
 	}
 
-	public boolean add(ConstValue cv) {
-		if (cv == null || (values.size() > 0 && !values.get(0).getWidths().equals(cv.getWidths()))) {
+	private boolean canAdd(ConstValue cv) {
+		if (cv == null || cv.isStruct())
 			return false;
+		if (dims[0] == 0)
+			return true;
+		int[] elementDims = cv.isArray ? cv.dims : new int[] { cv.width };
+		return Arrays.equals(elementDims, Arrays.copyOfRange(dims, 1, dims.length));
+	}
+
+	private void addElement(ConstValue cv, boolean front) {
+		if (dims[0] == 0) {
+			int[] elementDims = cv.isArray ? cv.dims : new int[] { cv.width };
+			dims = new int[elementDims.length + 1];
+			System.arraycopy(elementDims, 0, dims, 1, elementDims.length);
+			elementsSigned = cv.isArray ? cv.elementsSigned : cv.signed;
 		}
-		values.add(cv);
+		insertBits(front ? 0 : width, cv, 0, cv.width);
+		dims[0]++;
+	}
+
+	public boolean add(ConstValue cv) {
+		if (!canAdd(cv))
+			return false;
+		addElement(cv, false);
 		return true;
 	}
 
 	public boolean addToFront(ConstValue cv) {
-		if (cv == null || (values.size() > 0 && !values.get(0).getWidths().equals(cv.getWidths()))) {
+		if (!canAdd(cv))
 			return false;
-		}
-		values.add(0, cv);
+		addElement(cv, true);
 		return true;
 	}
 
 	public void remove(int i) {
-		if (isArray)
-			values.remove(i);
-		value.remove(i);
+		if (isArray) {
+			if (i >= dims[0] || i < 0)
+				throw new IndexOutOfBoundsException();
+			int bits = elementBits(0);
+			removeBits(i * bits, bits);
+			if (--dims[0] == 0)
+				dims = new int[] { 0 };
+		} else {
+			if (i >= width || i < 0)
+				throw new IndexOutOfBoundsException();
+			removeBits(i, 1);
+		}
 	}
 
 	public boolean addAll(Collection<ConstValue> list) {
@@ -374,10 +563,14 @@ public class ConstValue implements Serializable {
 		return addedAll;
 	}
 
+	// the values of an array are copies, changing them doesn't change the array
 	public ArrayList<ConstValue> getValues() {
-		if (isArray)
-			return values;
-		else {
+		if (isArray) {
+			ArrayList<ConstValue> list = new ArrayList<ConstValue>(dims[0]);
+			for (int i = 0; i < dims[0]; i++)
+				list.add(get(i));
+			return list;
+		} else {
 			ArrayList<ConstValue> list = new ArrayList<ConstValue>();
 			list.add(this);
 			return list;
@@ -385,27 +578,22 @@ public class ConstValue implements Serializable {
 	}
 
 	public ArrayList<Integer> getWidths() {
+		if (struct != null)
+			throw new IllegalStateException("The function getWidths() can't be used on structs");
+		ArrayList<Integer> ar = new ArrayList<>();
 		if (isArray) {
-			if (values.size() > 0) {
-				ArrayList<Integer> ar = values.get(0).getWidths();
-				ar.add(0, values.size());
-				return ar;
-			} else {
-				ArrayList<Integer> ar = new ArrayList<>();
-				ar.add(0, 0);
-				return ar;
-			}
+			for (int d : dims)
+				ar.add(d);
 		} else {
-			ArrayList<Integer> ar = new ArrayList<>();
-			ar.add(value.size());
-			return ar;
+			ar.add(width);
 		}
+		return ar;
 	}
 
 	public int getDepth() {
 		if (isArray) {
-			if (values.size() > 0)
-				return values.get(0).getDepth() + 1;
+			if (dims[0] > 0)
+				return dims.length;
 			else
 				return 2;
 		} else {
@@ -415,13 +603,22 @@ public class ConstValue implements Serializable {
 
 	public ConstValue get(int i) {
 		if (!isArray) {
-			if (i >= value.size() || i < 0)
-				throw new IndexOutOfBoundsException();
-			return new ConstValue(value.get(i));
+			return new ConstValue(getBit(i));
+		}
+		if (i >= dims[0] || i < 0)
+			throw new IndexOutOfBoundsException();
+		int bits = elementBits(0);
+		ConstValue cv = slice(i * bits, bits);
+		if (dims.length > 2) {
+			cv.isArray = true;
+			cv.dims = Arrays.copyOfRange(dims, 1, dims.length);
+			cv.elementsSigned = elementsSigned;
+		} else {
+			cv.signed = elementsSigned;
 		}
-		return values.get(i);
+		return cv;
 	}
-	
+
 	public boolean isSimple() {
 		return !isArray() && !isStruct();
 	}
@@ -431,16 +628,24 @@ public class ConstValue implements Serializable {
 			return false;
 		if (struct != null)
 			return false;
-		for (BitValue bv : value)
-			switch (bv) {
-			case B0:
-			case B1:
-				break;
-			case Bx:
-			case Bz:
-				return false;
-			}
-		return true;
+		return !hasUnknown(0, width);
+	}
+
+	// true if the value is a number that can be read with getLong()
+	public boolean fitsLong() {
+		return isNumber() && (width < 64 || (width == 64 && signed));
+	}
+
+	// returns the value sign extended to a long, this is getBigInt() without the allocations
+	public long getLong() {
+		if (!fitsLong())
+			throw new IllegalStateException("The value doesn't fit in a long");
+		if (width == 0)
+			return 0;
+		long v = value[0];
+		if (width < 64 && isNegative())
+			v |= ~mask(width);
+		return v;
 	}
 
 	public BigInteger getBigInt() {
@@ -452,31 +657,50 @@ public class ConstValue implements Serializable {
 		if (!isNumber())
 			throw new IllegalStateException("The value is not a number (it contains x and z values)");
 
-		byte[] bytes = new byte[(int) Math.ceil((double) (value.size() + (signed ? 0 : 1)) / 8.0)]; // if not signed need extra 0 sign bit
-
-		if (signed && value.get(value.size() - 1) == BitValue.B1) // sign extension
-			Arrays.fill(bytes, (byte) 255);
-		else
-			Arrays.fill(bytes, (byte) 0);
+		if (width == 0)
+			return BigInteger.ZERO;
 
-		for (int i = 0; i < value.size(); i++) {
-			int idx = i / 8;
-			if (value.get(i) == BitValue.B1)
-				bytes[bytes.length - 1 - idx] |= (1 << (i % 8));
-			else
-				bytes[bytes.length - 1 - idx] &= ~(1 << (i % 8));
+		boolean negative = isNegative();
+		if (width < 64) {
+			long v = value[0];
+			if (negative)
+				v |= ~mask(width); // sign extension
+			return BigInteger.valueOf(v);
 		}
 
-		return new BigInteger(bytes);
+		byte[] bytes = new byte[words(width) * 8 + 1]; // extra 0 byte keeps the magnitude positive
+		for (int i = 0; i < bytes.length - 1; i++)
+			bytes[bytes.length - 1 - i] = (byte) (value[i >>> 3] >>> ((i & 7) * 8));
+		BigInteger big = new BigInteger(bytes);
+		if (negative)
+			big = big.subtract(BigInteger.ONE.shiftLeft(width));
+		return big;
 	}
 
+	// returns a copy of the bits, changing the list doesn't change the value
 	public ArrayList<BitValue> getValue() {
 		if (isArray)
 			throw new IllegalStateException("The function getValue() can't be used on arrays");
 		if (struct != null)
 			throw new IllegalStateException("The function getValue() can't be used on structs");
 
-		return value;
+		ArrayList<BitValue> list = new ArrayList<>(width);
+		for (int i = 0; i < width; i++)
+			list.add(getBit(i));
+		return list;
+	}
+
+	// returns the index of the highest bit that isn't b or -1
+	private int highestNot(BitValue b) {
+		for (int w = words(width) - 1; w >= 0; w--) {
+			long u = unknown == null ? 0 : unknown[w];
+			long bits = (b == BitValue.B1 ? ~value[w] : value[w]) | u;
+			if (w == words(width) - 1)
+				bits &= mask(width - w * 64);
+			if (bits != 0)
+				return w * 64 + 63 - Long.numberOfLeadingZeros(bits);
+		}
+		return -1;
 	}
 
 	public int getMinWidth() {
@@ -484,16 +708,15 @@ public class ConstValue implements Serializable {
 			throw new IllegalStateException("The function getMinWidth() can't be used on arrays");
 		if (struct != null)
 			throw new IllegalStateException("The function getMinWidth() can't be used on structs");
-		if (signed && value.get(value.size() - 1).equals(BitValue.B1))
-			for (int i = value.size() - 1; i >= 0; i--) {
-				if (value.get(i) != BitValue.B1)
-					return i + 2;
-			}
-		else
-			for (int i = value.size() - 1; i >= 0; i--) {
-				if (value.get(i) != BitValue.B0)
-					return i + 1 + (signed ? 1 : 0);
-			}
+		if (signed && getBit(width - 1) == BitValue.B1) {
+			int i = highestNot(BitValue.B1);
+			if (i >= 0)
+				return i + 2;
+		} else {
+			int i = highestNot(BitValue.B0);
+			if (i >= 0)
+				return i + 1 + (signed ? 1 : 0);
+		}
 		return 1;
 	}
 
@@ -501,22 +724,14 @@ public class ConstValue implements Serializable {
 		if (struct != null)
 			throw new IllegalStateException("The function getWidth() can't be used on structs");
 		if (isArray)
-			return values.size();
-		return value.size();
+			return dims[0];
+		return width;
 	}
 
 	public SignalWidth getArrayWidth() {
 		if (struct != null)
 			throw new IllegalStateException("The function getArrayWidth() can't be used on structs");
-		ConstValue cv = this;
-		SignalWidth width = new SignalWidth();
-
-		while (cv.isArray) {
-			width.getWidths().add(cv.values.size());
-			cv = cv.get(0);
-		}
-		width.getWidths().add(cv.value.size());
-		return width;
+		return SignalWidth.of(getWidths());
 	}
 
 	public void setValue(List<BitValue> v) {
@@ -524,8 +739,11 @@ public class ConstValue implements Serializable {
 			throw new IllegalStateException("The function setValue() can't be used on structs");
 		if (isArray)
 			throw new IllegalStateException("The function setValue() can't be used on arrays");
-		value.clear();
-		value.addAll(v);
+		unknown = null;
+		setWidth(0);
+		setWidth(v.size());
+		for (int i = 0; i < width; i++)
+			setBit(i, v.get(i));
 	}
 
 	public void setValue(BitValue v) {
@@ -533,65 +751,76 @@ public class ConstValue implements Serializable {
 			throw new IllegalStateException("The function setValue() can't be used on structs");
 		if (isArray)
 			throw new IllegalStateException("The function setValue() can't be used on arrays");
-		value.clear();
-		value.add(v);
+		unknown = null;
+		setWidth(0);
+		setWidth(1);
+		setBit(0, v);
+	}
+
+	private static final int OR = 0;
+	private static final int AND = 1;
+	private static final int XOR = 2;
+
+	// applies the operator to every bit, the shorter value is padded with B0
+	private static ConstValue bitwiseBits(ConstValue v1, ConstValue v2, int op) {
+		ConstValue cv = new ConstValue(false);
+		cv.setWidth(Math.max(v1.width, v2.width));
+		boolean hasUnknown = v1.unknown != null || v2.unknown != null;
+		for (int i = 0; i < cv.width; i += 64) {
+			long a = read(v1.value, i);
+			long b = read(v2.value, i);
+			long ua = read(v1.unknown, i);
+			long ub = read(v2.unknown, i);
+			long one1 = a & ~ua;
+			long one2 = b & ~ub;
+			long v, u;
+			switch (op) {
+			case OR:
+				v = one1 | one2;
+				u = (ua | ub) & ~v;
+				break;
+			case AND:
+				v = one1 & one2;
+				u = ua | ub;
+				break;
+			default:
+				v = one1 ^ one2;
+				u = (ua | ub) & ~v;
+				break;
+			}
+			int count = Math.min(64, cv.width - i);
+			write(cv.value, i, v, count);
+			if (hasUnknown)
+				write(cv.unknownPlane(), i, u, count);
+		}
+		return cv;
 	}
 
-	public static ConstValue Or(ConstValue v1, ConstValue v2) {
+	private static ConstValue bitwise(ConstValue v1, ConstValue v2, int op) {
 		if (v1.isStruct() || v2.isStruct())
 			throw new IllegalArgumentException("Arguments can't be structs");
-		if (!v1.getWidths().equals(v2.getWidths()))
+		if ((v1.isArray() || v2.isArray()) && !v1.getWidths().equals(v2.getWidths()))
 			throw new IllegalArgumentException("Arguments must have the same dimensions");
 
+		ConstValue cv = bitwiseBits(v1, v2, op);
 		if (v1.isArray()) {
-			ConstValue cv = new ConstValue(true);
-			for (int i = 0; i < v1.getValues().size(); i++) {
-				cv.add(Or(v1.get(i), v1.get(i)));
-			}
-			return cv;
-		} else {
-			ConstValue cv = new ConstValue(false);
-			cv.setValue(BitValue.or(v1.getValue(), v2.getValue()));
-			return cv;
+			cv.isArray = true;
+			cv.dims = v1.dims.clone();
 		}
+		return cv;
 	}
 
-	public static ConstValue And(ConstValue v1, ConstValue v2) {
-		if (v1.isStruct() || v2.isStruct())
-			throw new IllegalArgumentException("Arguments can't be structs");
-		if (!v1.getWidths().equals(v2.getWidths()))
-			throw new IllegalArgumentException("Arguments must have the same dimensions");
+	// simple values of different widths are padded with 0s
+	public static ConstValue Or(ConstValue v1, ConstValue v2) {
+		return bitwise(v1, v2, OR);
+	}
 
-		if (v1.isArray()) {
-			ConstValue cv = new ConstValue(true);
-			for (int i = 0; i < v1.getValues().size(); i++) {
-				cv.add(And(v1.get(i), v1.get(i)));
-			}
-			return cv;
-		} else {
-			ConstValue cv = new ConstValue(false);
-			cv.setValue(BitValue.and(v1.getValue(), v2.getValue()));
-			return cv;
-		}
+	public static ConstValue And(ConstValue v1, ConstValue v2) {
+		return bitwise(v1, v2, AND);
 	}
 
 	public static ConstValue Xor(ConstValue v1, ConstValue v2) {
-		if (v1.isStruct() || v2.isStruct())
-			throw new IllegalArgumentException("Arguments can't be structs");
-		if (!v1.getWidths().equals(v2.getWidths()))
-			throw new IllegalArgumentException("Arguments must have the same dimensions");
-
-		if (v1.isArray()) {
-			ConstValue cv = new ConstValue(true);
-			for (int i = 0; i < v1.getValues().size(); i++) {
-				cv.add(Xor(v1.get(i), v1.get(i)));
-			}
-			return cv;
-		} else {
-			ConstValue cv = new ConstValue(false);
-			cv.setValue(BitValue.xor(v1.getValue(), v2.getValue()));
-			return cv;
-		}
+		return bitwise(v1, v2, XOR);
 	}
 
 	public static ConstValue Nor(ConstValue v1, ConstValue v2) {
@@ -609,55 +838,61 @@ public class ConstValue implements Serializable {
 	public static ConstValue Invert(ConstValue v) {
 		if (v.isStruct())
 			throw new IllegalArgumentException("Argument can't be a struct");
-		if (v.isArray()) {
-			ConstValue cv = new ConstValue(true);
-			for (int i = 0; i < v.getValues().size(); i++) {
-				cv.add(Invert(v.get(i)));
-			}
-			return cv;
-		} else {
-			ConstValue cv = new ConstValue(false);
-			cv.setValue(BitValue.invert(v.getValue()));
-			return cv;
+		ConstValue cv = new ConstValue(false);
+		cv.setWidth(v.width);
+		for (int i = 0; i < v.width; i += 64) {
+			long u = read(v.unknown, i);
+			write(cv.value, i, read(v.value, i) ^ ~u, Math.min(64, v.width - i)); // x and z stay the same
 		}
-	}
-
-	private static BitValue NotRecursive(ConstValue v) {
-		if (v.isStruct())
-			throw new IllegalArgumentException("Argument can't be a struct");
+		if (v.unknown != null)
+			copy(v.unknown, 0, cv.unknownPlane(), 0, v.width);
 		if (v.isArray()) {
-			boolean hasX = false;
-			for (int i = 0; i < v.getValues().size(); i++) {
-				BitValue bv = NotRecursive(v);
-				if (bv == BitValue.B0)
-					return BitValue.B0;
-				else if (bv == BitValue.Bx || bv == BitValue.Bz)
-					hasX = true;
-			}
-			if (hasX)
-				return BitValue.Bx;
-			else
-				return BitValue.B1;
-		} else {
-			return BitValue.not(v.getValue());
+			cv.isArray = true;
+			cv.dims = v.dims.clone();
 		}
+		return cv;
 	}
 
 	public static ConstValue Not(ConstValue v) {
 		if (v.isStruct())
 			throw new IllegalArgumentException("Argument can't be a struct");
-		ConstValue cv = new ConstValue(NotRecursive(v));
+		BitValue bv;
+		if (v.hasOne())
+			bv = BitValue.B0;
+		else if (v.hasUnknown(0, v.width))
+			bv = BitValue.Bx;
+		else
+			bv = BitValue.B1;
+		ConstValue cv = new ConstValue(bv);
 		return cv;
 	}
 
+	// true if any bit is B1
+	private boolean hasOne() {
+		for (int i = 0; i < width; i += 64)
+			if ((read(value, i) & ~read(unknown, i) & mask(width - i)) != 0)
+				return true;
+		return false;
+	}
+
 	public static BitValue Equal(ConstValue v1, ConstValue v2) {
 		if ((v1.isArray() || v2.isArray()) && !v1.getWidths().equals(v2.getWidths()))
 			return BitValue.B0;
 
 		if (v1.isArray()) {
-			for (int i = 0; i < v1.getValues().size(); i++) {
-				if (Equal(v1.get(i), v2.get(i)) == BitValue.B0)
-					return BitValue.B0;
+			int bits = v1.dims[v1.dims.length - 1];
+			int count = bits == 0 ? 0 : v1.width / bits;
+			for (int i = 0; i < count; i++) {
+				for (int b = 0; b < bits; b += 64) {
+					int n = Math.min(64, bits - b);
+					int offset = i * bits + b;
+					if (((read(v1.value, offset) ^ read(v2.value, offset)) & mask(n)) != 0)
+						return BitValue.B0;
+					if (((read(v1.unknown, offset) ^ read(v2.unknown, offset)) & mask(n)) != 0)
+						return BitValue.B0;
+				}
+				if (v1.elementsSigned != v2.elementsSigned && bits > 0 && v1.getBit(i * bits + bits - 1) == BitValue.B1)
+					return BitValue.B0; // one is negative and the other isn't
 			}
 			return BitValue.B1;
 		} else if (v1.isStruct()) {
@@ -674,7 +909,18 @@ public class ConstValue implements Serializable {
 		} else {
 			if (v1.isNegative() ^ v2.isNegative())
 				return BitValue.B0;
-			return BitValue.equal(v1.getValue(), v2.getValue(), v1.signed, v2.signed);
+			if (v1.fitsLong() && v2.fitsLong())
+				return v1.getLong() == v2.getLong() ? BitValue.B1 : BitValue.B0;
+			BitValue se1 = v1.signed ? v1.getBit(v1.width - 1) : BitValue.B0;
+			BitValue se2 = v2.signed ? v2.getBit(v2.width - 1) : BitValue.B0;
+			int size = Math.max(v1.width, v2.width);
+			for (int i = 0; i < size; i++) {
+				BitValue b1 = i < v1.width ? v1.getBit(i) : se1;
+				BitValue b2 = i < v2.width ? v2.getBit(i) : se2;
+				if (b1 != b2)
+					return BitValue.B0;
+			}
+			return BitValue.B1;
 		}
 	}
 
@@ -685,15 +931,7 @@ public class ConstValue implements Serializable {
 	public static boolean Zero(ConstValue v) {
 		if (v.isStruct())
 			throw new IllegalArgumentException("Argument can't be a struct");
-		if (v.isArray) {
-			for (int i = 0; i < v.getValues().size(); i++) {
-				if (!Zero(v.get(i)))
-					return false;
-			}
-			return true;
-		} else {
-			return BitValue.isZero(v.getValue());
-		}
+		return v.highestNot(BitValue.B0) < 0;
 	}
 
 	@Override
@@ -702,13 +940,13 @@ public class ConstValue implements Serializable {
 		if (isArray) {
 			boolean first = true;
 			sb.append("[");
-			for (int i = values.size() - 1; i >= 0; i--) {
+			for (int i = dims[0] - 1; i >= 0; i--) {
 				if (!first) {
 					sb.append(", ");
 				} else {
 					first = false;
 				}
-				sb.append(values.get(i).toString());
+				sb.append(get(i).toString());
 			}
 			sb.append("]");
 		} else if (struct != null) {
@@ -726,7 +964,10 @@ public class ConstValue implements Serializable {
 			if (isNumber()) {
 				sb.append(getBigInt().toString()).append(": ");
 			}
-			sb.append(BitValue.toString(value));
+			sb.append('{');
+			for (int i = width - 1; i >= 0; i--)
+				sb.append(getBit(i).toString().substring(1));
+			sb.append('}');
 		}
 		return sb.toString();
 	}
@@ -737,19 +978,19 @@ public class ConstValue implements Serializable {
 		if (struct != null)
 			throw new IllegalStateException("The function shiftRight() can't be used on structs");
 
-		if (value.size() < n)
-			n = value.size();
+		if (width < n)
+			n = width;
 
 		BitValue bv;
 		if (signExtend)
-			bv = value.get(value.size() - 1); // msb
+			bv = getBit(width - 1); // msb
 		else
 			bv = BitValue.B0;
 
-		for (int i = 0; i < n; i++) {
-			value.remove(0);
-			value.add(value.size(), bv);
-		}
+		int w = width;
+		removeBits(0, n);
+		insertBits(width, new ConstValue(bv, n), 0, n);
+		width = w;
 	}
 
 	public void shiftLeft(int n) {
@@ -758,68 +999,65 @@ public class ConstValue implements Serializable {
 		if (struct != null)
 			throw new IllegalStateException("The function shiftLeft() can't be used on structs");
 
-		for (int i = 0; i < n; i++)
-			value.add(0, BitValue.B0);
+		insertBits(0, new ConstValue(BitValue.B0, n), 0, n);
 	}
 
-	public BitValue orReduce() {
-		if (struct != null)
-			throw new IllegalStateException("The function orReduce() can't be used on structs");
-		if (isArray) {
-			BitValue b = BitValue.B0;
-			for (int i = 0; i < values.size(); i++) {
-				b = b.or(values.get(i).orReduce());
+	private static final int OR_REDUCE = 0;
+	private static final int AND_REDUCE = 1;
+	private static final int XOR_REDUCE = 2;
+
+	// reduces an element of the given dimension the same way nested arrays of values would be
+	private BitValue reduce(int op, int level, int offset) {
+		if (!isArray || level == dims.length - 1) {
+			int count = isArray ? dims[level] : width;
+			BitValue bv = op == AND_REDUCE ? BitValue.B1 : BitValue.B0;
+			for (int i = offset; i < offset + count; i++) {
+				BitValue b = getBit(i);
+				if (op == OR_REDUCE)
+					bv = bv.or(b);
+				else if (op == AND_REDUCE)
+					bv = bv.and(b);
+				else
+					bv = bv.xor(b);
+			}
+			return bv;
+		}
+
+		int bits = elementBits(level);
+		BitValue b = op == AND_REDUCE ? BitValue.B1 : BitValue.B0;
+		for (int i = 0; i < dims[level]; i++) {
+			BitValue e = reduce(op, level + 1, offset + i * bits);
+			if (op == OR_REDUCE) {
+				b = b.or(e);
 				if (b == BitValue.B1)
 					return BitValue.B1;
+			} else if (op == AND_REDUCE) {
+				b = b.and(e);
+				if (b == BitValue.B0)
+					return BitValue.B0;
+			} else {
+				b = b.xor(e);
 			}
-			return b;
-		} else {
-			BitValue bv = BitValue.B0;
-			for (BitValue b : value) {
-				bv = bv.or(b);
-			}
-			return bv;
 		}
+		return b;
+	}
+
+	public BitValue orReduce() {
+		if (struct != null)
+			throw new IllegalStateException("The function orReduce() can't be used on structs");
+		return reduce(OR_REDUCE, 0, 0);
 	}
 
 	public BitValue andReduce() {
 		if (struct != null)
 			throw new IllegalStateException("The function andReduce() can't be used on structs");
-		if (isArray) {
-			BitValue b = BitValue.B1;
-			for (int i = 0; i < values.size(); i++) {
-				b = b.and(values.get(i).andReduce());
-				if (b == BitValue.B0)
-					return BitValue.B0;
-			}
-			return b;
-		} else {
-			BitValue bv = BitValue.B1;
-			for (BitValue b : value) {
-				bv = bv.and(b);
-			}
-			return bv;
-		}
+		return reduce(AND_REDUCE, 0, 0);
 	}
 
 	public BitValue xorReduce() {
 		if (struct != null)
 			throw new IllegalStateException("The function xorReduce() can't be used on structs");
-		if (isArray) {
-			BitValue b = BitValue.B1;
-			for (int i = 0; i < values.size(); i++) {
-				b = b.and(values.get(i).xorReduce());
-				if (b == BitValue.B0)
-					return BitValue.B0;
-			}
-			return b;
-		} else {
-			BitValue bv = BitValue.B0;
-			for (BitValue b : value) {
-				bv = bv.xor(b);
-			}
-			return bv;
-		}
+		return reduce(XOR_REDUCE, 0, 0);
 	}
 
 	public BitValue norReduce() {
@@ -839,7 +1077,7 @@ public class ConstValue implements Serializable {
 			throw new IllegalStateException("The function isNegative() can't be used on structs");
 		if (isArray)
 			throw new IllegalStateException("The function isNegative() can't be used on arrays");
-		if (signed && value.get(value.size() - 1) == BitValue.B1)
+		if (signed && getBit(width - 1) == BitValue.B1)
 			return true;
 		return false;
 	}
@@ -853,6 +1091,9 @@ public class ConstValue implements Serializable {
 		if (!isNumber() || !cv.isNumber())
 			return BitValue.Bx;
 
+		if (fitsLong() && cv.fitsLong())
+			return getLong() < cv.getLong() ? BitValue.B1 : BitValue.B0;
+
 		boolean neg = isNegative();
 		boolean cvneg = cv.isNegative();
 
@@ -861,7 +1102,7 @@ public class ConstValue implements Serializable {
 		if (!neg && cvneg)
 			return BitValue.B0;
 
-		int w = Math.max(cv.value.size(), value.size());
+		int w = Math.max(cv.width, width);
 		for (int i = w - 1; i >= 0; i--) {
 			BitValue b1, b2;
 			if (neg)
@@ -869,10 +1110,10 @@ public class ConstValue implements Serializable {
 			else
 				b1 = b2 = BitValue.B0;
 
-			if (value.size() > i)
-				b1 = value.get(i);
-			if (cv.value.size() > i)
-				b2 = cv.value.get(i);
+			if (width > i)
+				b1 = getBit(i);
+			if (cv.width > i)
+				b2 = cv.getBit(i);
 
 			if (b2 == BitValue.B1) {
 				if (b1 == BitValue.B0) {
@@ -886,25 +1127,6 @@ public class ConstValue implements Serializable {
 
 	}
 
-	private ConstValue build(List<BitValue> values, int[] dims) {
-		int d = dims[dims.length - 1];
-		int vCt = values.size();
-		int step = vCt / d;
-		ConstValue root = new ConstValue(true);
-		if (step * d != vCt)
-			throw new InvalidParameterException("Dimensions don't split evenly for build()");
-		if (dims.length == 1) {
-			for (int i = 0; i < d; i++) {
-				root.add(new ConstValue(values.subList(step * i, step * i + step)));
-			}
-		} else {
-			for (int i = 0; i < d; i++) {
-				root.add(build(values.subList(step * i, step * i + step), Arrays.copyOfRange(dims, 0, dims.length - 1)));
-			}
-		}
-		return root;
-	}
-
 	public ConstValue build(int... dimensions) {
 		if (dimensions.length < 1)
 			throw new InvalidParameterException("Dimensions must be specified when building an array!");
@@ -912,52 +1134,38 @@ public class ConstValue implements Serializable {
 			throw new InvalidParameterException("The function build() can't be called on array values!");
 		if (struct != null)
 			throw new IllegalStateException("The function build() can't be used on structs");
-		for (int d : dimensions)
+		long elements = 1;
+		for (int d : dimensions) {
 			if (d == 0)
 				throw new InvalidParameterException("Dimensions supplied to build() can't be 0!");
+			elements *= d;
+		}
+		if (width % elements != 0)
+			throw new InvalidParameterException("Dimensions don't split evenly for build()");
 
-		return build(value, dimensions);
+		// the last dimension is the outermost
+		ConstValue root = new ConstValue(this);
+		root.isArray = true;
+		root.signed = false;
+		root.dims = new int[dimensions.length + 1];
+		for (int i = 0; i < dimensions.length; i++)
+			root.dims[i] = dimensions[dimensions.length - 1 - i];
+		root.dims[dimensions.length] = (int) (width / elements);
+		return root;
 	}
 
 	public ConstValue flatten() {
 		if (isArray) {
-			ConstValue cv = new ConstValue(false);
-			for (ConstValue c : values) {
-				if (c.isArray)
-					cv.appendBits(c.flatten());
-				else
-					cv.appendBits(c);
-
-			}
-			return cv;
+			return slice(0, width);
 		} else if (struct != null) {
 			ConstValue cv = new ConstValue(false);
-			for (Member m : struct.getMembers()) {
-				ConstValue c = structValues.get(m.name);
-				if (c.isArray)
-					cv.appendBits(c.flatten());
-				else
-					cv.appendBits(c);
-			}
+			for (Member m : struct.getMembers())
+				cv.appendBits(structValues.get(m.name).flatten());
 			return cv;
 		}
 		return this;
 	}
 
-	private static String getHex(List<BitValue> list, int start) {
-		int end = start + 4;
-		if (end > list.size())
-			end = list.size();
-		int value = 0;
-
-		for (int i = start; i < end; i++) {
-			if (list.get(i).equals(BitValue.B1))
-				value += Math.pow(2, i - start);
-		}
-
-		return Integer.toHexString(value);
-	}
-
 	public String toVerilog() {
 		StringBuilder sb = new StringBuilder();
 
@@ -976,12 +1184,12 @@ public class ConstValue implements Serializable {
 			sb.append("'h");
 			int start = ((bits - 1) / 4) * 4;
 			for (int i = start; i >= 0; i -= 4) {
-				sb.append(getHex(cv.value, i));
+				sb.append(Long.toHexString(read(cv.value, i) & mask(Math.min(4, bits - i))));
 			}
 		} else {
 			sb.append("'b");
 			for (int i = bits - 1; i >= 0; i--)
-				sb.append(cv.value.get(i).getChar());
+				sb.append(cv.getBit(i).getChar());
 		}
 		if (isNeg || signed)
 			sb.append(")");
@@ -989,10 +1197,14 @@ public class ConstValue implements Serializable {
 	}
 
 	public ConstValue reverse() {
-		if (isArray)
-			Collections.reverse(values);
-		else
-			Collections.reverse(value);
+		int bits = isArray ? elementBits(0) : 1;
+		int count = isArray ? dims[0] : width;
+		ConstValue cv = new ConstValue(this);
+		for (int i = 0; i < count; i++) {
+			copy(cv.value, i * bits, value, (count - 1 - i) * bits, bits);
+			if (unknown != null)
+				copy(cv.unknown, i * bits, unknown, (count - 1 - i) * bits, bits);
+		}
 		return this;
 	}
 
@@ -1004,12 +1216,10 @@ public class ConstValue implements Serializable {
 		ConstValue cv = new ConstValue(this);
 		int origWidth = cv.getWidth();
 		if (origWidth > size) {
-			cv.value.subList(size, cv.value.size()).clear();
+			cv.setWidth(size);
 		} else if (origWidth < size) {
-			BitValue bv = cv.signed ? cv.value.get(cv.value.size() - 1) : BitValue.B0;
-			for (int i = 0; i < size - origWidth; i++) {
-				cv.value.add(bv);
-			}
+			BitValue bv = cv.signed ? cv.getBit(origWidth - 1) : BitValue.B0;
+			cv.appendBits(new ConstValue(bv, size - origWidth));
 		}
 		return cv;
 	}
@@ -0,0 +1,140 @@
+package com.alchitry.labs.parsers.errors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.swt.custom.StyleRange;
+
+import com.alchitry.labs.style.StyleUtil;
+import com.alchitry.labs.style.SyntaxError;
+
+/*
+ * Immutable index of the errors in a file sorted by offset. Offsets and lines are looked up with a
+ * binary search so it can be queried while drawing or hovering and replaced as a whole when the
+ * errors are updated.
+ */
+public class ErrorIndex {
+	public static final ErrorIndex EMPTY = new ErrorIndex(null);
+
+	private final SyntaxError[] errors;
+	private final int[] maxStop; // largest stop of errors[0] to errors[i]
+	private final StyleRange[] styles;
+	private final int[] typeCounts = new int[4];
+
+	public ErrorIndex(List<SyntaxError> list) {
+		errors = list == null ? new SyntaxError[0] : list.toArray(new SyntaxError[list.size()]);
+		Arrays.sort(errors, new Comparator<SyntaxError>() {
+			@Override
+			public int compare(SyntaxError o1, SyntaxError o2) {
+				return o1.start - o2.start;
+			}
+		});
+
+		maxStop = new int[errors.length];
+		styles = new StyleRange[errors.length];
+		for (int i = 0; i < errors.length; i++) {
+			maxStop[i] = i == 0 ? errors[i].stop : Math.max(maxStop[i - 1], errors[i].stop);
+			styles[i] = errors[i].style;
+			typeCounts[errors[i].type - SyntaxError.DEBUG]++;
+		}
+	}
+
+	// index of the last error starting at or before offset
+	private int lastStartingBefore(int offset) {
+		int low = 0;
+		int high = errors.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (errors[mid].start <= offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low - 1;
+	}
+
+	public boolean hasType(int type) {
+		return typeCounts[type - SyntaxError.DEBUG] > 0;
+	}
+
+	public SyntaxError getErrorAtOffset(int pos) {
+		SyntaxError error = null;
+		for (int i = lastStartingBefore(pos); i >= 0 && maxStop[i] >= pos; i--)
+			if (errors[i].stop >= pos)
+				error = errors[i];
+		return error;
+	}
+
+	// returns the most severe error starting on the given line (starting at 1) or null
+	public SyntaxError getLineError(int line) {
+		int low = 0;
+		int high = errors.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (errors[mid].line < line)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		SyntaxError error = null;
+		for (int i = low; i < errors.length && errors[i].line == line; i++)
+			if (error == null || error.type > errors[i].type)
+				error = errors[i];
+		return error;
+	}
+
+	// returns the styles of the errors covering the range clipped to it, errors can overlap and span lines
+	public StyleRange[] getStyles(int start, int length) {
+		int end = start + length;
+		ArrayList<StyleRange> found = new ArrayList<>();
+		for (int i = lastStartingBefore(end - 1); i >= 0 && maxStop[i] >= start; i--) {
+			StyleRange s = styles[i];
+			int from = Math.max(s.start, start);
+			int to = Math.min(s.start + s.length, end);
+			if (to <= from)
+				continue;
+			StyleRange style = StyleUtil.duplicate(s);
+			style.start = from;
+			style.length = to - from;
+			found.add(style);
+		}
+		Collections.reverse(found);
+		return found.toArray(new StyleRange[found.size()]);
+	}
+
+	private static boolean same(SyntaxError a, SyntaxError b) {
+		return a.start == b.start && a.stop == b.stop && a.type == b.type && a.message.equals(b.message);
+	}
+
+	// returns the start and stop offsets of the text where the errors are different or null if they are the same
+	public int[] getChangedRange(ErrorIndex other) {
+		int first = 0;
+		while (first < errors.length && first < other.errors.length && same(errors[first], other.errors[first]))
+			first++;
+		if (first == errors.length && first == other.errors.length)
+			return null;
+
+		int last = errors.length - 1;
+		int otherLast = other.errors.length - 1;
+		while (last >= first && otherLast >= first && same(errors[last], other.errors[otherLast])) {
+			last--;
+			otherLast--;
+		}
+
+		int start = Integer.MAX_VALUE;
+		int stop = -1;
+		for (int i = first; i <= last; i++) {
+			start = Math.min(start, errors[i].start);
+			stop = Math.max(stop, errors[i].stop);
+		}
+		for (int i = first; i <= otherLast; i++) {
+			start = Math.min(start, other.errors[i].start);
+			stop = Math.max(stop, other.errors[i].stop);
+		}
+		return new int[] { start, stop };
+	}
+}
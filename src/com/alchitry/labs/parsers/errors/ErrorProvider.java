@@ -2,8 +2,6 @@ package com.alchitry.labs.parsers.errors;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.Token;
@@ -20,7 +18,6 @@ import org.eclipse.swt.widgets.Display;
 import com.alchitry.labs.Util;
 import com.alchitry.labs.gui.StyledCodeEditor;
 import com.alchitry.labs.gui.Theme;
-import com.alchitry.labs.style.StyleUtil;
 import com.alchitry.labs.style.SyntaxError;
 import com.alchitry.labs.tools.ParserCache;
 import com.alchitry.labs.tools.ParserCache.ParseError;
@@ -29,9 +26,7 @@ public abstract class ErrorProvider implements ModifyListener, LineStyleListener
 	protected ArrayList<SyntaxError> errors;
 	protected StyledCodeEditor editor;
 	protected Display display;
-	protected StyleRange[] styles;
-	protected boolean newStyles = false;
-	protected HashMap<Integer, SyntaxError> lineErrors = new HashMap<>();
+	protected volatile ErrorIndex index = ErrorIndex.EMPTY;
 	
 	protected ErrorProvider() {
 		errors = new ArrayList<>();
@@ -53,55 +48,51 @@ public abstract class ErrorProvider implements ModifyListener, LineStyleListener
 	public void updateErrors() {
 		getErrors(editor.getFile());
 
-		lineErrors.clear();
-		for (SyntaxError e : errors) {
-			SyntaxError o = lineErrors.get(e.line);
-			if (o == null || (o != null && o.type > e.type)) {
-				lineErrors.put(e.line, e);
-			}
-		}
-
-		newStyles = true;
+		ErrorIndex oldIndex = index;
+		index = new ErrorIndex(errors);
+		final int[] changed = index.getChangedRange(oldIndex);
 
 		display.asyncExec(new Runnable() {
 			@Override
 			public void run() {
 				if (!editor.isDisposed()) {
 					editor.updateTextColor();
-					editor.redraw();
+					if (changed != null)
+						redrawLines(changed[0], changed[1]);
 				}
 			}
 		});
 	}
 
+	// redraws the full width of the lines so the line numbers are updated too
+	private void redrawLines(int start, int stop) {
+		int count = editor.getCharCount();
+		int firstLine = editor.getLineAtOffset(Math.min(start, count));
+		int lastLine = editor.getLineAtOffset(Math.min(stop, count));
+		int top = editor.getLinePixel(firstLine);
+		int bottom = editor.getLinePixel(lastLine + 1);
+		if (lastLine + 1 >= editor.getLineCount())
+			bottom = editor.getClientArea().height;
+		if (bottom > top)
+			editor.redraw(0, top, editor.getClientArea().width, bottom - top, true);
+	}
+
 	public boolean hasErrors() {
-		for (SyntaxError se : errors) {
-			if (se.type == SyntaxError.ERROR)
-				return true;
-		}
-		return false;
+		return index.hasType(SyntaxError.ERROR);
 	}
 
 	public boolean hasWarnings() {
-		for (SyntaxError se : errors) {
-			if (se.type == SyntaxError.WARNING)
-				return true;
-		}
-		return false;
+		return index.hasType(SyntaxError.WARNING);
 	}
 
 	public SyntaxError getErrorAtOffset(int pos) {
-		if (errors != null)
-			for (SyntaxError e : errors) {
-				if (e.start <= pos && e.stop >= pos)
-					return e;
-			}
-		return null;
+		return index.getErrorAtOffset(pos);
 	}
 
 	public Color getLineColor(int line) {
-		if (lineErrors.get(line) != null)
-			return lineErrors.get(line).style.underlineColor;
+		SyntaxError e = index.getLineError(line);
+		if (e != null)
+			return e.style.underlineColor;
 		return null;
 	}
 	
@@ -120,20 +111,8 @@ public abstract class ErrorProvider implements ModifyListener, LineStyleListener
 	
 	@Override
 	public void lineGetStyle(LineStyleEvent event) {
-		List<SyntaxError> errors = this.errors;
-		if (errors != null) {
-			event.data = Boolean.valueOf(newStyles);
-			if (newStyles) {
-				ArrayList<StyleRange> styleList = new ArrayList<StyleRange>(errors.size());
-				for (SyntaxError e : errors) {
-					styleList.add(e.style);
-				}
-				StyleUtil.sort(styleList);
-				styles = styleList.toArray(new StyleRange[styleList.size()]);
-				newStyles = false;
-			}
-			event.styles = styles;
-		}
+		event.styles = index.getStyles(event.lineOffset, event.lineText.length());
+		event.data = Boolean.TRUE;
 	}
 	
 	@Override
@@ -4,7 +4,12 @@ import java.io.Serializable;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 import com.alchitry.labs.parsers.ConstValue;
 import com.alchitry.labs.parsers.types.Struct;
@@ -16,6 +21,174 @@ public class SignalWidth implements Serializable {
 	private SignalWidth next;
 	private String text;
 
+	// widths from of() are immutable and shared, equal shapes are the same object
+	private static final int MAX_INTERNED = 4096;
+	private static final ConcurrentHashMap<List<Integer>, SignalWidth> interned = new ConcurrentHashMap<>();
+	private transient boolean frozen;
+	private transient boolean shared; // the one instance of this shape in interned
+	private transient int hash;
+	private transient int totalWidth;
+	private transient List<Integer> dimensions;
+
+	// list of widths that can't be changed, it is written out as a normal ArrayList
+	private static class FrozenList extends ArrayList<Integer> {
+		private static final long serialVersionUID = 1L;
+		private boolean frozen;
+
+		public FrozenList(Collection<Integer> c) {
+			super(c);
+			frozen = true;
+		}
+
+		private void check() {
+			if (frozen)
+				throw new UnsupportedOperationException("Shared widths can't be changed, copy it first");
+		}
+
+		@Override
+		public boolean add(Integer e) {
+			check();
+			return super.add(e);
+		}
+
+		@Override
+		public void add(int index, Integer element) {
+			check();
+			super.add(index, element);
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends Integer> c) {
+			check();
+			return super.addAll(c);
+		}
+
+		@Override
+		public boolean addAll(int index, Collection<? extends Integer> c) {
+			check();
+			return super.addAll(index, c);
+		}
+
+		@Override
+		public Integer set(int index, Integer element) {
+			check();
+			return super.set(index, element);
+		}
+
+		@Override
+		public Integer remove(int index) {
+			check();
+			return super.remove(index);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			check();
+			return super.remove(o);
+		}
+
+		@Override
+		public boolean removeAll(Collection<?> c) {
+			check();
+			return super.removeAll(c);
+		}
+
+		@Override
+		public boolean retainAll(Collection<?> c) {
+			check();
+			return super.retainAll(c);
+		}
+
+		@Override
+		public boolean removeIf(Predicate<? super Integer> filter) {
+			check();
+			return super.removeIf(filter);
+		}
+
+		@Override
+		public void replaceAll(UnaryOperator<Integer> operator) {
+			check();
+			super.replaceAll(operator);
+		}
+
+		@Override
+		public void sort(Comparator<? super Integer> c) {
+			check();
+			super.sort(c);
+		}
+
+		@Override
+		public void clear() {
+			check();
+			super.clear();
+		}
+
+		@Override
+		protected void removeRange(int fromIndex, int toIndex) {
+			check();
+			super.removeRange(fromIndex, toIndex);
+		}
+
+		private Object writeReplace() {
+			return new ArrayList<>(this);
+		}
+	}
+
+	/*
+	 * Returns an immutable simple array width. Widths are shared so only use these where the width
+	 * won't be changed (anything stored in the width maps already gets copied before it is edited).
+	 */
+	public static SignalWidth of(List<Integer> widths) {
+		SignalWidth w = interned.get(widths);
+		if (w != null)
+			return w;
+		w = new SignalWidth(widths);
+		w.freeze();
+		if (interned.size() >= MAX_INTERNED)
+			return w;
+		SignalWidth old = interned.putIfAbsent(w.widths, w);
+		if (old != null)
+			return old;
+		w.shared = true;
+		return w;
+	}
+
+	public static SignalWidth of(int... ws) {
+		if (ws.length == 1 && ws[0] >= 0 && ws[0] < small.length)
+			return small[ws[0]];
+		ArrayList<Integer> list = new ArrayList<>(ws.length);
+		for (int w : ws)
+			list.add(w);
+		return of(list);
+	}
+
+	private static final SignalWidth[] small = new SignalWidth[257];
+
+	static {
+		for (int i = 0; i < small.length; i++) {
+			ArrayList<Integer> list = new ArrayList<>(1);
+			list.add(i);
+			small[i] = of(list);
+		}
+	}
+
+	private void freeze() {
+		widths = new FrozenList(widths);
+		frozen = true;
+		hash = computeHash();
+		totalWidth = getWidth();
+		dimensions = Collections.unmodifiableList(new ArrayList<>(widths));
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkMutable() {
+		if (frozen)
+			throw new UnsupportedOperationException("Shared widths can't be changed, copy it first");
+	}
+
 	/* Creates a new SignalWidth and assumes it is an array. */
 	public SignalWidth() {
 		widths = new ArrayList<>();
@@ -77,6 +250,7 @@ public class SignalWidth implements Serializable {
 	}
 
 	public void set(Struct s) {
+		checkMutable();
 		struct = s;
 		widths = null;
 		text = null;
@@ -87,6 +261,7 @@ public class SignalWidth implements Serializable {
 	}
 
 	public void set(int i) {
+		checkMutable();
 		struct = null;
 		widths = new ArrayList<>();
 		widths.add(i);
@@ -94,6 +269,7 @@ public class SignalWidth implements Serializable {
 	}
 
 	public void set(SignalWidth w, boolean deep) {
+		checkMutable();
 		struct = null;
 		widths = null;
 		next = null;
@@ -127,6 +303,7 @@ public class SignalWidth implements Serializable {
 	}
 
 	public void setNext(SignalWidth s) {
+		checkMutable();
 		next = s;
 	}
 
@@ -151,10 +328,12 @@ public class SignalWidth implements Serializable {
 	}
 
 	public void setText(String text) {
+		checkMutable();
 		this.text = text;
 	}
 
 	public void setStruct(Struct struct) {
+		checkMutable();
 		this.struct = struct;
 	}
 
@@ -163,6 +342,7 @@ public class SignalWidth implements Serializable {
 	}
 
 	public void setWidths(ArrayList<Integer> widths) {
+		checkMutable();
 		this.widths = widths;
 	}
 
@@ -171,6 +351,8 @@ public class SignalWidth implements Serializable {
 	}
 
 	public List<Integer> getDimensions() {
+		if (frozen)
+			return dimensions;
 		if (!isFixed())
 			throw new InvalidParameterException("SignalWidth is not fixed!");
 
@@ -191,6 +373,8 @@ public class SignalWidth implements Serializable {
 	}
 
 	public int getTotalWidth() {
+		if (frozen)
+			return totalWidth;
 		if (!isFixed())
 			throw new InvalidParameterException("Signal width is not fixed in size!");
 
@@ -260,8 +444,14 @@ public class SignalWidth implements Serializable {
 
 	@Override
 	public boolean equals(Object o) {
+		if (o == this)
+			return true;
 		if (o instanceof SignalWidth) {
 			SignalWidth s = (SignalWidth) o;
+			if (shared && s.shared) // only one of each shape is shared
+				return false;
+			if (frozen && s.frozen && hash != s.hash)
+				return false;
 			if (!((struct != null && struct.equals(s.struct)) || (widths != null && widths.equals(s.widths)) || text != null && text.equals(s.text)))
 				return false;
 			if ((next != null && next.equals(s.next)) || (next == null && s.next == null))
@@ -272,6 +462,12 @@ public class SignalWidth implements Serializable {
 
 	@Override
 	public int hashCode() {
+		if (frozen)
+			return hash;
+		return computeHash();
+	}
+
+	private int computeHash() {
 		int h = 0;
 		if (struct != null)
 			h ^= struct.hashCode();
@@ -322,6 +518,7 @@ public class SignalWidth implements Serializable {
 	}
 
 	public void simplify() {
+		checkMutable();
 		for (SignalWidth ptr = this; ptr != null; ptr = ptr.next) {
 			if (ptr.widths != null && ptr.next != null && ptr.next.widths != null) {
 				ptr.widths.addAll(ptr.next.widths);
@@ -1,5 +1,6 @@
 package com.alchitry.labs.parsers.styles;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -14,6 +15,7 @@ import org.eclipse.swt.custom.ExtendedModifyListener;
 import org.eclipse.swt.events.VerifyEvent;
 import org.eclipse.swt.events.VerifyListener;
 
+import com.alchitry.labs.gui.PieceTableContent.Snapshot;
 import com.alchitry.labs.gui.StyledCodeEditor;
 import com.alchitry.labs.gui.UndoRedo;
 import com.alchitry.labs.parsers.lucid.indent.LucidIndentBaseListener;
@@ -22,6 +24,7 @@ import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser;
 import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser.AlwaysBlockContext;
 import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser.Always_lineContext;
 import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser.ElemContext;
+import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser.GlobalContext;
 import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser.Else_blockContext;
 import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser.IndentContext;
 import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser.ModuleContext;
@@ -29,26 +32,60 @@ import com.alchitry.labs.parsers.lucid.indent.LucidIndentParser.SingleBlockConte
 import com.alchitry.labs.style.IndentProvider;
 
 public class LucidNewLineIndenter extends LucidIndentBaseListener implements VerifyListener, ExtendedModifyListener, IndentProvider {
+	private static final int KEYWORD_LENGTH = 6; // length of module and global
 
 	private StyledCodeEditor editor;
 	private CommonTokenStream tokens;
 	private int[] tabs = new int[10];
 	private int[] lineOffsets = new int[10];
-	private String text;
+	private CharSequence text;
 	private UndoRedo undo;
 
+	/*
+	 * Indents are cached per line from the last parse. Modules and globals don't affect the indents
+	 * of each other so the text is split into segments at each top level module or global keyword
+	 * and only the segment containing an edit needs to be parsed again.
+	 */
+	private int[] lineTabs = new int[10];
+	private int lineCount;
+	private int charCount;
+	private boolean valid;
+	private ArrayList<Segment> segments = new ArrayList<>();
+	private ArrayList<Integer> boundaries = new ArrayList<>();
+
+	private static class Segment {
+		public int offset;
+		public boolean dirty;
+
+		public Segment(int offset, boolean dirty) {
+			this.offset = offset;
+			this.dirty = dirty;
+		}
+	}
+
 	public LucidNewLineIndenter(StyledCodeEditor e, UndoRedo undo) {
 		editor = e;
 		this.undo = undo;
 	}
 
-	private void updateLineOffsets(String text) {
-		int pos = 0;
-		int line = 0;
-		lineOffsets[line++] = pos;
-		while ((pos = text.indexOf("\n", pos) + 1) != 0) {
-			lineOffsets[line++] = pos - 1;
+	// counts breaks the same way the editor does (\r\n, \n, or a lone \r) so tabs has a slot for every line
+	private static int countLineBreaks(CharSequence text) {
+		int count = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '\n' || (c == '\r' && (i + 1 == length || text.charAt(i + 1) != '\n')))
+				count++;
 		}
+		return count;
+	}
+
+	private void updateLineOffsets(CharSequence text) {
+		int line = 0;
+		lineOffsets[line++] = 0;
+		for (int pos = 0; pos < text.length(); pos++)
+			if (text.charAt(pos) == '\n')
+				lineOffsets[line++] = pos;
 		lineOffsets[line] = Integer.MAX_VALUE;
 	}
 
@@ -59,17 +96,142 @@ public class LucidNewLineIndenter extends LucidIndentBaseListener implements Ver
 		return line - 2;
 	}
 
-	private void updateIndents(String text) {
+	// fills tabs and boundaries for the lines of text, returns false if a block comment wasn't closed
+	private boolean updateIndents(CharSequence text, CharStream charStream) {
+		int lines = countLineBreaks(text) + 1;
+		if (tabs.length <= lines) {
+			tabs = new int[lines * 2];
+			lineOffsets = new int[lines * 2];
+		}
 		updateLineOffsets(text);
 		Arrays.fill(tabs, 0);
+		boundaries.clear();
 		this.text = text;
-		CharStream charStream = CharStreams.fromString(text);
 		LucidIndentLexer lexer = new LucidIndentLexer(charStream);
+		lexer.removeErrorListeners();
 		tokens = new CommonTokenStream(lexer);
 		LucidIndentParser parser = new LucidIndentParser(tokens);
 		parser.addParseListener(this);
 		parser.removeErrorListeners(); // don't print errors
 		parser.lucid();
+
+		for (Token t : tokens.getTokens())
+			if (t.getType() == LucidIndentLexer.STUFF && t.getText().contains("/*"))
+				return false;
+		return true;
+	}
+
+	private void fullParse() {
+		Snapshot snapshot = editor.getSnapshot();
+		updateIndents(snapshot, snapshot.getCharStream(null));
+
+		lineCount = snapshot.getLineCount();
+		charCount = snapshot.getCharCount();
+		if (lineTabs.length < lineCount)
+			lineTabs = new int[lineCount * 2];
+		System.arraycopy(tabs, 0, lineTabs, 0, lineCount);
+
+		segments.clear();
+		segments.add(new Segment(0, false));
+		for (int b : boundaries)
+			if (b > 0)
+				segments.add(new Segment(b, false));
+		valid = true;
+	}
+
+	private int getSegmentEnd(int idx) {
+		return idx + 1 < segments.size() ? segments.get(idx + 1).offset : charCount;
+	}
+
+	// index of the last segment starting at or before offset
+	private int findSegment(int offset) {
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (segments.get(mid).offset <= offset)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	// index of the segment that sets the indents of line
+	private int findSegmentForLine(int line) {
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (editor.getLineAtOffset(segments.get(mid).offset) < line)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	private void parseSegment(int idx) {
+		Segment segment = segments.get(idx);
+		int start = segment.offset;
+		int end = getSegmentEnd(idx);
+		String segmentText = editor.getTextRange(start, end - start);
+		if (!updateIndents(segmentText, CharStreams.fromString(segmentText)) && end != charCount) {
+			fullParse(); // the comment may be closed in a later segment
+			return;
+		}
+
+		int firstLine = editor.getLineAtOffset(start);
+		int lastLine = editor.getLineAtOffset(end);
+		for (int line = idx == 0 ? 0 : firstLine + 1; line <= lastLine; line++)
+			lineTabs[line] = tabs[line - firstLine];
+
+		segment.dirty = false;
+		for (int i = boundaries.size() - 1; i >= 0; i--)
+			if (boundaries.get(i) > 0)
+				segments.add(idx + 1, new Segment(start + boundaries.get(i), false));
+	}
+
+	private void updateCache(ExtendedModifyEvent e) {
+		if (!valid)
+			return;
+
+		int removedLines = countLineBreaks(e.replacedText);
+		int startLine = editor.getLineAtOffset(e.start);
+		int addedLines = editor.getLineAtOffset(e.start + e.length) - startLine;
+		int newLineCount = lineCount - removedLines + addedLines;
+		int delta = e.length - e.replacedText.length();
+		if (newLineCount != editor.getLineCount() || charCount + delta != editor.getCharCount()) {
+			valid = false;
+			return;
+		}
+
+		if (lineTabs.length < newLineCount)
+			lineTabs = Arrays.copyOf(lineTabs, newLineCount * 2);
+		System.arraycopy(lineTabs, startLine + 1 + removedLines, lineTabs, startLine + 1 + addedLines, lineCount - startLine - 1 - removedLines);
+		lineCount = newLineCount;
+
+		// merge every segment the edit touches, including keywords right before or after it
+		int oldEnd = e.start + e.replacedText.length();
+		int first = findSegment(Math.max(0, e.start - KEYWORD_LENGTH - 1));
+		int last = findSegment(Math.min(oldEnd + 1, charCount));
+		for (int i = last; i > first; i--)
+			segments.remove(i);
+		for (int i = first + 1; i < segments.size(); i++)
+			segments.get(i).offset += delta;
+		segments.get(first).dirty = true;
+		charCount += delta;
+	}
+
+	@Override
+	public void updateIndentList(StyledCodeEditor editor) {
+		if (!valid) {
+			fullParse();
+			return;
+		}
+		for (int i = segments.size() - 1; i >= 0; i--)
+			if (i < segments.size() && segments.get(i).dirty) // a full parse may have replaced the segments
+				parseSegment(i);
 	}
 
 	private void addIndentsToLines(int start, int end) {
@@ -131,6 +293,7 @@ public class LucidNewLineIndenter extends LucidIndentBaseListener implements Ver
 	@Override
 	public void exitModule(ModuleContext ctx) {
 		Token start = tokens.get(ctx.children.get(0).getSourceInterval().a);
+		boundaries.add(start.getStartIndex());
 		for (IndentContext ic : ctx.indent()) {
 			if (ic.getChild(0).getText().equals("{")) {
 				Token end = tokens.get(ic.getChild(0).getSourceInterval().b);
@@ -140,6 +303,11 @@ public class LucidNewLineIndenter extends LucidIndentBaseListener implements Ver
 		}
 	}
 
+	@Override
+	public void exitGlobal(GlobalContext ctx) {
+		boundaries.add(ctx.getStart().getStartIndex());
+	}
+
 	@Override
 	public void exitAlways_line(Always_lineContext ctx) {
 		int exclude = 0;
@@ -190,22 +358,27 @@ public class LucidNewLineIndenter extends LucidIndentBaseListener implements Ver
 		addIndentsToEnd(ctx.children);
 	}
 
-	private void resizeBuffers(int lines) {
-		if (tabs.length <= lines) {
-			tabs = new int[lines * 2];
-			lineOffsets = new int[lines * 2];
-		}
-	}
-
 	@Override
 	public void verifyText(VerifyEvent e) {
 		if (e.text.equals("\n") || e.text.equals("\r\n")) {
-			resizeBuffers(editor.getLineCount() + 1);
-			StringBuilder sb = new StringBuilder(editor.getText());
-			sb.replace(e.start, e.end, e.text + "l;");
-			updateIndents(sb.toString());
+			if (!valid)
+				fullParse();
+
+			// parse only the segments being edited with the new line and a placeholder statement
+			int first = e.start > 0 ? findSegment(e.start - 1) : 0;
+			int last = Math.max(first, e.end > 0 ? findSegment(e.end - 1) : 0);
+			int start = segments.get(first).offset;
+			int end = getSegmentEnd(last);
+			StringBuilder sb = new StringBuilder(editor.getTextRange(start, e.start - start));
+			sb.append(e.text).append("l;").append(editor.getTextRange(e.end, end - e.end));
+			if (!updateIndents(sb, CharStreams.fromString(sb.toString())) && end != charCount) {
+				sb = new StringBuilder(editor.getSnapshot());
+				sb.replace(e.start, e.end, e.text + "l;");
+				start = 0;
+				updateIndents(sb, CharStreams.fromString(sb.toString()));
+			}
 
-			int indents = tabs[getLineAtOffset(e.end + 1)];
+			int indents = tabs[editor.getLineAtOffset(e.start) - editor.getLineAtOffset(start) + 1];
 
 			StringBuilder newText = new StringBuilder(e.text);
 			for (int i = 0; i < indents; i++) {
@@ -231,12 +404,8 @@ public class LucidNewLineIndenter extends LucidIndentBaseListener implements Ver
 	}
 
 	private void unindent(ExtendedModifyEvent e) {
-		resizeBuffers(editor.getLineCount());
-		String text = editor.getText();
-		updateIndents(text);
-
-		int lineNum = getLineAtOffset(e.start);
-		int indents = tabs[lineNum];
+		int lineNum = editor.getLineAtOffset(e.start);
+		int indents = getTabs(lineNum);
 		String line = editor.getLine(lineNum);
 
 		int curIndents = countSpaces(line);
@@ -247,19 +416,19 @@ public class LucidNewLineIndenter extends LucidIndentBaseListener implements Ver
 		}
 	}
 
-	@Override
-	public void updateIndentList(StyledCodeEditor editor) {
-		resizeBuffers(editor.getLineCount() + 1);
-		updateIndents(editor.getText());
-	}
-
 	@Override
 	public int getTabs(int lineNum) {
-		return tabs[lineNum];
+		if (!valid)
+			fullParse();
+		int idx = findSegmentForLine(lineNum);
+		if (segments.get(idx).dirty)
+			parseSegment(idx);
+		return lineTabs[lineNum];
 	}
 
 	@Override
 	public void modifyText(ExtendedModifyEvent e) {
+		updateCache(e);
 		if (e.length == 1 && !undo.isEditing()) {
 			String editedText = editor.getText(e.start, e.start);
 			if (editedText.matches("[}\\])\\/]")) {
@@ -1,25 +1,70 @@
 package com.alchitry.labs.parsers.styles;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.ExtendedModifyEvent;
+import org.eclipse.swt.custom.ExtendedModifyListener;
+import org.eclipse.swt.custom.LineStyleEvent;
+import org.eclipse.swt.custom.LineStyleListener;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
-import org.eclipse.swt.events.ModifyEvent;
-import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.graphics.Color;
 
-import com.alchitry.labs.gui.CachedStyleListner;
+import com.alchitry.labs.Util;
+import com.alchitry.labs.gui.PieceTableContent;
 import com.alchitry.labs.gui.StyledCodeEditor;
+import com.alchitry.labs.gui.Theme;
+import com.alchitry.labs.style.OccurrenceIndex.TokenSource;
+import com.alchitry.labs.style.StyleUtil;
 import com.alchitry.labs.style.StyleUtil.StyleMerger;
 
-public abstract class StyleProvider extends CachedStyleListner implements ModifyListener {
+/*
+ * Lexes the editor one line at a time. The only lexer state that can carry over a line break is
+ * being inside a block comment so that is recorded for each line. After an edit only the changed
+ * lines are lexed again and then the following lines until the recorded state matches again. Lexing
+ * the whole file (when it is opened or replaced) is done on a background thread from a snapshot of the
+ * text and edits made in the meantime start it over.
+ */
+public abstract class StyleProvider implements LineStyleListener, ExtendedModifyListener, TokenSource {
+	private static final StyleRange[] NO_STYLES = new StyleRange[0];
+	private static final int[] NO_TOKENS = new int[0];
+
 	protected StyledText editor;
+	private StyledCodeEditor codeEditor;
+	private Lexer lexer;
+	private ArrayList<LineStyles> lines;
+	private StyleMerger merger;
+	private boolean building; // a full lex is running, the lexer can't be used on the UI thread
+	private int generation; // changes with every edit so stale full lexes can be thrown out
+
+	private List<StyleRange> lineBuffer = new ArrayList<>();
+	private int[] tokenBuffer = new int[64];
+	private int tokenCount;
+	private int styleOffset;
+	private int lineLength;
+
+	private static class LineStyles {
+		public StyleRange[] styles = NO_STYLES; // offsets are relative to the start of the line
+		public int[] tokens = NO_TOKENS; // start and stop pairs relative to the start of the line
+		public boolean endsInComment;
+	}
 
 	public StyleProvider(StyledCodeEditor editor) {
 		super();
 		this.editor = editor;
+		codeEditor = editor;
+		lines = new ArrayList<>();
+		lines.add(new LineStyles());
+		merger = getStyleMerger();
 	}
 
-	@Override
 	protected StyleMerger getStyleMerger() {
 		return new StyleMerger() {
 			@Override
@@ -31,54 +76,239 @@ public abstract class StyleProvider extends CachedStyleListner implements Modify
 		};
 	}
 
-	protected void redraw() {
-		editor.getDisplay().asyncExec(new Runnable() {
-			@Override
-			public void run() {
-				editor.redraw();
-			}
-		});
-	}
-
-	abstract protected void generateStyles(String editorText);
+	abstract protected Lexer createLexer();
 
-	private void updateStyles(String editorText) {
-		invalidateStyles();
-		styles.clear();
+	abstract protected int getBlockCommentType();
 
-		generateStyles(editorText);
-
-		lock.release();
-	}
+	abstract protected void styleToken(Token t);
 
 	protected void addStyle(int start, int stop, Color foreground) {
 		addStyle(start, stop, foreground, SWT.NONE);
 	}
 
-
-
 	protected void addStyle(int start, int stop, Color foreground, int style) {
-		int length = stop - start + 1;
+		start += styleOffset;
+		stop = Math.min(stop + styleOffset, lineLength - 1);
+		if (stop < start)
+			return;
 		StyleRange styleRange = new StyleRange();
 		styleRange.start = start;
-		styleRange.length = length;
+		styleRange.length = stop - start + 1;
 		styleRange.foreground = foreground;
 		styleRange.fontStyle = style;
-		styles.add(styleRange);
+		lineBuffer.add(styleRange);
 	}
 
-	@Override
-	public void modifyText(ModifyEvent e) {
-		final String text = editor.getText();
-		lock.acquireUninterruptibly();
+	private void addToken(int start, int stop) {
+		if (tokenCount + 2 > tokenBuffer.length)
+			tokenBuffer = Arrays.copyOf(tokenBuffer, tokenBuffer.length * 2);
+		tokenBuffer[tokenCount++] = start;
+		tokenBuffer[tokenCount++] = Math.min(stop, lineLength - 1);
+	}
+
+	private static int countLineBreaks(String text) {
+		int count = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n' || (c == '\r' && (i + 1 == text.length() || text.charAt(i + 1) != '\n')))
+				count++;
+		}
+		return count;
+	}
+
+	// lexes a single line starting in the given state and returns if the line ends inside a block comment
+	private boolean lexLine(String line, boolean inComment) {
+		lineBuffer.clear();
+		tokenCount = 0;
+		lineLength = line.length();
+		styleOffset = 0;
+
+		int pos = 0;
+		if (inComment) {
+			int end = line.indexOf("*/");
+			if (end < 0) {
+				addStyle(0, lineLength - 1, Theme.commentColor);
+				return true;
+			}
+			addStyle(0, end + 1, Theme.commentColor);
+			pos = end + 2;
+		}
+
+		if (lexer == null) {
+			lexer = createLexer();
+			lexer.removeErrorListeners();
+		}
+
+		// the new line is added so rules that require one (like single line comments) still match
+		lexer.setInputStream(CharStreams.fromString(line.substring(pos) + "\n"));
+
+		int last = pos;
+		Token t;
+		while ((t = lexer.nextToken()).getType() != Token.EOF) {
+			int start = t.getStartIndex() + pos;
+			if (start >= lineLength)
+				break;
+
+			// a block comment that isn't closed on this line won't be matched by the lexer
+			int open = line.indexOf("/*", last);
+			if (open >= 0 && (open < start || (open == start && t.getType() != getBlockCommentType()))) {
+				styleOffset = 0;
+				addStyle(open, lineLength - 1, Theme.commentColor);
+				return true;
+			}
+
+			styleOffset = pos;
+			styleToken(t);
+			addToken(start, t.getStopIndex() + pos);
+			last = t.getStopIndex() + pos + 1;
+		}
 
-		Thread t = new Thread(new Runnable() {
+		int open = line.indexOf("/*", last);
+		if (open >= 0) {
+			styleOffset = 0;
+			addStyle(open, lineLength - 1, Theme.commentColor);
+			return true;
+		}
+
+		return false;
+	}
+
+	// copies the results of the last lexLine() into the line
+	private void saveLine(LineStyles ls, boolean endsInComment) {
+		ls.styles = lineBuffer.isEmpty() ? NO_STYLES : lineBuffer.toArray(new StyleRange[lineBuffer.size()]);
+		ls.tokens = tokenCount == 0 ? NO_TOKENS : Arrays.copyOf(tokenBuffer, tokenCount);
+		ls.endsInComment = endsInComment;
+	}
+
+	private void relex(int first, int last) {
+		int lineCount = lines.size();
+		int line = first;
+		boolean inComment = first > 0 && lines.get(first - 1).endsInComment;
+		for (; line < lineCount; line++) {
+			LineStyles ls = lines.get(line);
+			boolean endsInComment = lexLine(editor.getLine(line), inComment);
+			boolean converged = line >= last && ls.endsInComment == endsInComment;
+
+			saveLine(ls, endsInComment);
+			inComment = endsInComment;
+
+			if (converged)
+				break;
+		}
+
+		// lines after the edit changed state (a block comment was opened or closed) so they need to be repainted
+		if (line > last) {
+			int start = editor.getOffsetAtLine(last + 1);
+			int end = line + 1 < lineCount ? editor.getOffsetAtLine(line + 1) : editor.getCharCount();
+			if (end > start)
+				editor.redrawRange(start, end - start, false);
+		}
+	}
+
+	// lexes every line of the snapshot, this is run on the build thread
+	private ArrayList<LineStyles> lexAll(PieceTableContent.Snapshot snapshot) {
+		int lineCount = snapshot.getLineCount();
+		ArrayList<LineStyles> result = new ArrayList<>(lineCount);
+		boolean inComment = false;
+		for (int i = 0; i < lineCount; i++) {
+			LineStyles ls = new LineStyles();
+			inComment = lexLine(snapshot.getLine(i), inComment);
+			saveLine(ls, inComment);
+			result.add(ls);
+		}
+		return result;
+	}
+
+	// lexes the whole text on a background thread, edits made before it finishes start it over
+	private void rebuild() {
+		lines.clear();
+		building = true;
+		final int gen = ++generation;
+		final PieceTableContent.Snapshot snapshot = codeEditor.getSnapshot();
+		Thread thread = new Thread(new Runnable() {
 			@Override
 			public void run() {
-				updateStyles(text);
+				final ArrayList<LineStyles> result = lexAll(snapshot);
+				Util.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (editor.isDisposed())
+							return;
+						if (gen != generation) {
+							rebuild();
+							return;
+						}
+						lines = result;
+						building = false;
+						editor.redraw();
+					}
+				});
+			}
+		}, "Style Provider");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void modifyText(ExtendedModifyEvent e) {
+		if (building) {
+			generation++;
+			return;
+		}
+
+		int startLine = editor.getLineAtOffset(e.start);
+		int removed = countLineBreaks(e.replacedText);
+		int added = editor.getLineAtOffset(e.start + e.length) - startLine;
+
+		if (lines.size() - removed + added != editor.getLineCount()) {
+			rebuild();
+			return;
+		}
+
+		// the last edited line ends with the tail of the last replaced line so it starts with its state
+		boolean endsInComment = lines.get(startLine + removed).endsInComment;
+		if (removed > 0)
+			lines.subList(startLine + 1, startLine + 1 + removed).clear();
+		if (added > 0) {
+			List<LineStyles> newLines = new ArrayList<>(added);
+			for (int i = 0; i < added; i++)
+				newLines.add(new LineStyles());
+			lines.addAll(startLine + 1, newLines);
+		}
+		lines.get(startLine + added).endsInComment = endsInComment;
+
+		relex(startLine, startLine + added);
+	}
+
+	@Override
+	public int[] getLineTokens(int line) {
+		if (line < 0 || line >= lines.size())
+			return null;
+		return lines.get(line).tokens;
+	}
+
+	@Override
+	public void lineGetStyle(LineStyleEvent event) {
+		int lineOffset = event.lineOffset;
+		int lineLength = event.lineText.length();
+		int line = editor.getLineAtOffset(lineOffset);
+
+		List<StyleRange> lineStyles = Collections.emptyList();
+		if (line < lines.size()) {
+			StyleRange[] styles = lines.get(line).styles;
+			lineStyles = new ArrayList<>(styles.length);
+			for (StyleRange s : styles) {
+				if (s.start + s.length > lineLength) // stale until the edit is processed
+					break;
+				StyleRange style = StyleUtil.duplicate(s);
+				style.start += lineOffset;
+				lineStyles.add(style);
 			}
-		});
+		}
 
-		t.start();
+		StyleRange[] baseStyles = StyleUtil.getStylesInRange(event.styles, lineOffset, lineLength);
+		List<StyleRange> merged = StyleUtil.mergeStyles(lineStyles, baseStyles, merger);
+		event.styles = merged.toArray(new StyleRange[merged.size()]);
+		event.data = Boolean.TRUE; // styles are per line so anything after this needs to merge again
 	}
 }
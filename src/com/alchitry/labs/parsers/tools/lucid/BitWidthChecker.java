@@ -758,7 +758,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 				return;
 			}
 			try {
-				widths.put(ctx, new SignalWidth(cv.getBigInt().intValue()));
+				widths.put(ctx, SignalWidth.of(cv.getBigInt().intValue()));
 			} catch (ArithmeticException e) {
 				errorChecker.reportWarning(ctx.expr(), ErrorStrings.ARRAY_SIZE_TOO_BIG);
 			}
@@ -769,7 +769,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	public void exitBitSelectorConst(BitSelectorConstContext ctx) {
 		ArrayBounds b = boundsProvider.getBounds(ctx);
 		if (b != null)
-			widths.put(ctx, new SignalWidth(b.getWidth()));
+			widths.put(ctx, SignalWidth.of(b.getWidth()));
 	}
 
 	@Override
@@ -779,7 +779,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 
 		ConstValue width = constExprParser.getValue(ctx.expr(1));
 		if (width != null && width.isNumber())
-			widths.put(ctx, new SignalWidth(width.getBigInt().intValue()));
+			widths.put(ctx, SignalWidth.of(width.getBigInt().intValue()));
 
 	}
 
@@ -974,7 +974,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprNum(ExprNumContext ctx) {
 		if (constExprParser.getValue(ctx) != null)
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 		debug(ctx);
 	}
 
@@ -999,7 +999,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprConcat(ExprConcatContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1058,7 +1058,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprDup(ExprDupContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1094,7 +1094,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprArray(ExprArrayContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1129,7 +1129,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprNegate(ExprNegateContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1140,7 +1140,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprInvert(ExprInvertContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1148,7 +1148,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 			if (ctx.getChild(0).getText().equals("~")) {
 				widths.put(ctx, widths.get(ctx.expr()));
 			} else { // ! operator
-				widths.put(ctx, new SignalWidth(1));
+				widths.put(ctx, SignalWidth.of(1));
 			}
 		debug(ctx);
 	}
@@ -1156,7 +1156,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprMultDiv(ExprMultDivContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1184,7 +1184,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 				if (op1.getWidths().size() != 1 || op2.getWidths().size() != 1)
 					return;
 
-				widths.put(ctx, new SignalWidth(Util.widthOfMult(op1.getWidths().get(0), op2.getWidths().get(0))));
+				widths.put(ctx, SignalWidth.of(Util.widthOfMult(op1.getWidths().get(0), op2.getWidths().get(0))));
 			} else { // divide
 				if (op1.getWidths().size() != 1)
 					errorChecker.reportError(ctx.expr(0), ErrorStrings.DIV_MULTI_DIM);
@@ -1193,7 +1193,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 				if (op1.getWidths().size() != 1 || op2.getWidths().size() != 1)
 					return;
 
-				widths.put(ctx, new SignalWidth(op1.getWidths().get(0))); // width of division is at most the width of the first arg
+				widths.put(ctx, SignalWidth.of(op1.getWidths().get(0))); // width of division is at most the width of the first arg
 			}
 		}
 		debug(ctx);
@@ -1202,7 +1202,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprAddSub(ExprAddSubContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1237,7 +1237,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 			if (op1.getDepth() != 1 || op2.getDepth() != 1)
 				return;
 
-			widths.put(ctx, new SignalWidth(Math.max(op1.getWidths().get(0), op2.getWidths().get(0)) + 1));
+			widths.put(ctx, SignalWidth.of(Math.max(op1.getWidths().get(0), op2.getWidths().get(0)) + 1));
 		}
 		debug(ctx);
 	}
@@ -1245,7 +1245,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprShift(ExprShiftContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1280,7 +1280,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 					break;
 				case "<<":
 				case "<<<":
-					widths.put(ctx, new SignalWidth(op1.getWidths().get(0) + op2.getBigInt().intValue()));
+					widths.put(ctx, SignalWidth.of(op1.getWidths().get(0) + op2.getBigInt().intValue()));
 					break;
 				default:
 					Util.log.severe("BUG: Unknown shift operator!");
@@ -1294,7 +1294,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprAndOr(ExprAndOrContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
@@ -1315,7 +1315,7 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 			}
 
 			if (op1.isSimpleArray() && op1.getDepth() == 1) {
-				widths.put(ctx, new SignalWidth(Math.max(op1.getWidths().get(0), op2.getWidths().get(0))));
+				widths.put(ctx, SignalWidth.of(Math.max(op1.getWidths().get(0), op2.getWidths().get(0))));
 			} else
 				widths.put(ctx, op1); // arrays don't change dimensions
 		}
@@ -1325,22 +1325,22 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprCompress(ExprCompressContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
-		widths.put(ctx, new SignalWidth(1));
+		widths.put(ctx, SignalWidth.of(1));
 		debug(ctx);
 	}
 
 	@Override
 	public void exitExprCompare(ExprCompareContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
-		widths.put(ctx, new SignalWidth(1));
+		widths.put(ctx, SignalWidth.of(1));
 
 		if (ctx.getChildCount() == 3) {
 			String operand = ctx.getChild(1).getText();
@@ -1400,18 +1400,18 @@ public class BitWidthChecker extends LucidBaseListener implements WidthProvider
 	@Override
 	public void exitExprLogical(ExprLogicalContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 
-		widths.put(ctx, new SignalWidth(1));
+		widths.put(ctx, SignalWidth.of(1));
 		debug(ctx);
 	}
 
 	@Override
 	public void exitExprTernary(ExprTernaryContext ctx) {
 		if (constExprParser.getValue(ctx) != null) {
-			widths.put(ctx, new SignalWidth(constExprParser.getValue(ctx).getWidths()));
+			widths.put(ctx, constExprParser.getValue(ctx).getArrayWidth());
 			return;
 		}
 		if (ctx.expr().size() == 3) {
@@ -1,25 +1,30 @@
 package com.alchitry.labs.parsers.tools.lucid;
 
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.apache.commons.text.StringEscapeUtils;
 
 import com.alchitry.labs.Util;
 import com.alchitry.labs.gui.main.MainWindow;
-import com.alchitry.labs.parsers.BigFunctions;
 import com.alchitry.labs.parsers.BitValue;
+import com.alchitry.labs.parsers.ConstFunctions;
 import com.alchitry.labs.parsers.ConstValue;
 import com.alchitry.labs.parsers.errors.ErrorListener;
 import com.alchitry.labs.parsers.errors.ErrorStrings;
@@ -237,7 +242,7 @@ public class ConstExprParser extends LucidBaseListener {
 						cv = new ConstValue(cv);
 						for (Array_indexContext aic : lbsc.array_index()) {
 							ArrayBounds b = boundsProvider.getBounds(aic);
-							if (b == null || b.getMax() >= cv.getValues().size() || b.getMin() < 0) {
+							if (b == null || b.getMax() >= cv.getWidth() || b.getMin() < 0) {
 								if (isWidth)
 									listener.reportError(aic, ErrorStrings.WIDTH_COULD_NOT_BE_EVALUATED);
 								return;
@@ -407,15 +412,13 @@ public class ConstExprParser extends LucidBaseListener {
 		case "$clog2":
 			if (args.length == 1) {
 				if (args[0] != null) {
-					BigInteger bi = null;
-					if (args[0].isNumber())
-						bi = args[0].getBigInt();
-					if (bi != null) {
-						if (bi.compareTo(BigInteger.ZERO) != 0)
-							values.put(ctx, new ConstValue(
-									BigFunctions.ln(new BigDecimal(bi), 32).divide(BigFunctions.LOG2, RoundingMode.HALF_UP).setScale(0, RoundingMode.CEILING).toBigInteger()));
-						else
+					if (args[0].isNumber()) {
+						if (args[0].isZero())
 							listener.reportError(ctx.expr(0), String.format(ErrorStrings.FUNCTION_ARG_ZERO, ctx.expr(0).getText(), args[0].toString()));
+						else if (args[0].isNegative())
+							listener.reportError(ctx.expr(0), String.format(ErrorStrings.FUNCTION_ARG_NEG, ctx.expr(0).getText()));
+						else
+							values.put(ctx, ConstFunctions.clog2(args[0]));
 					} else {
 						listener.reportError(ctx.expr(0), String.format(ErrorStrings.FUNCTION_ARG_NAN, ctx.expr(0).getText(), args[0].toString()));
 					}
@@ -431,20 +434,15 @@ public class ConstExprParser extends LucidBaseListener {
 		case "$pow":
 			if (args.length == 2) {
 				if (args[0] != null && args[1] != null) {
-					BigInteger b1 = null, b2 = null;
-					if (args[0].isNumber())
-						b1 = args[0].getBigInt();
-					else
+					if (!args[0].isNumber())
 						listener.reportError(ctx.expr(0), String.format(ErrorStrings.FUNCTION_ARG_NAN, ctx.expr(0).getText(), args[0].toString()));
 
-					if (args[1].isNumber())
-						b2 = args[1].getBigInt();
-					else
+					if (!args[1].isNumber())
 						listener.reportError(ctx.expr(1), String.format(ErrorStrings.FUNCTION_ARG_NAN, ctx.expr(1).getText(), args[1].toString()));
 
 					try {
-						if (b1 != null && b2 != null)
-							values.put(ctx, new ConstValue(b1.pow(b2.intValueExact())));
+						if (args[0].isNumber() && args[1].isNumber())
+							values.put(ctx, ConstFunctions.pow(args[0], ConstFunctions.intValueExact(args[1])));
 					} catch (ArithmeticException e) {
 						listener.reportError(ctx.expr(1), String.format(ErrorStrings.VALUE_BIGGER_THAN_INT, ctx.expr(1).getText()));
 					}
@@ -546,22 +544,15 @@ public class ConstExprParser extends LucidBaseListener {
 		case "$cdiv":
 			if (args.length == 2) {
 				if (args[0] != null && args[1] != null) {
-					BigInteger b1 = null, b2 = null;
-					if (args[0].isNumber())
-						b1 = args[0].getBigInt();
-					else
+					if (!args[0].isNumber())
 						listener.reportError(ctx.expr(0), String.format(ErrorStrings.FUNCTION_ARG_NAN, ctx.expr(0).getText(), args[0].toString()));
 
-					if (args[1].isNumber())
-						b2 = args[1].getBigInt();
-					else
+					if (!args[1].isNumber())
 						listener.reportError(ctx.expr(1), String.format(ErrorStrings.FUNCTION_ARG_NAN, ctx.expr(1).getText(), args[1].toString()));
 
-					if (b1 != null && b2 != null) {
-						if (!b2.equals(BigInteger.ZERO)) {
-							BigDecimal d1 = new BigDecimal(b1, 10);
-							BigDecimal d2 = new BigDecimal(b2, 10);
-							values.put(ctx, new ConstValue(d1.divide(d2, RoundingMode.HALF_UP).setScale(0, RoundingMode.CEILING).toBigInteger()));
+					if (args[0].isNumber() && args[1].isNumber()) {
+						if (!args[1].isZero()) {
+							values.put(ctx, ConstFunctions.cdiv(args[0], args[1]));
 						} else {
 							listener.reportError(ctx.expr(1), String.format(ErrorStrings.FUNCTION_ARG_ZERO, ctx.expr(1).getText()));
 						}
@@ -582,7 +573,7 @@ public class ConstExprParser extends LucidBaseListener {
 					int size = 0;
 					if (args[1].isNumber())
 						try {
-							size = args[1].getBigInt().intValueExact();
+							size = ConstFunctions.intValueExact(args[1]);
 							if (size < 0)
 								listener.reportError(ctx.expr(1), String.format(ErrorStrings.FUNCTION_ARG_NEG, ctx.expr(1).getText()));
 							if (size == 0)
@@ -828,6 +819,13 @@ public class ConstExprParser extends LucidBaseListener {
 		debug(ctx);
 	}
 
+	// same as new ConstValue(BigInteger.valueOf(value), width)
+	private static ConstValue fromLong(long value, int width) {
+		ConstValue cv = new ConstValue(value, width);
+		cv.setSigned(value < 0);
+		return cv;
+	}
+
 	@Override
 	public void exitExprNegate(ExprNegateContext ctx) {
 		ConstValue value = values.get(ctx.expr());
@@ -847,13 +845,20 @@ public class ConstExprParser extends LucidBaseListener {
 
 		int width = value.getWidth();
 
-		BigInteger bigI = value.getBigInt();
+		if (value.fitsLong() && value.getLong() != Long.MIN_VALUE) {
+			long v = value.getLong();
+			if (!value.isNegative())
+				width = Math.max(Util.minWidthNum(v) + 1, width);
+			values.put(ctx, fromLong(-v, width));
+		} else {
+			BigInteger bigI = value.getBigInt();
 
-		if (!value.isNegative())
-			width = Math.max(Util.minWidthNum(bigI.longValue()) + 1, width);
+			if (!value.isNegative())
+				width = Math.max(Util.minWidthNum(bigI.longValue()) + 1, width);
 
-		ConstValue cv = new ConstValue(value.getBigInt().negate(), width);
-		values.put(ctx, cv);
+			ConstValue cv = new ConstValue(bigI.negate(), width);
+			values.put(ctx, cv);
+		}
 
 		debug(ctx);
 	}
@@ -893,13 +898,18 @@ public class ConstExprParser extends LucidBaseListener {
 				return;
 
 			if (operand.equals("*")) {
+				int width = Util.widthOfMult(op1.getWidth(), op2.getWidth());
 				if (!op1.isNumber() || !op2.isNumber())
-					values.put(ctx, new ConstValue(BitValue.Bx, Util.widthOfMult(op1.getWidth(), op2.getWidth())));
+					values.put(ctx, new ConstValue(BitValue.Bx, width));
+				else if (op1.fitsLong() && op2.fitsLong() && !ConstFunctions.multiplyOverflows(op1.getLong(), op2.getLong()))
+					values.put(ctx, fromLong(op1.getLong() * op2.getLong(), width));
 				else
-					values.put(ctx, new ConstValue(op1.getBigInt().multiply(op2.getBigInt()), Util.widthOfMult(op1.getWidth(), op2.getWidth())));
+					values.put(ctx, new ConstValue(op1.getBigInt().multiply(op2.getBigInt()), width));
 			} else {
-				if (!op1.isNumber() || !op2.isNumber() || op2.getBigInt().equals(BigInteger.ZERO))
+				if (!op1.isNumber() || !op2.isNumber() || op2.isZero())
 					values.put(ctx, new ConstValue(BitValue.Bx, op1.getWidth()));
+				else if (op1.fitsLong() && op2.fitsLong() && (op1.getLong() != Long.MIN_VALUE || op2.getLong() != -1))
+					values.put(ctx, fromLong(op1.getLong() / op2.getLong(), op1.getWidth()));
 				else
 					values.put(ctx, new ConstValue(op1.getBigInt().divide(op2.getBigInt()), op1.getWidth()));
 			}
@@ -924,12 +934,17 @@ public class ConstExprParser extends LucidBaseListener {
 			if (op1.isArray() || op2.isArray())
 				return;
 
-			if (!op1.isNumber() || !op2.isNumber())
-				values.put(ctx, new ConstValue(BitValue.Bx, Math.max(op1.getWidth() + 1, op2.getWidth() + 1)));
-			else if (operand.equals("+")) {
-				values.put(ctx, new ConstValue(op1.getBigInt().add(op2.getBigInt()), Math.max(op1.getWidth(), op2.getWidth()) + 1));
+			int width = Math.max(op1.getWidth(), op2.getWidth()) + 1;
+			if (!op1.isNumber() || !op2.isNumber()) {
+				values.put(ctx, new ConstValue(BitValue.Bx, width));
+			} else if (op1.fitsLong() && op2.fitsLong() && operand.equals("+") && !ConstFunctions.addOverflows(op1.getLong(), op2.getLong())) {
+				values.put(ctx, fromLong(op1.getLong() + op2.getLong(), width));
+			} else if (op1.fitsLong() && op2.fitsLong() && operand.equals("-") && !ConstFunctions.subtractOverflows(op1.getLong(), op2.getLong())) {
+				values.put(ctx, fromLong(op1.getLong() - op2.getLong(), width));
+			} else if (operand.equals("+")) {
+				values.put(ctx, new ConstValue(op1.getBigInt().add(op2.getBigInt()), width));
 			} else {
-				values.put(ctx, new ConstValue(op1.getBigInt().subtract(op2.getBigInt()), Math.max(op1.getWidth(), op2.getWidth()) + 1));
+				values.put(ctx, new ConstValue(op1.getBigInt().subtract(op2.getBigInt()), width));
 			}
 		}
 
@@ -962,16 +977,17 @@ public class ConstExprParser extends LucidBaseListener {
 				values.put(ctx, new ConstValue(BitValue.Bx, op1.getWidth()));
 			else {
 				ConstValue v = new ConstValue(op1);
+				int shift = op2.fitsLong() ? (int) op2.getLong() : op2.getBigInt().intValue();
 				switch (operand) {
 				case ">>":
-					v.shiftRight(op2.getBigInt().intValue(), false);
+					v.shiftRight(shift, false);
 					break;
 				case ">>>":
-					v.shiftRight(op2.getBigInt().intValue(), true);
+					v.shiftRight(shift, true);
 					break;
 				case "<<":
 				case "<<<":
-					v.shiftLeft(op2.getBigInt().intValue());
+					v.shiftLeft(shift);
 					break;
 				default:
 					Util.log.severe("BUG: Unknown shift operator!");
@@ -997,59 +1013,36 @@ public class ConstExprParser extends LucidBaseListener {
 
 			String operand = ctx.getChild(1).getText();
 
-			if (op1.isArray() || op2.isArray()) {
-				if (!op1.getWidths().equals(op2.getWidths())) {
-					if (operand.equals("|"))
-						listener.reportError(ctx.expr(1), ErrorStrings.OR_MULTI_DIM_MISMATCH);
-					else
-						listener.reportError(ctx.expr(1), ErrorStrings.AND_MULTI_DIM_MISMATCH);
-					return;
-				}
-				switch (operand) {
-				case "|":
-					values.put(ctx, ConstValue.Or(op1, op2));
-					break;
-				case "&":
-					values.put(ctx, ConstValue.And(op1, op2));
-					break;
-				case "^":
-					values.put(ctx, ConstValue.Xor(op1, op2));
-					break;
-				case "~|":
-					values.put(ctx, ConstValue.Nor(op1, op2));
-					break;
-				case "~&":
-					values.put(ctx, ConstValue.Nand(op1, op2));
-					break;
-				case "~^":
-					values.put(ctx, ConstValue.Xnor(op1, op2));
-					break;
-				default:
-					Util.log.severe("BUG: Unknown and/or/xor operator!");
-				}
-			} else {
-				switch (operand) {
-				case "|":
-					values.put(ctx, new ConstValue(BitValue.or(op1.getValue(), op2.getValue())));
-					break;
-				case "&":
-					values.put(ctx, new ConstValue(BitValue.and(op1.getValue(), op2.getValue())));
-					break;
-				case "^":
-					values.put(ctx, new ConstValue(BitValue.xor(op1.getValue(), op2.getValue())));
-					break;
-				case "~|":
-					values.put(ctx, new ConstValue(BitValue.nor(op1.getValue(), op2.getValue())));
-					break;
-				case "~&":
-					values.put(ctx, new ConstValue(BitValue.nand(op1.getValue(), op2.getValue())));
-					break;
-				case "~^":
-					values.put(ctx, new ConstValue(BitValue.xnor(op1.getValue(), op2.getValue())));
-					break;
-				default:
-					Util.log.severe("BUG: Unknown and/or/xor operator!");
-				}
+			if ((op1.isArray() || op2.isArray()) && !op1.getWidths().equals(op2.getWidths())) {
+				if (operand.equals("|"))
+					listener.reportError(ctx.expr(1), ErrorStrings.OR_MULTI_DIM_MISMATCH);
+				else
+					listener.reportError(ctx.expr(1), ErrorStrings.AND_MULTI_DIM_MISMATCH);
+				return;
+			}
+
+			// simple values of different widths are padded
+			switch (operand) {
+			case "|":
+				values.put(ctx, ConstValue.Or(op1, op2));
+				break;
+			case "&":
+				values.put(ctx, ConstValue.And(op1, op2));
+				break;
+			case "^":
+				values.put(ctx, ConstValue.Xor(op1, op2));
+				break;
+			case "~|":
+				values.put(ctx, ConstValue.Nor(op1, op2));
+				break;
+			case "~&":
+				values.put(ctx, ConstValue.Nand(op1, op2));
+				break;
+			case "~^":
+				values.put(ctx, ConstValue.Xnor(op1, op2));
+				break;
+			default:
+				Util.log.severe("BUG: Unknown and/or/xor operator!");
 			}
 		}
 
@@ -1267,12 +1260,158 @@ public class ConstExprParser extends LucidBaseListener {
 		}
 	};
 
+	private static final int CACHE_SIZE = 512;
+	private static final int RESULTS_PER_EXPR = 8;
+
+	// parsed expressions, the trees are never changed after parsing so they are shared between threads
+	private static final Map<String, ExprTree> treeCache = Collections.synchronizedMap(new LinkedHashMap<String, ExprTree>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ExprTree> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	});
+
+	// values of expressions along with everything they looked up to get that value
+	private static final Map<String, List<CachedValue>> valueCache = Collections.synchronizedMap(new LinkedHashMap<String, List<CachedValue>>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<CachedValue>> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	});
+
+	private static class ExprTree {
+		public final ParseTree tree;
+		public final boolean global; // global constants aren't looked up through the providers so the value can't be cached
+
+		public ExprTree(ParseTree tree, boolean global) {
+			this.tree = tree;
+			this.global = global;
+		}
+	}
+
+	private static final int LOOKUP_PARAM = 0;
+	private static final int LOOKUP_CONST = 1;
+	private static final int LOOKUP_WIDTH = 2;
+	private static final int LOOKUP_WIDTH_MAP = 3;
+
+	private static class Lookup {
+		public final int type;
+		public final String name;
+		public final Object value;
+
+		public Lookup(int type, String name, Object value) {
+			this.type = type;
+			this.name = name;
+			if (value instanceof ConstValue)
+				value = new ConstValue((ConstValue) value);
+			else if (value instanceof SignalWidth)
+				value = new SignalWidth((SignalWidth) value);
+			this.value = value;
+		}
+
+		public boolean matches(ConstProvider params, ConstProvider constants, WidthProvider width) {
+			Object current;
+			switch (type) {
+			case LOOKUP_PARAM:
+				current = params.getValue(name);
+				break;
+			case LOOKUP_CONST:
+				current = constants.getValue(name);
+				break;
+			case LOOKUP_WIDTH:
+				current = width.getWidth(name);
+				break;
+			default:
+				current = width.checkWidthMap(name);
+				break;
+			}
+			return value == null ? current == null : value.equals(current);
+		}
+	}
+
+	private static class CachedValue {
+		public final List<Lookup> lookups;
+		public final ConstValue value;
+
+		public CachedValue(List<Lookup> lookups, ConstValue value) {
+			this.lookups = lookups;
+			this.value = value;
+		}
+	}
+
+	// passes events to several listeners in the same order the parser does
+	private static class ProxyListener implements ParseTreeListener {
+		private final ParseTreeListener[] listeners;
+
+		public ProxyListener(ParseTreeListener... listeners) {
+			this.listeners = listeners;
+		}
+
+		@Override
+		public void visitTerminal(TerminalNode node) {
+			for (ParseTreeListener l : listeners)
+				l.visitTerminal(node);
+		}
+
+		@Override
+		public void visitErrorNode(ErrorNode node) {
+			for (ParseTreeListener l : listeners)
+				l.visitErrorNode(node);
+		}
+
+		@Override
+		public void enterEveryRule(ParserRuleContext ctx) {
+			for (ParseTreeListener l : listeners) {
+				l.enterEveryRule(ctx);
+				ctx.enterRule(l);
+			}
+		}
+
+		@Override
+		public void exitEveryRule(ParserRuleContext ctx) {
+			for (int i = listeners.length - 1; i >= 0; i--) {
+				ctx.exitRule(listeners[i]);
+				listeners[i].exitEveryRule(ctx);
+			}
+		}
+	}
+
+	private static ExprTree getTree(String text) {
+		ExprTree et = treeCache.get(text);
+		if (et != null)
+			return et;
+
+		CharStream input = CharStreams.fromString(text);
+		LucidLexer lexer = new LucidLexer(input);
+		lexer.removeErrorListeners();
+		final CommonTokenStream tokens = new CommonTokenStream(lexer);
+		LucidParser parser = new LucidParser(tokens);
+		parser.removeErrorListeners();
+		ParseTree tree = parser.expr();
+
+		boolean global = false;
+		for (Token t : tokens.getTokens())
+			if (t.getType() == LucidLexer.SPACE_ID)
+				global = true;
+
+		et = new ExprTree(tree, global);
+		treeCache.put(text, et);
+		return et;
+	}
+
+	/*
+	 * Expressions are only parsed once and their values are reused as long as every param, constant,
+	 * and width the expression looked up still has the same value. This is what lets many instances of
+	 * the same module share the work of evaluating their widths.
+	 */
 	public static ConstValue parseExpr(String text, ConstProvider params, ConstProvider constants, WidthProvider width) {
 		if (text == null)
 			return null;
 
-		ConstExprParser cep = new ConstExprParser(null);
-
 		if (params == null)
 			params = dummyConstProvider;
 
@@ -1282,9 +1421,51 @@ public class ConstExprParser extends LucidBaseListener {
 		if (width == null)
 			width = WidthProvider.dummyProvider;
 
+		ExprTree et = getTree(text);
+
+		if (!et.global) {
+			List<CachedValue> cached = valueCache.get(text);
+			if (cached != null) {
+				synchronized (cached) {
+					for (CachedValue c : cached) {
+						boolean matches = true;
+						for (Lookup l : c.lookups) {
+							if (!l.matches(params, constants, width)) {
+								matches = false;
+								break;
+							}
+						}
+						if (matches)
+							return c.value == null ? null : new ConstValue(c.value);
+					}
+				}
+			}
+		}
+
+		final ArrayList<Lookup> lookups = new ArrayList<>();
+		final boolean[] cacheable = new boolean[] { !et.global };
+
 		final WidthProvider baseProvider = width;
-		final ConstProvider cp = constants;
-		final ConstProvider pp = params;
+		final ConstProvider basePP = params;
+		final ConstProvider baseCP = constants;
+
+		final ConstProvider pp = new ConstProvider() {
+			@Override
+			public ConstValue getValue(String s) {
+				ConstValue cv = basePP.getValue(s);
+				lookups.add(new Lookup(LOOKUP_PARAM, s, cv));
+				return cv;
+			}
+		};
+
+		final ConstProvider cp = new ConstProvider() {
+			@Override
+			public ConstValue getValue(String s) {
+				ConstValue cv = baseCP.getValue(s);
+				lookups.add(new Lookup(LOOKUP_CONST, s, cv));
+				return cv;
+			}
+		};
 
 		// The Width provider doesn't have widths for constants
 		// so use the constant and params providers for widths in
@@ -1294,6 +1475,7 @@ public class ConstExprParser extends LucidBaseListener {
 			@Override
 			public SignalWidth getWidth(String signal) {
 				SignalWidth sw = baseProvider.getWidth(signal);
+				lookups.add(new Lookup(LOOKUP_WIDTH, signal, sw));
 				if (sw == null) {
 					ConstValue cv = cp.getValue(signal);
 					if (cv == null)
@@ -1306,12 +1488,16 @@ public class ConstExprParser extends LucidBaseListener {
 
 			@Override
 			public SignalWidth getWidth(ParserRuleContext ctx) {
-				return baseProvider.getWidth(ctx);
+				SignalWidth sw = baseProvider.getWidth(ctx);
+				if (sw != null) // can't tell what this depends on
+					cacheable[0] = false;
+				return sw;
 			}
 
 			@Override
 			public SignalWidth checkWidthMap(String signal) {
 				SignalWidth sw = baseProvider.checkWidthMap(signal);
+				lookups.add(new Lookup(LOOKUP_WIDTH_MAP, signal, sw));
 				if (sw == null) {
 					ConstValue cv = cp.getValue(signal);
 					if (cv == null)
@@ -1323,27 +1509,35 @@ public class ConstExprParser extends LucidBaseListener {
 			}
 		};
 
+		ConstExprParser cep = new ConstExprParser(null);
 		BoundsParser bp = new BoundsParser(cep, wp, null);
 		cep.setBitWidthChecker(wp);
 		cep.setBoundsProvider(bp);
-		cep.setParamsParser(params);
-		cep.setConstParser(constants);
-
-		CharStream input = CharStreams.fromString(text);
-		LucidLexer lexer = new LucidLexer(input);
-		lexer.removeErrorListeners();
-		final CommonTokenStream tokens = new CommonTokenStream(lexer);
-		LucidParser parser = new LucidParser(tokens);
-		parser.removeErrorListeners();
-
-		parser.addParseListener(bp);
-		parser.addParseListener(cep);
+		cep.setParamsParser(pp);
+		cep.setConstParser(cp);
 
 		cep.enterSource(null);
 		bp.enterSource(null);
 
-		ParseTree tree = parser.expr();
+		// only exit events are used so walking the tree is the same as listening while parsing
+		ParseTreeWalker walker = new ParseTreeWalker();
+		walker.walk(new ProxyListener(bp, cep), et.tree);
+
+		ConstValue value = cep.getValue(et.tree);
+
+		if (cacheable[0]) {
+			List<CachedValue> cached = valueCache.get(text);
+			if (cached == null) {
+				cached = new ArrayList<>();
+				valueCache.put(text, cached);
+			}
+			synchronized (cached) {
+				if (cached.size() >= RESULTS_PER_EXPR)
+					cached.remove(0);
+				cached.add(new CachedValue(lookups, value == null ? null : new ConstValue(value)));
+			}
+		}
 
-		return cep.getValue(tree);
+		return value;
 	}
 }
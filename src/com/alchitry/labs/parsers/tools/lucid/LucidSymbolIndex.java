@@ -0,0 +1,421 @@
+package com.alchitry.labs.parsers.tools.lucid;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+
+import com.alchitry.labs.parsers.lucid.parser.LucidBaseListener;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Const_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Dff_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Dff_singleContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Fsm_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.GlobalContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Inout_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Input_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Module_instContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.ModuleContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.NameContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Output_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Param_conContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Param_nameContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Sig_conContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Sig_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.SignalContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Struct_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Struct_typeContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Type_decContext;
+import com.alchitry.labs.parsers.lucid.parser.LucidParser.Var_decContext;
+import com.alchitry.labs.tools.ParserCache;
+
+/*
+ * Maps the names declared in a set of Lucid files to their definitions and references. Each file
+ * is walked using the tree from the ParserCache and only walked again once the cached tree changes.
+ */
+public class LucidSymbolIndex {
+	public enum Kind {
+		MODULE, GLOBAL, INPUT, OUTPUT, INOUT, PARAM, CONST, SIG, VAR, DFF, FSM, INSTANCE, STRUCT, REFERENCE, PORT_REFERENCE
+	}
+
+	public static class Symbol {
+		public final Kind kind;
+		public final String name;
+		public final String scope; // module or global the symbol is in
+		public final String qualifier; // first part of a reference like global.NAME, module type for ports
+		public final String type; // module type of an instance
+		public final File file;
+		public final int start;
+		public final int stop;
+		public final int line;
+
+		public Symbol(Kind kind, String name, String scope, String qualifier, String type, File file, Token start, Token stop) {
+			this.kind = kind;
+			this.name = name;
+			this.scope = scope;
+			this.qualifier = qualifier;
+			this.type = type;
+			this.file = file;
+			this.start = start.getStartIndex();
+			this.stop = stop.getStopIndex();
+			this.line = start.getLine();
+		}
+
+		public boolean isDefinition() {
+			return kind != Kind.REFERENCE && kind != Kind.PORT_REFERENCE;
+		}
+
+		@Override
+		public String toString() {
+			return kind + " " + (qualifier == null ? "" : qualifier + ".") + name + " in " + scope + " at " + file.getName() + ":" + line;
+		}
+	}
+
+	private static class FileEntry {
+		public int version = -1;
+		public Symbol[] symbols = new Symbol[0]; // sorted by start
+	}
+
+	private HashMap<File, FileEntry> files = new HashMap<>();
+	private HashMap<String, List<Symbol>> definitions = new HashMap<>();
+	private HashMap<String, List<Symbol>> references = new HashMap<>();
+
+	private static Comparator<Symbol> startComparator = new Comparator<Symbol>() {
+		@Override
+		public int compare(Symbol o1, Symbol o2) {
+			return o1.start - o2.start;
+		}
+	};
+
+	// indexes the given files again if their parse trees changed and drops any other files
+	public synchronized void update(Collection<File> lucidFiles) {
+		HashSet<File> keep = new HashSet<>(lucidFiles);
+		for (Iterator<Map.Entry<File, FileEntry>> it = files.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<File, FileEntry> e = it.next();
+			if (!keep.contains(e.getKey())) {
+				removeSymbols(e.getValue());
+				it.remove();
+			}
+		}
+
+		for (File file : lucidFiles)
+			update(file);
+	}
+
+	public synchronized void update(File file) {
+		FileEntry entry = files.get(file);
+		if (entry == null) {
+			entry = new FileEntry();
+			files.put(file, entry);
+		}
+
+		int version = ParserCache.getVersion(file);
+		if (version == entry.version)
+			return;
+
+		removeSymbols(entry);
+		Extractor extractor = new Extractor(file);
+		ParserCache.walk(file, extractor);
+		Collections.sort(extractor.symbols, startComparator);
+		entry.symbols = extractor.symbols.toArray(new Symbol[extractor.symbols.size()]);
+		entry.version = version;
+		for (Symbol s : entry.symbols)
+			add(s.isDefinition() ? definitions : references, s);
+	}
+
+	public synchronized void remove(File file) {
+		FileEntry entry = files.remove(file);
+		if (entry != null)
+			removeSymbols(entry);
+	}
+
+	// true if the file is part of the index
+	public synchronized boolean contains(File file) {
+		return files.containsKey(file);
+	}
+
+	private static void add(HashMap<String, List<Symbol>> map, Symbol s) {
+		List<Symbol> list = map.get(s.name);
+		if (list == null) {
+			list = new ArrayList<>(2);
+			map.put(s.name, list);
+		}
+		list.add(s);
+	}
+
+	private void removeSymbols(FileEntry entry) {
+		for (Symbol s : entry.symbols) {
+			HashMap<String, List<Symbol>> map = s.isDefinition() ? definitions : references;
+			List<Symbol> list = map.get(s.name);
+			if (list != null) {
+				list.remove(s);
+				if (list.isEmpty())
+					map.remove(s.name);
+			}
+		}
+		entry.symbols = new Symbol[0];
+	}
+
+	// returns the definition or reference covering offset in file
+	public synchronized Symbol getSymbolAt(File file, int offset) {
+		FileEntry entry = files.get(file);
+		if (entry == null)
+			return null;
+
+		Symbol[] symbols = entry.symbols;
+		int low = 0;
+		int high = symbols.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (symbols[mid].start <= offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		if (low > 0 && symbols[low - 1].stop >= offset)
+			return symbols[low - 1];
+		return null;
+	}
+
+	public synchronized List<Symbol> getDefinitions(String name) {
+		List<Symbol> list = definitions.get(name);
+		return list == null ? new ArrayList<Symbol>() : new ArrayList<>(list);
+	}
+
+	private List<Symbol> getDefinitions(String name, Kind kind) {
+		List<Symbol> found = new ArrayList<>();
+		List<Symbol> list = definitions.get(name);
+		if (list != null)
+			for (Symbol s : list)
+				if (s.kind == kind)
+					found.add(s);
+		return found;
+	}
+
+	private static boolean isPort(Symbol s) {
+		return s.kind == Kind.INPUT || s.kind == Kind.OUTPUT || s.kind == Kind.INOUT || s.kind == Kind.PARAM;
+	}
+
+	private List<Symbol> resolve(Symbol ref) {
+		List<Symbol> found = new ArrayList<>();
+		if (ref.isDefinition()) {
+			found.add(ref);
+			return found;
+		}
+
+		List<Symbol> candidates = definitions.get(ref.name);
+		if (candidates == null)
+			return found;
+
+		if (ref.kind == Kind.PORT_REFERENCE) {
+			for (Symbol s : candidates)
+				if (isPort(s) && (ref.qualifier == null || ref.qualifier.equals(s.scope)))
+					found.add(s);
+			return found;
+		}
+
+		if (ref.qualifier != null) {
+			// instance.port or global.NAME
+			String scope = ref.qualifier;
+			List<Symbol> inst = definitions.get(ref.qualifier);
+			if (inst != null)
+				for (Symbol s : inst)
+					if (s.kind == Kind.INSTANCE && s.file.equals(ref.file) && s.scope.equals(ref.scope))
+						scope = s.type;
+			for (Symbol s : candidates)
+				if (scope.equals(s.scope) && s.kind != Kind.MODULE)
+					found.add(s);
+			return found;
+		}
+
+		for (Symbol s : candidates)
+			if (s.file.equals(ref.file) && ref.scope != null && ref.scope.equals(s.scope))
+				found.add(s);
+		if (found.isEmpty())
+			for (Symbol s : candidates)
+				if (s.kind == Kind.MODULE || s.kind == Kind.GLOBAL)
+					found.add(s);
+		return found;
+	}
+
+	public synchronized List<Symbol> findDefinitions(File file, int offset) {
+		Symbol s = getSymbolAt(file, offset);
+		if (s == null)
+			return new ArrayList<>();
+		return resolve(s);
+	}
+
+	// returns every reference that resolves to the symbol at offset
+	public synchronized List<Symbol> findReferences(File file, int offset) {
+		List<Symbol> found = new ArrayList<>();
+		List<Symbol> defs = findDefinitions(file, offset);
+		if (defs.isEmpty())
+			return found;
+
+		List<Symbol> refs = references.get(defs.get(0).name);
+		if (refs != null)
+			for (Symbol r : refs)
+				for (Symbol d : resolve(r))
+					if (defs.contains(d)) {
+						found.add(r);
+						break;
+					}
+		return found;
+	}
+
+	public synchronized List<Symbol> getModules() {
+		List<Symbol> modules = new ArrayList<>();
+		for (List<Symbol> list : definitions.values())
+			for (Symbol s : list)
+				if (s.kind == Kind.MODULE)
+					modules.add(s);
+		return modules;
+	}
+
+	public synchronized Symbol getModule(String name) {
+		List<Symbol> list = getDefinitions(name, Kind.MODULE);
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	private static class Extractor extends LucidBaseListener {
+		private File file;
+		private String scope;
+		private ArrayList<Symbol> symbols = new ArrayList<>();
+
+		public Extractor(File file) {
+			this.file = file;
+		}
+
+		private void define(Kind kind, NameContext name, String type) {
+			if (name != null && name.getStart() != null)
+				symbols.add(new Symbol(kind, name.getText(), scope, null, type, file, name.getStart(), name.getStop()));
+		}
+
+		private void reference(Kind kind, NameContext name, String qualifier) {
+			if (name != null && name.getStart() != null)
+				symbols.add(new Symbol(kind, name.getText(), scope, qualifier, null, file, name.getStart(), name.getStop()));
+		}
+
+		@Override
+		public void enterModule(ModuleContext ctx) {
+			scope = null;
+			define(Kind.MODULE, ctx.name(), null);
+			if (ctx.name() != null)
+				scope = ctx.name().getText();
+		}
+
+		@Override
+		public void enterGlobal(GlobalContext ctx) {
+			scope = null;
+			define(Kind.GLOBAL, ctx.name(), null);
+			if (ctx.name() != null)
+				scope = ctx.name().getText();
+		}
+
+		@Override
+		public void exitInput_dec(Input_decContext ctx) {
+			define(Kind.INPUT, ctx.name(), null);
+		}
+
+		@Override
+		public void exitOutput_dec(Output_decContext ctx) {
+			define(Kind.OUTPUT, ctx.name(), null);
+		}
+
+		@Override
+		public void exitInout_dec(Inout_decContext ctx) {
+			define(Kind.INOUT, ctx.name(), null);
+		}
+
+		@Override
+		public void exitParam_name(Param_nameContext ctx) {
+			define(Kind.PARAM, ctx.name(), null);
+		}
+
+		@Override
+		public void exitConst_dec(Const_decContext ctx) {
+			define(Kind.CONST, ctx.name(), null);
+		}
+
+		@Override
+		public void exitType_dec(Type_decContext ctx) {
+			if (ctx.getParent() instanceof Sig_decContext)
+				define(Kind.SIG, ctx.name(), null);
+			else if (ctx.getParent() instanceof Var_decContext)
+				define(Kind.VAR, ctx.name(), null);
+		}
+
+		@Override
+		public void exitDff_single(Dff_singleContext ctx) {
+			if (ctx.getParent() instanceof Dff_decContext)
+				define(Kind.DFF, ctx.name(), null);
+		}
+
+		@Override
+		public void exitFsm_dec(Fsm_decContext ctx) {
+			define(Kind.FSM, ctx.name(), null);
+		}
+
+		@Override
+		public void exitStruct_dec(Struct_decContext ctx) {
+			define(Kind.STRUCT, ctx.name(), null);
+		}
+
+		@Override
+		public void exitModule_inst(Module_instContext ctx) {
+			if (ctx.name().size() != 2)
+				return;
+			reference(Kind.REFERENCE, ctx.name(0), null);
+			define(Kind.INSTANCE, ctx.name(1), ctx.name(0).getText());
+		}
+
+		// port connections are only tied to a module when they are part of the instance
+		private String getInstType(ParserRuleContext ctx) {
+			for (ParserRuleContext p = ctx.getParent(); p != null; p = p.getParent())
+				if (p instanceof Module_instContext) {
+					Module_instContext mi = (Module_instContext) p;
+					return mi.name().isEmpty() ? null : mi.name(0).getText();
+				}
+			return null;
+		}
+
+		@Override
+		public void exitSig_con(Sig_conContext ctx) {
+			reference(Kind.PORT_REFERENCE, ctx.name(), getInstType(ctx));
+		}
+
+		@Override
+		public void exitParam_con(Param_conContext ctx) {
+			reference(Kind.PORT_REFERENCE, ctx.name(), getInstType(ctx));
+		}
+
+		@Override
+		public void exitSignal(SignalContext ctx) {
+			List<NameContext> names = ctx.name();
+			if (names.isEmpty())
+				return;
+			reference(Kind.REFERENCE, names.get(0), null);
+			if (names.size() > 1)
+				reference(Kind.REFERENCE, names.get(1), names.get(0).getText());
+		}
+
+		@Override
+		public void exitStruct_type(Struct_typeContext ctx) {
+			List<NameContext> names = ctx.name();
+			if (names.size() == 1) {
+				reference(Kind.REFERENCE, names.get(0), null);
+			} else if (names.size() == 2) {
+				reference(Kind.REFERENCE, names.get(0), null);
+				reference(Kind.REFERENCE, names.get(1), names.get(0).getText());
+			}
+		}
+	}
+}
@@ -25,6 +25,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
 import java.util.logging.Level;
 
 import org.apache.commons.io.FileUtils;
@@ -66,6 +67,7 @@ import com.alchitry.labs.parsers.tools.lucid.LucidExtractor;
 import com.alchitry.labs.parsers.tools.lucid.LucidGlobalExtractor;
 import com.alchitry.labs.parsers.tools.lucid.LucidModuleExtractor;
 import com.alchitry.labs.parsers.tools.lucid.LucidModuleRenamer;
+import com.alchitry.labs.parsers.tools.lucid.LucidSymbolIndex;
 import com.alchitry.labs.parsers.tools.verilog.VerilogLucidModuleFixer;
 import com.alchitry.labs.parsers.tools.verilog.VerilogModuleListener;
 import com.alchitry.labs.parsers.types.Constant;
@@ -75,6 +77,7 @@ import com.alchitry.labs.project.Primitive.Port;
 import com.alchitry.labs.project.builders.ProjectBuilder;
 import com.alchitry.labs.style.ParseException;
 import com.alchitry.labs.style.SyntaxError;
+import com.alchitry.labs.tools.ParserCache;
 import com.alchitry.labs.widgets.CustomTree;
 import com.alchitry.labs.widgets.CustomTree.TreeElement;
 import com.alchitry.labs.widgets.CustomTree.TreeLeaf;
@@ -113,6 +116,12 @@ public class Project {
 	private CustomTree tree;
 	private Shell shell;
 	private LucidGlobalExtractor globalExtractor = new LucidGlobalExtractor();
+	private static final long SYMBOL_INDEX_DELAY = 500; // ms
+	private LucidSymbolIndex symbolIndex = new LucidSymbolIndex();
+	private final Object symbolLock = new Object();
+	private List<File> symbolFiles; // files waiting to be indexed
+	private Thread symbolIndexer;
+	private ProjectWatcher watcher;
 	private Menu treeMenu;
 	private ProjectBuilder builder;
 	private DebugInfo debugInfo;
@@ -164,6 +173,7 @@ public class Project {
 	}
 
 	public void close() {
+		stopWatching();
 		open = false;
 		sourceFiles.clear();
 		constraintFiles.clear();
@@ -173,6 +183,51 @@ public class Project {
 		projectName = null;
 	}
 
+	// pushes changes made outside the editor to the parser cache, symbol index, and tree
+	public void startWatching() {
+		stopWatching();
+		if (projectFolder == null)
+			return;
+		watcher = new ProjectWatcher(projectFolder, new ProjectWatcher.ChangeListener() {
+			@Override
+			public void filesChanged(Set<File> files, boolean created) {
+				if (files == null) {
+					ParserCache.flush();
+				} else {
+					for (File file : files) {
+						ParserCache.invalidate(file);
+						if (symbolIndex.contains(file)) {
+							if (file.isFile())
+								symbolIndex.update(file);
+							else
+								symbolIndex.remove(file);
+						}
+					}
+				}
+
+				if (created && Util.isGUI)
+					Util.asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							updateTree();
+						}
+					});
+			}
+		});
+		if (watcher.start())
+			ParserCache.setWatcher(watcher);
+		else
+			watcher = null;
+	}
+
+	public void stopWatching() {
+		if (watcher != null) {
+			ParserCache.setWatcher(null);
+			watcher.stop();
+			watcher = null;
+		}
+	}
+
 	public boolean isOpen() {
 		return open;
 	}
@@ -778,6 +833,7 @@ public class Project {
 
 	public void updateTree() {
 		if (open && Util.isGUI) {
+			updateSymbolIndex();
 			if (tree.getRootSize() != 1 || !tree.getElement(0).getName().equals(projectName)) {
 				tree.removeAll();
 				TreeNode project = new TreeNode(projectName);
@@ -1113,6 +1169,60 @@ public class Project {
 		return globalExtractor.getStructs();
 	}
 
+	// the index is kept up to date in the background by updateSymbolIndex() so this never parses anything
+	public LucidSymbolIndex getSymbolIndex() {
+		return symbolIndex;
+	}
+
+	/*
+	 * Indexes the project's Lucid files on a background thread. Only changed files are walked again and
+	 * calls made within SYMBOL_INDEX_DELAY of each other are handled in one pass. This needs to be called
+	 * from the UI thread since it reads the project's file lists.
+	 */
+	public void updateSymbolIndex() {
+		ArrayList<File> files = new ArrayList<>();
+		for (File file : getSourceFiles())
+			if (file.getName().endsWith(".luc"))
+				files.add(file);
+		for (IPCore core : getIPCores())
+			for (File file : core.getFiles())
+				if (file.getName().endsWith(".luc"))
+					files.add(file);
+
+		synchronized (symbolLock) {
+			symbolFiles = files;
+			if (symbolIndexer != null)
+				return;
+			symbolIndexer = new Thread("Symbol Indexer") {
+				@Override
+				public void run() {
+					while (true) {
+						try {
+							Thread.sleep(SYMBOL_INDEX_DELAY);
+						} catch (InterruptedException e) {
+						}
+						List<File> next;
+						synchronized (symbolLock) {
+							next = symbolFiles;
+							symbolFiles = null;
+							if (next == null) {
+								symbolIndexer = null;
+								return;
+							}
+						}
+						try {
+							symbolIndex.update(next);
+						} catch (RuntimeException e) {
+							Util.logException(e);
+						}
+					}
+				}
+			};
+			symbolIndexer.setDaemon(true);
+			symbolIndexer.start();
+		}
+	}
+
 	private void addModule(ArrayList<Module> modules, File file) throws IOException {
 		for (Module m : modules)
 			if (m.getFile().getCanonicalPath().equals(file.getCanonicalPath()))
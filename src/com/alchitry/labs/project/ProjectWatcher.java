@@ -0,0 +1,179 @@
+package com.alchitry.labs.project;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.alchitry.labs.Util;
+
+/*
+ * Watches the folders of a project for changes made outside of the editor (git, other editors, etc).
+ * Events are collected until the folders have been quiet for DEBOUNCE ms and then passed to the
+ * listener in one batch from the watcher's thread. The build folder and hidden folders are ignored.
+ */
+public class ProjectWatcher {
+	private static final long DEBOUNCE = 250; // ms
+	private static final long MAX_DELAY = 2000; // ms, longest a change can wait while events keep coming
+
+	public interface ChangeListener {
+		// files is null if events were lost and everything should be considered changed
+		// created is true if any files were created or deleted
+		public void filesChanged(Set<File> files, boolean created);
+	}
+
+	private final File root;
+	private final ChangeListener listener;
+	private WatchService service;
+	private Thread thread;
+	private volatile boolean running;
+	private final ConcurrentHashMap<WatchKey, File> keys = new ConcurrentHashMap<>();
+	private final Set<File> folders = ConcurrentHashMap.newKeySet();
+
+	public ProjectWatcher(File root, ChangeListener listener) {
+		this.root = root;
+		this.listener = listener;
+	}
+
+	// returns false if the folders can't be watched and files need to be checked the old way
+	public boolean start() {
+		// only Windows and Linux have native watchers, the others poll slower than we would
+		if (!Util.isWindows && !Util.isLinux)
+			return false;
+		try {
+			service = FileSystems.getDefault().newWatchService();
+			register(root);
+		} catch (IOException e) {
+			Util.log.severe("Failed to watch project folder: " + e.getMessage());
+			stop();
+			return false;
+		}
+
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "Project Watcher");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	public void stop() {
+		running = false;
+		folders.clear();
+		keys.clear();
+		if (service != null)
+			try {
+				service.close();
+			} catch (IOException e) {
+				Util.log.severe("Failed to close project watcher: " + e.getMessage());
+			}
+		service = null;
+	}
+
+	// true if changes to the file will be reported, this never touches the disk
+	public boolean isWatching(File file) {
+		if (!running)
+			return false;
+		File parent = file.getParentFile();
+		return parent != null && folders.contains(parent);
+	}
+
+	private void register(File folder) throws IOException {
+		if (folder.getName().startsWith(".") || (folder.getName().equals(Project.WORK_FOLDER) && root.equals(folder.getParentFile())))
+			return;
+		WatchKey key = folder.toPath().register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+		keys.put(key, folder);
+		folders.add(folder);
+		File[] children = folder.listFiles();
+		if (children != null)
+			for (File f : children)
+				if (f.isDirectory())
+					register(f);
+	}
+
+	private static void addFiles(File folder, Set<File> files) {
+		File[] children = folder.listFiles();
+		if (children != null)
+			for (File f : children) {
+				files.add(f);
+				if (f.isDirectory())
+					addFiles(f, files);
+			}
+	}
+
+	private void watch() {
+		WatchService service = this.service;
+		HashSet<File> pending = new HashSet<>();
+		boolean created = false;
+		boolean overflow = false;
+		long first = 0;
+
+		try {
+			while (running) {
+				WatchKey key;
+				if (pending.isEmpty() && !overflow) {
+					key = service.take();
+					first = System.currentTimeMillis();
+				} else if (System.currentTimeMillis() - first < MAX_DELAY) {
+					key = service.poll(DEBOUNCE, TimeUnit.MILLISECONDS);
+				} else {
+					key = null;
+				}
+
+				if (key == null) {
+					if (running)
+						listener.filesChanged(overflow ? null : pending, created || overflow);
+					pending = new HashSet<>();
+					created = false;
+					overflow = false;
+					continue;
+				}
+
+				File folder = keys.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW || folder == null) {
+						overflow = true;
+						continue;
+					}
+					File file = new File(folder, ((Path) event.context()).toString());
+					pending.add(file);
+					if (event.kind() != ENTRY_MODIFY)
+						created = true;
+					if (event.kind() == ENTRY_CREATE && file.isDirectory()) {
+						try {
+							register(file);
+						} catch (IOException e) {
+							Util.log.severe("Failed to watch folder " + file.getPath() + ": " + e.getMessage());
+						}
+						addFiles(file, pending); // files may have been added before the folder was watched
+					}
+				}
+
+				if (!key.reset()) {
+					keys.remove(key);
+					if (folder != null)
+						folders.remove(folder);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+}
@@ -134,6 +134,14 @@ public class VivadoBuilder extends ProjectBuilder {
 			return false;
 		}
 
+		// the build time in USR_ACCESS lets the loader check that the FPGA loaded this bin from the flash
+		// it goes first so a value set in the project's constraints wins
+		File usrAccess = Util.assembleFile(workFolder, "constraint", "usr_access.xdc");
+		try (BufferedWriter xdc = new BufferedWriter(new FileWriter(usrAccess))) {
+			xdc.write("set_property BITSTREAM.CONFIG.USR_ACCESS TIMESTAMP [current_design]" + nl);
+		}
+		cFiles.add(0, usrAccess);
+
 		file.write("set projDir \"" + getSanitizedPath(workFolder) + ps + projectDir + "\"" + nl);
 		file.write("set projName \"" + project.getProjectName() + "\"" + nl);
 		file.write("set topName top" + nl);
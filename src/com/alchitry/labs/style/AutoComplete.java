@@ -108,7 +108,7 @@ public class AutoComplete {
 	};
 
 	private String getWordAtCaret() {
-		String text = editor.getText();
+		CharSequence text = editor.getSnapshot();
 		int start, end;
 		end = Math.min(editor.getCaretOffset(), text.length());
 		start = Math.max(end - 1, 0);
@@ -119,7 +119,7 @@ public class AutoComplete {
 			start = end;
 		textLocation.x = start;
 		textLocation.y = end;
-		return text.substring(start, end);
+		return text.subSequence(start, end).toString();
 	}
 
 	private Listener modifyListener = new Listener() {
@@ -133,7 +133,7 @@ public class AutoComplete {
 			String string = getWordAtCaret();
 			char preLetter = '\0';
 			if (textLocation.x > 0)
-				preLetter = editor.getText().charAt(textLocation.x - 1);
+				preLetter = editor.getSnapshot().charAt(textLocation.x - 1);
 
 			if (string.length() == 0 && preLetter != '.') {
 				popupShell.setVisible(false);
@@ -16,16 +16,38 @@ public class AutoFormatter {
 			Util.println("Please fix errors before auto-formatting", true);
 			return;
 		}*/
-		StringBuilder builder = new StringBuilder();
 		indentProvider.updateIndentList(editor);
-		String[] lines = editor.getText().split("(?:\r)?\n");
-		for (int lineNum = 0; lineNum < lines.length; lineNum++) {
-			int indent = indentProvider.getTabs(lineNum);
-			builder.append(appendSpaces(lines[lineNum], indent) + System.lineSeparator());
+
+		// only the lines from the first to the last changed one are replaced in a single edit
+		int lineCount = editor.getLineCount();
+		String[] lines = new String[lineCount];
+		int firstChange = -1;
+		int lastChange = -1;
+		for (int lineNum = 0; lineNum < lineCount; lineNum++) {
+			String line = editor.getLine(lineNum);
+			String newLine = appendSpaces(line, indentProvider.getTabs(lineNum));
+			if (!newLine.equals(line)) {
+				if (firstChange < 0)
+					firstChange = lineNum;
+				lastChange = lineNum;
+			}
+			lines[lineNum] = newLine;
+		}
+
+		if (firstChange < 0)
+			return;
+
+		StringBuilder builder = new StringBuilder();
+		for (int lineNum = firstChange; lineNum <= lastChange; lineNum++) {
+			builder.append(lines[lineNum]);
+			if (lineNum != lastChange) {
+				int end = editor.getOffsetAtLine(lineNum) + editor.getLine(lineNum).length();
+				builder.append(editor.getTextRange(end, editor.getOffsetAtLine(lineNum + 1) - end)); // keep the line delimiter
+			}
 		}
-		int seperatorLen = System.lineSeparator().length();
-		builder.delete(builder.length() - seperatorLen, builder.length());
-		editor.replaceTextRange(0, editor.getCharCount(), builder.toString());
+		int start = editor.getOffsetAtLine(firstChange);
+		int end = editor.getOffsetAtLine(lastChange) + editor.getLine(lastChange).length();
+		editor.replaceTextRange(start, end - start, builder.toString());
 	}
 
 	private String appendSpaces(String line, int spaces) {
@@ -38,4 +60,4 @@ public class AutoFormatter {
 	}
 
 	
-}
\ No newline at end of file
+}
@@ -2,123 +2,62 @@ package com.alchitry.labs.style;
 
 import org.eclipse.swt.custom.CaretEvent;
 import org.eclipse.swt.custom.CaretListener;
-import org.eclipse.swt.custom.LineStyleEvent;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.graphics.Color;
 
-import com.alchitry.labs.Util;
 import com.alchitry.labs.gui.CachedStyleListner;
 import com.alchitry.labs.gui.Theme;
 import com.alchitry.labs.style.StyleUtil.StyleMerger;
 
 public class BracketUnderliner extends CachedStyleListner implements CaretListener {
-	private StyledText editor;
-	private static final String BRACKETS = "{}()[]";
+	private OccurrenceIndex occurrences;
 	private int caretPosition = -1;
-	private int oldStart, oldStop;
+	private int bracket, match;
 
-	public BracketUnderliner(StyledText e) {
-		super();
-		editor = e;
-		oldStart = oldStop = -1;
-	}
-
-	@Override
-	public void lineGetStyle(LineStyleEvent event) {
-		super.lineGetStyle(event);
+	public BracketUnderliner(StyledText e, OccurrenceIndex occurrences) {
+		super(e);
+		this.occurrences = occurrences;
+		bracket = match = -1;
 	}
 
 	private void update() {
-		final String text = editor.getText();
-		final int offset = caretPosition;
-		lock.acquireUninterruptibly();
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				invalidateStyles();
-				styles.clear();
-
-				int offidx = offset - 1;
-				int bidx = -1;
-
-				if (offidx >= 0 && offidx < text.length()) {
-					bidx = BRACKETS.indexOf(text.charAt(offidx));
-				}
-
-				if (bidx < 0) {
-					offidx = offset;
-					if (offidx < text.length()) {
-						bidx = BRACKETS.indexOf(text.charAt(offidx));
-					}
-				}
-
-				int end = -1;
-
-				if (bidx >= 0) {
-					boolean forward = bidx % 2 == 0;
-					int pidx = forward ? bidx + 1 : bidx - 1;
-
-					StyleRange style = new StyleRange();
-					style.background = Theme.highlightedWordColor;
-					style.start = offidx;
-					style.length = 1;
-					styles.add(style);
-
-					end = findMatching(text, BRACKETS.charAt(bidx), BRACKETS.charAt(pidx), offidx, forward);
-					if (end >= 0) {
-						style = new StyleRange();
-						style.background = Theme.highlightedWordColor;
-						style.start = end;
-						style.length = 1;
-						styles.add(style);
-					}
-				} else {
-					offidx = -1;
-				}
-
-				if (oldStart != offidx || oldStop != end) {
-					final int a[] = new int[4];
-					a[0] = oldStart;
-					a[1] = oldStop;
-					a[2] = offidx;
-					a[3] = end;
-					Util.asyncExec(new Runnable() {
-
-						@Override
-						public void run() {
-							if (editor.isDisposed())
-								return;
-							for (int i = 0; i < a.length; i++) {
-								if (a[i] >= 0 && a[i] < editor.getCharCount())
-									editor.redrawRange(a[i], 1, true);
-							}
-						}
-					});
-					oldStart = offidx;
-					oldStop = end;
-				}
+		int offset = caretPosition - 1;
+		int end = occurrences.findMatchingBracket(offset);
+		if (end == OccurrenceIndex.NOT_BRACKET) {
+			offset = caretPosition;
+			end = occurrences.findMatchingBracket(offset);
+		}
 
-				lock.release();
+		if (end == OccurrenceIndex.NOT_BRACKET)
+			offset = end = -1;
+
+		if (bracket != offset || match != end) {
+			int a[] = new int[] { bracket, match, offset, end };
+			bracket = offset;
+			match = end;
+			invalidateStyles();
+			for (int i = 0; i < a.length; i++) {
+				if (a[i] >= 0 && a[i] < editor.getCharCount())
+					editor.redrawRange(a[i], 1, true);
 			}
-		}).start();
+		}
 	}
 
-	private int findMatching(String text, char s, char e, int start, boolean forward) {
-		int idx = start;
-		int length = text.length();
-		int diff = forward ? 1 : -1;
-		int bracketCount = 0;
-		for (idx = start; idx < length && idx >= 0; idx += diff) {
-			char c = text.charAt(idx);
-			if (c == s)
-				bracketCount++;
-			if (c == e)
-				bracketCount--;
-			if (bracketCount == 0)
-				return idx;
-		}
-		return -1;
+	private void addStyle(int offset) {
+		StyleRange style = new StyleRange();
+		style.background = Theme.highlightedWordColor;
+		style.start = offset;
+		style.length = 1;
+		styles.add(style);
+	}
+
+	@Override
+	protected void generateStyles(int firstLine, int lastLine) {
+		if (bracket >= 0)
+			addStyle(bracket);
+		if (match >= 0)
+			addStyle(match);
 	}
 
 	@Override
@@ -0,0 +1,198 @@
+package com.alchitry.labs.style;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.swt.custom.StyledText;
+
+/*
+ * Finds words on a range of lines and matching brackets anywhere in the text. When a TokenSource is
+ * available the lexer tokens are used so only whole tokens match and brackets in comments or strings
+ * are ignored. Otherwise the raw line text is scanned.
+ */
+public class OccurrenceIndex {
+	public static final int NOT_BRACKET = -2;
+	public static final int NO_MATCH = -1;
+
+	private static final String BRACKETS = "{}()[]";
+
+	public interface TokenSource {
+		// start and stop (inclusive) pairs relative to the line start or null if unknown
+		public int[] getLineTokens(int line);
+	}
+
+	private StyledText editor;
+	private TokenSource tokenSource;
+
+	public OccurrenceIndex(StyledText editor, TokenSource tokenSource) {
+		this.editor = editor;
+		this.tokenSource = tokenSource;
+	}
+
+	private int[] getTokens(int line, String text) {
+		if (tokenSource == null)
+			return null;
+		int[] tokens = tokenSource.getLineTokens(line);
+		if (tokens != null && tokens.length > 0 && tokens[tokens.length - 1] >= text.length())
+			return null; // the edit hasn't been lexed yet
+		return tokens;
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	public List<Integer> findWord(String word, int firstLine, int lastLine) {
+		List<Integer> offsets = new ArrayList<>();
+		if (word == null || word.isEmpty())
+			return offsets;
+
+		// selections spanning multiple tokens can only be found in the text
+		boolean singleToken = true;
+		for (int i = 0; i < word.length(); i++)
+			if (!isWordChar(word.charAt(i)))
+				singleToken = false;
+
+		int length = word.length();
+		lastLine = Math.min(lastLine, editor.getLineCount() - 1);
+		for (int line = Math.max(firstLine, 0); line <= lastLine; line++) {
+			String text = editor.getLine(line);
+			int lineOffset = editor.getOffsetAtLine(line);
+			int[] tokens = singleToken ? getTokens(line, text) : null;
+			if (tokens != null) {
+				for (int i = 0; i < tokens.length; i += 2) {
+					if (tokens[i + 1] - tokens[i] + 1 == length && text.regionMatches(tokens[i], word, 0, length))
+						offsets.add(lineOffset + tokens[i]);
+				}
+			} else {
+				for (int index = text.indexOf(word); index >= 0; index = text.indexOf(word, index + length)) {
+					if (index > 0 && isWordChar(text.charAt(index - 1)))
+						continue;
+					if (index + length < text.length() && isWordChar(text.charAt(index + length)))
+						continue;
+					offsets.add(lineOffset + index);
+				}
+			}
+		}
+		return offsets;
+	}
+
+	public List<Integer> findText(String search, int firstLine, int lastLine) {
+		List<Integer> offsets = new ArrayList<>();
+		if (search == null || search.isEmpty())
+			return offsets;
+
+		int length = search.length();
+		lastLine = Math.min(lastLine, editor.getLineCount() - 1);
+		firstLine = Math.max(firstLine, 0);
+		if (firstLine > lastLine)
+			return offsets;
+
+		// a search with a line break can only match across lines so the text of the whole range is searched
+		// along with enough before and after it to catch matches that start or end outside of it
+		if (search.indexOf('\n') >= 0 || search.indexOf('\r') >= 0) {
+			int charCount = editor.getCharCount();
+			int rangeStart = editor.getOffsetAtLine(firstLine);
+			int rangeEnd = lastLine + 1 < editor.getLineCount() ? editor.getOffsetAtLine(lastLine + 1) : charCount;
+			int start = Math.max(0, rangeStart - length + 1);
+			int end = Math.min(charCount, rangeEnd + length - 1);
+			String text = editor.getTextRange(start, end - start);
+			for (int index = StringUtils.indexOfIgnoreCase(text, search); index >= 0; index = StringUtils.indexOfIgnoreCase(text, search, index + length))
+				if (start + index + length > rangeStart && start + index < rangeEnd)
+					offsets.add(start + index);
+			return offsets;
+		}
+
+		for (int line = firstLine; line <= lastLine; line++) {
+			String text = editor.getLine(line);
+			int lineOffset = editor.getOffsetAtLine(line);
+			for (int index = StringUtils.indexOfIgnoreCase(text, search); index >= 0; index = StringUtils.indexOfIgnoreCase(text, search, index + length))
+				offsets.add(lineOffset + index);
+		}
+		return offsets;
+	}
+
+	// returns the bracket in the token or 0 if the token isn't a bracket
+	private static char getBracket(String text, int start, int stop) {
+		if (stop == start && BRACKETS.indexOf(text.charAt(start)) >= 0)
+			return text.charAt(start);
+		if (stop == start + 1 && BRACKETS.indexOf(text.charAt(stop)) >= 0 && BRACKETS.indexOf(text.charAt(stop)) % 2 == 0)
+			return text.charAt(stop); // #( c{ x{
+		return 0;
+	}
+
+	// returns the offset of the matching bracket, NO_MATCH if it doesn't have one, or NOT_BRACKET
+	public int findMatchingBracket(int offset) {
+		if (offset < 0 || offset >= editor.getCharCount())
+			return NOT_BRACKET;
+
+		int line = editor.getLineAtOffset(offset);
+		int lineOffset = editor.getOffsetAtLine(line);
+		String text = editor.getLine(line);
+		int pos = offset - lineOffset;
+		if (pos >= text.length())
+			return NOT_BRACKET;
+
+		char bracket = text.charAt(pos);
+		int bidx = BRACKETS.indexOf(bracket);
+		if (bidx < 0)
+			return NOT_BRACKET;
+		boolean forward = bidx % 2 == 0;
+		char pair = BRACKETS.charAt(forward ? bidx + 1 : bidx - 1);
+		int dir = forward ? 1 : -1;
+		int lineCount = editor.getLineCount();
+
+		int[] tokens = getTokens(line, text);
+		int idx = -1;
+		if (tokens != null) {
+			for (int i = 0; i < tokens.length; i += 2) {
+				if (tokens[i] <= pos && tokens[i + 1] >= pos) {
+					if (getBracket(text, tokens[i], tokens[i + 1]) != bracket || (tokens[i + 1] != pos))
+						return NOT_BRACKET; // bracket is part of a comment, string, etc
+					idx = i;
+					break;
+				}
+			}
+			if (idx < 0)
+				return NOT_BRACKET;
+		}
+
+		int count = 0;
+		while (true) {
+			if (tokens != null) {
+				for (int i = idx; i >= 0 && i < tokens.length; i += 2 * dir) {
+					char c = getBracket(text, tokens[i], tokens[i + 1]);
+					if (c == bracket)
+						count++;
+					else if (c == pair)
+						count--;
+					if (count == 0)
+						return lineOffset + tokens[i + 1];
+				}
+			} else {
+				for (int i = pos; i >= 0 && i < text.length(); i += dir) {
+					char c = text.charAt(i);
+					if (c == bracket)
+						count++;
+					else if (c == pair)
+						count--;
+					if (count == 0)
+						return lineOffset + i;
+				}
+			}
+
+			line += dir;
+			if (line < 0 || line >= lineCount)
+				return NO_MATCH;
+
+			text = editor.getLine(line);
+			lineOffset = editor.getOffsetAtLine(line);
+			tokens = getTokens(line, text);
+			if (tokens != null)
+				idx = forward ? 0 : tokens.length - 2;
+			else
+				pos = forward ? 0 : text.length() - 1;
+		}
+	}
+}
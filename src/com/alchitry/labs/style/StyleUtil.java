@@ -56,6 +56,34 @@ public class StyleUtil {
 		list.add(idx, e);
 	}
 
+	// styles must be sorted by start and not overlap
+	public static StyleRange[] getStylesInRange(StyleRange[] styles, int start, int length) {
+		if (styles == null || styles.length == 0)
+			return styles;
+
+		int low = 0;
+		int high = styles.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (styles[mid].start < start)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		if (low > 0 && styles[low - 1].start + styles[low - 1].length > start)
+			low--;
+
+		int end = start + length;
+		int idx = low;
+		while (idx < styles.length && styles[idx].start < end)
+			idx++;
+
+		if (low == 0 && idx == styles.length)
+			return styles;
+		return Arrays.copyOfRange(styles, low, idx);
+	}
+
 	public static boolean stylesOverlap(StyleRange s1, StyleRange s2) {
 		int s1b = s1.start;
 		int s1e = s1b + s1.length - 1;
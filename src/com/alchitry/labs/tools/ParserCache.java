@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.CharStream;
@@ -21,15 +22,20 @@ import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeListener;
 
 import com.alchitry.labs.Util;
+import com.alchitry.labs.gui.EditorSnapshots;
+import com.alchitry.labs.gui.PieceTableContent.Snapshot;
 import com.alchitry.labs.parsers.constraints.AlchitryConstraintsLexer;
 import com.alchitry.labs.parsers.constraints.AlchitryConstraintsParser;
 import com.alchitry.labs.parsers.lucid.parser.LucidLexer;
 import com.alchitry.labs.parsers.lucid.parser.LucidParser;
 import com.alchitry.labs.parsers.verilog.Verilog2001Lexer;
 import com.alchitry.labs.parsers.verilog.Verilog2001Parser;
+import com.alchitry.labs.project.ProjectWatcher;
 
 public class ParserCache {
 	private static HashMap<File, CacheEntry> treeMap = new HashMap<>();
+	private static AtomicInteger versions = new AtomicInteger(); // versions are never reused, even after a flush
+	private static volatile ProjectWatcher watcher; // files it watches aren't checked on every access
 
 	private ParserCache() {
 	}
@@ -39,6 +45,8 @@ public class ParserCache {
 		public CommonTokenStream tokens;
 		public File file;
 		public long timeStamp;
+		public boolean dirty;
+		public int version; // changes every time the file is parsed
 		public List<ParseError> errors;
 
 		public CacheEntry(File f) {
@@ -64,12 +72,16 @@ public class ParserCache {
 		}
 	}
 
+	static public void setWatcher(ProjectWatcher w) {
+		watcher = w;
+	}
+
 	static public void invalidate(File file) {
 		synchronized (treeMap) {
 			CacheEntry entry = treeMap.get(file);
 			if (entry != null)
 				synchronized (entry) {
-					entry.timeStamp = -1;
+					entry.dirty = true;
 				}
 		}
 	}
@@ -89,6 +101,23 @@ public class ParserCache {
 		}
 	}
 
+	// the version changes every time the file is parsed so listeners can tell when the tree changed
+	static public int getVersion(File file) {
+		CacheEntry entry;
+		synchronized (treeMap) {
+			entry = treeMap.get(file);
+			if (entry == null) {
+				entry = new CacheEntry(file);
+				treeMap.put(file, entry);
+			}
+		}
+
+		synchronized (entry) {
+			updateEntry(entry);
+			return entry.version;
+		}
+	}
+
 	static public CommonTokenStream getTokens(File file) {
 		CacheEntry entry;
 
@@ -138,10 +167,15 @@ public class ParserCache {
 	}
 
 	static private void updateEntry(CacheEntry entry) {
-		long mod = entry.file.lastModified();
+		ProjectWatcher w = watcher;
+		boolean stale = entry.dirty || entry.tree == null;
+		if (!stale && (w == null || !w.isWatching(entry.file)))
+			stale = entry.file.lastModified() != entry.timeStamp;
 
-		if (mod != entry.timeStamp || entry.tree == null) {
+		if (stale) {
 			// System.out.println("Cache miss!");
+			long mod = entry.file.lastModified();
+			entry.dirty = false;
 			try {
 				entry.tree = parseFile(entry);
 			} catch (IOException e) {
@@ -149,6 +183,7 @@ public class ParserCache {
 			}
 			if (entry.tree != null)
 				entry.timeStamp = mod;
+			entry.version = versions.incrementAndGet();
 		} else {
 			 //System.out.println("Cache hit!");
 		}
@@ -161,17 +196,23 @@ public class ParserCache {
 			return null;
 		}
 
-		String text = Util.getFileText(entry.file);
+		CharStream input;
+		Snapshot snapshot = EditorSnapshots.get(entry.file);
+		if (snapshot != null) {
+			input = snapshot.getCharStream(entry.file.getName());
+		} else {
+			String text = Util.getFileText(entry.file);
 
-		if (text == null) {
-			Util.println("Could not read file " + entry, true);
-			return null;
+			if (text == null) {
+				Util.println("Could not read file " + entry, true);
+				return null;
+			}
+
+			input = CharStreams.fromString(text);
 		}
 
 		ParseTree tree = null;
 
-		CharStream input = CharStreams.fromString(text);
-
 		entry.errors.clear();
 
 		ANTLRErrorListener errorListener = new ANTLRErrorListener() {
@@ -0,0 +1,355 @@
+package com.alchitry.labs.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.alchitry.labs.Util;
+import com.alchitry.labs.project.IPCore;
+import com.alchitry.labs.project.Project;
+
+/*
+ * Searches every source, constraint, and core file of a project for some text. Files are handed to a
+ * few worker threads largest first so one big vendor file doesn't hold up the end of the search. Files
+ * on disk are read into a buffer each thread reuses and scanned as bytes. They aren't memory mapped since
+ * Windows keeps mapped files locked until the mapping is collected. Files open in an editor are scanned
+ * from the editor's snapshot instead. The query is matched against the UTF-8 bytes so case is only
+ * ignored for ASCII.
+ */
+public class ProjectSearch {
+	private static final int READ_BUFFER = 64 * 1024; // reused for each file, bigger files get their own buffer
+	private static final int BINARY_CHECK = 8 * 1024; // bytes checked for a NUL to skip binary files
+	private static final int MAX_LINE_TEXT = 200;
+	public static final int MAX_RESULTS = 10000;
+
+	private static final String[] CORE_EXTENSIONS = { ".luc", ".v", ".vh", ".sv", ".svh", ".vhd", ".vhdl", ".ucf", ".xdc", ".acf", ".pcf",
+			".sdc", ".veo", ".vho", ".txt" };
+
+	public static class Result {
+		public final File file;
+		public final int line; // 0 based
+		public final int column; // characters from the start of the line
+		public final int length; // characters
+		public final String lineText; // the line with trailing whitespace removed, column is an index into it
+
+		public Result(File file, int line, int column, int length, String lineText) {
+			this.file = file;
+			this.line = line;
+			this.column = column;
+			this.length = length;
+			this.lineText = lineText;
+		}
+	}
+
+	public interface ResultListener {
+		// called from the search threads with the results of a single file
+		public void found(List<Result> results);
+
+		// called once from the last search thread to finish
+		public void done(int results, boolean cancelled);
+	}
+
+	private static class Target {
+		public final File file;
+		public final CharSequence buffer;
+		public final long size;
+
+		public Target(File file, CharSequence buffer) {
+			this.file = file;
+			this.buffer = buffer;
+			size = buffer != null ? buffer.length() : file.length();
+		}
+	}
+
+	private final String query;
+	private final boolean matchCase;
+	private final boolean wholeWord;
+	private final byte[] pattern;
+	private final ResultListener listener;
+	private final ConcurrentLinkedQueue<Target> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger resultCount = new AtomicInteger();
+	private final AtomicInteger running = new AtomicInteger();
+	private volatile boolean cancelled;
+
+	public ProjectSearch(String query, boolean matchCase, boolean wholeWord, ResultListener listener) {
+		this.query = query;
+		this.matchCase = matchCase;
+		this.wholeWord = wholeWord;
+		this.listener = listener;
+		pattern = query.getBytes(StandardCharsets.UTF_8);
+		if (!matchCase)
+			for (int i = 0; i < pattern.length; i++)
+				pattern[i] = fold(pattern[i]);
+	}
+
+	// returns every file of the project that can be searched
+	public static List<File> getProjectFiles(Project project) {
+		HashSet<File> files = new HashSet<>();
+		files.addAll(project.getSourceFiles());
+		files.addAll(project.getConstraintFiles());
+		for (IPCore core : project.getIPCores())
+			files.addAll(core.getFiles());
+		addCoreFiles(project.getIPCoreFolder(), files);
+
+		List<File> list = new ArrayList<>();
+		for (File f : files)
+			if (f.isFile())
+				list.add(f);
+		return list;
+	}
+
+	private static void addCoreFiles(File folder, HashSet<File> files) {
+		File[] children = folder.listFiles();
+		if (children == null)
+			return;
+		for (File f : children) {
+			if (f.isDirectory()) {
+				addCoreFiles(f, files);
+			} else {
+				String name = f.getName().toLowerCase();
+				for (String ext : CORE_EXTENSIONS) {
+					if (name.endsWith(ext)) {
+						files.add(f);
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Starts the search and returns right away. Files in buffers are searched using the given text
+	 * instead of what is on disk. The text must not change during the search (use editor snapshots).
+	 */
+	public void start(List<File> files, Map<File, CharSequence> buffers) {
+		if (buffers == null)
+			buffers = new HashMap<>();
+		List<Target> targets = new ArrayList<>();
+		for (File f : files)
+			targets.add(new Target(f, buffers.get(f)));
+		Collections.sort(targets, new Comparator<Target>() {
+			@Override
+			public int compare(Target o1, Target o2) {
+				return Long.compare(o2.size, o1.size);
+			}
+		});
+		queue.addAll(targets);
+
+		int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), targets.size()));
+		if (query.isEmpty() || targets.isEmpty()) {
+			listener.done(0, false);
+			return;
+		}
+
+		running.set(threads);
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "Project Search " + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	private void work() {
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER);
+			Target t;
+			while (!cancelled && (t = queue.poll()) != null) {
+				List<Result> results;
+				try {
+					if (t.buffer != null) {
+						results = search(t.file, t.buffer);
+					} else {
+						results = search(t.file, read(t.file, buf));
+					}
+				} catch (IOException e) {
+					Util.log.severe("Failed to search " + t.file.getPath() + ": " + e.getMessage());
+					continue;
+				}
+				if (results.isEmpty())
+					continue;
+				int total = resultCount.addAndGet(results.size());
+				if (total > MAX_RESULTS) {
+					results = results.subList(0, Math.max(0, results.size() - (total - MAX_RESULTS)));
+					cancelled = true;
+				}
+				if (!results.isEmpty())
+					listener.found(results);
+			}
+		} finally {
+			if (running.decrementAndGet() == 0)
+				listener.done(Math.min(resultCount.get(), MAX_RESULTS), cancelled);
+		}
+	}
+
+	private static byte fold(byte b) {
+		if (b >= 'A' && b <= 'Z')
+			return (byte) (b + ('a' - 'A'));
+		return b;
+	}
+
+	private static boolean isWordChar(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	// reads the file into buf, or a bigger buffer if it doesn't fit, and returns the buffer that was used
+	private ByteBuffer read(File file, ByteBuffer buf) throws IOException {
+		buf.clear();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("file is too big");
+			if (size > buf.capacity()) // not kept so one big file doesn't hold on to the memory
+				buf = ByteBuffer.allocate((int) size);
+			buf.limit((int) size);
+			while (buf.hasRemaining() && channel.read(buf) >= 0)
+				;
+			buf.flip();
+			return buf;
+		}
+	}
+
+	private List<Result> search(File file, ByteBuffer buf) {
+		List<Result> results = new ArrayList<>();
+		int limit = buf.limit();
+		if (limit < pattern.length)
+			return results;
+
+		int check = Math.min(limit, BINARY_CHECK);
+		for (int i = 0; i < check; i++)
+			if (buf.get(i) == 0)
+				return results;
+
+		byte first = pattern[0];
+		int last = limit - pattern.length;
+		int line = 0;
+		int lineStart = 0;
+		for (int i = 0; i <= last; i++) {
+			byte b = buf.get(i);
+			if (b == '\n') {
+				line++;
+				lineStart = i + 1;
+				if (cancelled)
+					return results;
+				continue;
+			}
+			if ((matchCase ? b : fold(b)) != first)
+				continue;
+
+			int j = 1;
+			for (; j < pattern.length; j++) {
+				byte c = buf.get(i + j);
+				if ((matchCase ? c : fold(c)) != pattern[j])
+					break;
+			}
+			if (j != pattern.length)
+				continue;
+			if (wholeWord && ((i > 0 && isWordChar(buf.get(i - 1))) || (i + j < limit && isWordChar(buf.get(i + j)))))
+				continue;
+
+			int lineEnd = i + j;
+			while (lineEnd < limit && buf.get(lineEnd) != '\n' && buf.get(lineEnd) != '\r')
+				lineEnd++;
+			byte[] bytes = new byte[lineEnd - lineStart];
+			for (int k = 0; k < bytes.length; k++)
+				bytes[k] = buf.get(lineStart + k);
+			// decoded in two parts so the column is an exact index into the text
+			String before = new String(bytes, 0, i - lineStart, StandardCharsets.UTF_8);
+			String text = before + new String(bytes, i - lineStart, bytes.length - (i - lineStart), StandardCharsets.UTF_8);
+			results.add(newResult(file, line, text, before.length(), query.length()));
+			i += pattern.length - 1; // the query can't contain a new line
+		}
+		return results;
+	}
+
+	private List<Result> search(File file, CharSequence text) {
+		List<Result> results = new ArrayList<>();
+		int length = query.length();
+		int last = text.length() - length;
+		int line = 0;
+		int lineStart = 0;
+		for (int i = 0; i <= last; i++) {
+			char c = text.charAt(i);
+			if (c == '\n') {
+				line++;
+				lineStart = i + 1;
+				if (cancelled)
+					return results;
+				continue;
+			}
+
+			int j = 0;
+			for (; j < length; j++) {
+				char a = text.charAt(i + j);
+				char b = query.charAt(j);
+				if (a != b && (matchCase || Character.toLowerCase(a) != Character.toLowerCase(b)))
+					break;
+			}
+			if (j != length)
+				continue;
+			if (wholeWord && ((i > 0 && isWordChar(text.charAt(i - 1))) || (i + j < text.length() && isWordChar(text.charAt(i + j)))))
+				continue;
+
+			int lineEnd = i + j;
+			while (lineEnd < text.length() && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r')
+				lineEnd++;
+			results.add(newResult(file, line, text.subSequence(lineStart, lineEnd).toString(), i - lineStart, length));
+			i += length - 1;
+		}
+		return results;
+	}
+
+	// makes a result for the text at offset in the file's text, used to list results found some other way
+	public static Result getResult(File file, CharSequence text, int offset, int length) {
+		int line = 0;
+		int lineStart = 0;
+		for (int i = 0; i < offset && i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n' || (c == '\r' && (i + 1 == text.length() || text.charAt(i + 1) != '\n'))) {
+				line++;
+				lineStart = i + 1;
+			}
+		}
+		int lineEnd = Math.min(offset, text.length());
+		while (lineEnd < text.length() && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r')
+			lineEnd++;
+		return newResult(file, line, text.subSequence(lineStart, lineEnd).toString(), offset - lineStart, length);
+	}
+
+	// the line text is only trimmed at the end so the column still points at the match
+	private static Result newResult(File file, int line, String text, int column, int length) {
+		int end = text.length();
+		while (end > column + length && Character.isWhitespace(text.charAt(end - 1)))
+			end--;
+		int max = Math.max(MAX_LINE_TEXT, column + length);
+		if (end > max)
+			text = text.substring(0, max) + "...";
+		else
+			text = text.substring(0, end);
+		return new Result(file, line, column, length, text);
+	}
+}
@@ -34,6 +34,7 @@ import com.alchitry.labs.Util;
 import com.alchitry.labs.gui.DoubleClickHighlighter;
 import com.alchitry.labs.gui.TextHighligher;
 import com.alchitry.labs.gui.Theme;
+import com.alchitry.labs.style.OccurrenceIndex;
 import com.alchitry.labs.style.StyleUtil;
 
 public class CustomConsole extends StyledText {
@@ -124,13 +125,16 @@ public class CustomConsole extends StyledText {
 
 		lineStyleListeners = new ArrayList<>();
 
-		highlighter = new TextHighligher(this);
+		OccurrenceIndex occurrences = new OccurrenceIndex(this, null);
+
+		highlighter = new TextHighligher(this, occurrences);
 		lineStyleListeners.add(highlighter);
 		addModifyListener(highlighter);
 
-		doubleClick = new DoubleClickHighlighter(this, false, false);
+		doubleClick = new DoubleClickHighlighter(this, occurrences, false, false);
 		lineStyleListeners.add(doubleClick);
 		addListener(SWT.MouseDown, doubleClick);
+		addModifyListener(doubleClick);
 
 		addLineStyleListener(new LineStyleListener() {
 			@Override
@@ -776,9 +776,9 @@ public class Waves extends Canvas {
 	// old = cur;
 	// }
 	// } else {
-	// BitValue old = sig.getValues().get(0).getValue().get(bit);
+	// BitValue old = sig.getValues().get(0).getBit(bit);
 	// for (ConstValue cv : sig.getValues()) {
-	// BitValue cur = cv.getValue().get(bit);
+	// BitValue cur = cv.getBit(bit);
 	// if (!cur.equals(old))
 	// transistions++;
 	// old = cur;
@@ -817,7 +817,7 @@ public class Waves extends Canvas {
 
 			points.add(offset + b.x);
 			if (sig.isExpanded())
-				points.add(sig.getValue(0).getValue().get(bit).equals(BitValue.B1) ? max : min);
+				points.add(sig.getValue(0).getBit(bit).equals(BitValue.B1) ? max : min);
 			else if (sig.isSigned())
 				points.add((int) (sig.getValue(0).getBigInt().doubleValue() / (sigMax / 2.0) * (range / 2.0) + min + range / 2));
 			else
@@ -826,7 +826,7 @@ public class Waves extends Canvas {
 			if (mouseX >= offset + b.x && mouseX < offset + b.x + zoom && mouseY <= min && mouseY >= max) {
 				cursorY = points.get(1);
 				if (sig.isExpanded()) {
-					cursorValue = new ConstValue(sig.getValue(0).getValue().get(bit));
+					cursorValue = new ConstValue(sig.getValue(0).getBit(bit));
 				} else {
 					cursorValue = sig.getValue(0);
 				}
@@ -839,7 +839,7 @@ public class Waves extends Canvas {
 				int nx = offset + b.x;
 				int ny;
 				if (sig.isExpanded())
-					ny = cv.getValue().get(bit).equals(BitValue.B1) ? max : min;
+					ny = cv.getBit(bit).equals(BitValue.B1) ? max : min;
 				else if (sig.isSigned())
 					ny = (int) (cv.getBigInt().doubleValue() / (sigMax / 2.0) * (range / 2.0) + min + range / 2);
 				else
@@ -848,7 +848,7 @@ public class Waves extends Canvas {
 				if (mouseX >= nx && mouseX < nx + zoom && mouseY <= min && mouseY >= max) {
 					cursorY = ny;
 					if (sig.isExpanded()) {
-						cursorValue = new ConstValue(cv.getValue().get(bit));
+						cursorValue = new ConstValue(cv.getBit(bit));
 					} else {
 						cursorValue = cv;
 					}